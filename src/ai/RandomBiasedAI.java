@@ -26,6 +26,7 @@ public class RandomBiasedAI extends AI {
     static final double REGULAR_ACTION_WEIGHT = 1;
     static final double BIASED_ACTION_WEIGHT = 5;
     Random r = new Random();
+    List<UnitAction> actionBuffer = new ArrayList<>();   // reused across calls, to avoid allocating a list per unit
 
 
     public RandomBiasedAI(UnitTypeTable utt) {
@@ -85,7 +86,9 @@ public class RandomBiasedAI extends AI {
         for(Unit u:pgs.getUnits()) {
             if (u.getPlayer()==player) {
                 if (gs.getActionAssignment(u)==null) {
-                    List<UnitAction> l = u.getUnitActions(gs);
+                    List<UnitAction> l = actionBuffer;
+                    l.clear();
+                    u.getUnitActions(gs, 10, l);
                     UnitAction none = null;
                     int nActions = l.size();
                     double []distribution = new double[nActions];
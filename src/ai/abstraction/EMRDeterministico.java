@@ -118,7 +118,7 @@ public class EMRDeterministico extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new EconomyMilitaryRush(utt, pf);
+        return new EconomyMilitaryRush(utt, pf.clone());
     }
 
     @Override
@@ -117,7 +117,7 @@ public class EconomyMilitaryRush extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new EconomyMilitaryRush(utt, pf);
+        return new EconomyMilitaryRush(utt, pf.clone());
     }
 
     @Override
@@ -60,7 +60,7 @@ public class HeavyDefense extends AbstractionLayerAI {
     
 
     public AI clone() {
-        return new HeavyDefense(utt, pf);
+        return new HeavyDefense(utt, pf.clone());
     }
 
     /*
@@ -61,7 +61,7 @@ public class HeavyRush extends AbstractionLayerAI {
     }      
 
     public AI clone() {
-        return new HeavyRush(utt, pf);
+        return new HeavyRush(utt, pf.clone());
     }
 
     /*
@@ -217,7 +217,7 @@ public class LLM_DeepseekR1 extends AbstractionLayerAI {
     
 
     public AI clone() {
-        return new LLM_DeepseekR1(utt, pf);
+        return new LLM_DeepseekR1(utt, pf.clone());
     }
 
     public PlayerAction getAction(int player, GameState gs) {
@@ -494,7 +494,7 @@ public class LLM_Gemini extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new LLM_Gemini(utt, pf);
+        return new LLM_Gemini(utt, pf.clone());
     }
 
 
@@ -63,7 +63,7 @@ public class LightDefense extends AbstractionLayerAI {
     
 
     public AI clone() {
-        return new LightDefense(utt, pf);
+        return new LightDefense(utt, pf.clone());
     }
 
     /*
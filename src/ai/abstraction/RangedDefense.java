@@ -60,7 +60,7 @@ public class RangedDefense extends AbstractionLayerAI {
     }
 
     public AI clone() {
-        return new RangedDefense(utt, pf);
+        return new RangedDefense(utt, pf.clone());
     }
 
     public PlayerAction getAction(int player, GameState gs) {
@@ -114,7 +114,7 @@ public class SimpleEconomyRush extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new SimpleEconomyRush(utt, pf);
+        return new SimpleEconomyRush(utt, pf.clone());
     }
 
     @Override
@@ -59,7 +59,7 @@ public class CRush_V1 extends AbstractionLayerAI {
     }
 
     public AI clone() {
-        return new CRush_V1(utt, pf);
+        return new CRush_V1(utt, pf.clone());
     }
 
     boolean buildingRacks = false;
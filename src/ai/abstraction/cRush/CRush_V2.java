@@ -62,7 +62,7 @@ public class CRush_V2 extends AbstractionLayerAI {
     }
 
     public AI clone() {
-        return new CRush_V2(utt, pf);
+        return new CRush_V2(utt, pf.clone());
     }
 
     public PlayerAction getAction(int player, GameState gs) {
@@ -518,7 +518,7 @@ public class mistral extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new mistral(utt, pf);
+        return new mistral(utt, pf.clone());
     }
 
 
@@ -535,7 +535,7 @@ public class ollama extends AbstractionLayerAI {
 
     @Override
     public AI clone() {
-        return new ollama(utt, pf);
+        return new ollama(utt, pf.clone());
     }
 
 
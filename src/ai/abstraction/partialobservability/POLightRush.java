@@ -36,7 +36,7 @@ public class POLightRush extends LightRush {
     }
 
     public AI clone() {
-        return new POLightRush(utt, pf);
+        return new POLightRush(utt, pf.clone());
     }
 
     public void meleeUnitBehavior(Unit u, Player p, GameState gs) {
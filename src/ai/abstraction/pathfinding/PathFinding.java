@@ -20,6 +20,23 @@ public abstract class PathFinding {
     public abstract UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru);
     public abstract UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru);
 
+    /**
+     * Path finders keep the data structures of their searches from one call to the next,
+     * so an instance must not be used by several threads at once (e.g., by clones of the
+     * same AI playing concurrent matches). AIs should therefore give their clones a clone
+     * of their path finder.
+     * @return a new path finder of the same class (created with its default constructor),
+     * or this one if that class has no default constructor
+     */
+    @Override
+    public PathFinding clone() {
+        try {
+            return getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return this;
+        }
+    }
+
     public String toString() {
         return getClass().getSimpleName();
     }
@@ -69,6 +69,18 @@ public abstract class AI {
         String stats = statisticsString();
         if (stats!=null) System.out.println(stats);        
     }
+
+
+    /**
+     * Returns the number of threads this AI uses to compute its actions (including the one
+     * calling {@link #getAction(int, GameState)}). AIs that use other threads should override
+     * it, since measuring the CPU time of the calling thread does not account for them
+     * (see tournaments.Tournament.setMeasureCpuTime())
+     * @return
+     */
+    public int getNumThreads() {
+        return 1;
+    }
     
     
     @Override
@@ -135,6 +135,11 @@ public class ContinuingAI extends AI {
             return m_AI.statisticsString();
     }    
     
+    @Override
+    public int getNumThreads() {
+        return m_AI.getNumThreads();
+    }
+    
     /**
      * Returns the parameters of the internal AI
      */
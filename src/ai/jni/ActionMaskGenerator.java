@@ -0,0 +1,295 @@
+package ai.jni;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.UnitAction;
+import rts.ZobristHash;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Writes the legal action masks of a player (in the [Y][X][mask] layout of
+ * {@link UnitAction#getValidActionArray(Unit, GameState, UnitTypeTable, int[], int, int)},
+ * with an additional first entry per cell, set to 1 if the player has a unit without
+ * action assignment there) into a flat buffer, either as ints or bit-packed.
+ *
+ * Masks are generated incrementally: the mask of a unit is only recomputed when
+ * the inputs it depends on (the unit itself, the units around it, and the resources
+ * of its owner if it can produce) changed since it was last computed for that cell,
+ * and only the cells whose mask changed since the last call are written. So, successive
+ * calls must write to the same buffer region, which must not be modified in between
+ * by anything else (otherwise, the whole region is rewritten, see {@link #invalidate()}).
+ */
+public class ActionMaskGenerator {
+    UnitTypeTable utt;
+    int maxAttackRange;
+    int maskSize;
+    int wordsPerCell;
+    int[] scratch;
+    List<UnitAction> actionBuffer = new ArrayList<>();
+
+    // per cell, the key of the inputs of the last mask computed there, and that mask (bit-packed):
+    int width = -1, height = -1;
+    long[] keys;
+    boolean[] keyValid;
+    long[] masks;
+
+    // masks currently in the output buffer, and the cells where they are not empty:
+    long[] written;
+    int[] writtenCells;
+    int nWrittenCells = 0;
+    int[] currentCells;
+    int nCurrentCells = 0;
+    int[] currentStamp;
+    int stamp = 0;
+
+    // identification of what was written by the last call:
+    PhysicalGameState lastPgs;
+    Object lastBuffer;
+    int lastOffset;
+    int lastPlayer;
+
+    /**
+     * @param a_utt
+     * @param a_maxAttackRange width of the window of attack locations in the masks
+     * 	(the maxAttackRadius of the JNI clients)
+     */
+    public ActionMaskGenerator(UnitTypeTable a_utt, int a_maxAttackRange) {
+        utt = a_utt;
+        maxAttackRange = a_maxAttackRange;
+        maskSize = 1 + UnitAction.NUMBER_OF_ACTION_TYPES + 4 + 4 + 4 + 4 + utt.getUnitTypes().size() + maxAttackRange * maxAttackRange;
+        wordsPerCell = (maskSize + 63) / 64;
+        scratch = new int[maskSize];
+    }
+
+    /**
+     * @return the number of entries of the mask of each cell
+     */
+    public int getMaskSize() {
+        return maskSize;
+    }
+
+    /**
+     * @return the number of bytes taken by the mask of each cell by
+     * {@link #writePackedMasks(GameState, int, ByteBuffer, int)}
+     */
+    public int getPackedMaskSize() {
+        return (maskSize + 7) / 8;
+    }
+
+    /**
+     * Forgets what was written to the output buffer, so that the next call
+     * rewrites the whole region
+     */
+    public void invalidate() {
+        lastBuffer = null;
+    }
+
+    /**
+     * Writes the masks of 'player' as ints (one per mask entry, height*width*{@link #getMaskSize()} in total)
+     * @param gs
+     * @param player
+     * @param buffer
+     * @param offset index in the buffer of the first int to write
+     */
+    public void writeMasks(GameState gs, int player, IntBuffer buffer, int offset) {
+        boolean full = update(gs, player, buffer, offset);
+        int cells = width * height;
+        if (full) {
+            for (int i = offset; i < offset + cells * maskSize; i++) {
+                buffer.put(i, 0);
+            }
+        }
+        for (int i = 0; i < nWrittenCells; i++) {
+            int cell = writtenCells[i];
+            if (full || currentStamp[cell] == stamp) {
+                continue;
+            }
+            // the cell no longer has a unit of the player waiting for an action:
+            for (int j = 0; j < maskSize; j++) {
+                buffer.put(offset + cell * maskSize + j, 0);
+            }
+        }
+        finishUpdate(full);
+        for (int i = 0; i < nCurrentCells; i++) {
+            int cell = currentCells[i];
+            if (!full && sameAsWritten(cell)) continue;
+            int base = cell * wordsPerCell;
+            for (int j = 0; j < maskSize; j++) {
+                scratch[j] = (int) ((masks[base + (j >> 6)] >>> (j & 63)) & 1);
+            }
+            buffer.put(offset + cell * maskSize, scratch);
+            System.arraycopy(masks, base, written, base, wordsPerCell);
+        }
+    }
+
+    /**
+     * Writes the masks of 'player' bit-packed: the mask of each cell takes
+     * {@link #getPackedMaskSize()} bytes, with entry i stored in bit (i%8) of byte i/8
+     * (i.e., little-endian bit order, as numpy.unpackbits(..., bitorder='little') expects)
+     * @param gs
+     * @param player
+     * @param buffer
+     * @param offset index in the buffer of the first byte to write
+     */
+    public void writePackedMasks(GameState gs, int player, ByteBuffer buffer, int offset) {
+        boolean full = update(gs, player, buffer, offset);
+        int cells = width * height;
+        int bytesPerCell = getPackedMaskSize();
+        if (full) {
+            for (int i = offset; i < offset + cells * bytesPerCell; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        for (int i = 0; i < nWrittenCells; i++) {
+            int cell = writtenCells[i];
+            if (full || currentStamp[cell] == stamp) {
+                continue;
+            }
+            for (int j = 0; j < bytesPerCell; j++) {
+                buffer.put(offset + cell * bytesPerCell + j, (byte) 0);
+            }
+        }
+        finishUpdate(full);
+        for (int i = 0; i < nCurrentCells; i++) {
+            int cell = currentCells[i];
+            if (!full && sameAsWritten(cell)) continue;
+            int base = cell * wordsPerCell;
+            for (int j = 0; j < bytesPerCell; j++) {
+                buffer.put(offset + cell * bytesPerCell + j, (byte) (masks[base + (j >> 3)] >>> ((j & 7) * 8)));
+            }
+            System.arraycopy(masks, base, written, base, wordsPerCell);
+        }
+    }
+
+    /**
+     * Computes the masks of the units of 'player' without action assignment, recording
+     * their cells in 'currentCells' (marked with the current 'stamp'). The cells written
+     * by the previous call are still in 'writtenCells', so callers can clear the ones
+     * that were not marked, before calling finishUpdate()
+     * @return whether the whole output region needs to be rewritten
+     */
+    private boolean update(GameState gs, int player, Object buffer, int offset) {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (pgs.getWidth() != width || pgs.getHeight() != height) {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            int cells = width * height;
+            keys = new long[cells];
+            keyValid = new boolean[cells];
+            masks = new long[cells * wordsPerCell];
+            written = new long[cells * wordsPerCell];
+            writtenCells = new int[cells];
+            currentCells = new int[cells];
+            currentStamp = new int[cells];
+            nWrittenCells = 0;
+            lastBuffer = null;
+        }
+        if (pgs != lastPgs) {
+            // a different map (e.g. after a reset), whose terrain might differ:
+            Arrays.fill(keyValid, false);
+        }
+        boolean full = buffer != lastBuffer || offset != lastOffset || player != lastPlayer || pgs != lastPgs;
+        lastPgs = pgs;
+        lastBuffer = buffer;
+        lastOffset = offset;
+        lastPlayer = player;
+
+        stamp++;
+        nCurrentCells = 0;
+        for (Unit u : pgs.getUnits()) {
+            if (u.getPlayer() != player || gs.getActionAssignment(u) != null) continue;
+            int cell = u.getY() * width + u.getX();
+            long key = key(u, pgs);
+            if (!keyValid[cell] || keys[cell] != key) {
+                Arrays.fill(scratch, 0);
+                scratch[0] = 1;
+                UnitAction.getValidActionArray(u, gs, utt, scratch, maxAttackRange, 1, actionBuffer);
+                int base = cell * wordsPerCell;
+                Arrays.fill(masks, base, base + wordsPerCell, 0);
+                for (int j = 0; j < maskSize; j++) {
+                    if (scratch[j] != 0) masks[base + (j >> 6)] |= 1L << (j & 63);
+                }
+                keys[cell] = key;
+                keyValid[cell] = true;
+            }
+            currentStamp[cell] = stamp;
+            currentCells[nCurrentCells++] = cell;
+        }
+        return full;
+    }
+
+    /**
+     * Makes the cells marked by the last update() the written ones
+     * @param full
+     */
+    private void finishUpdate(boolean full) {
+        if (full) {
+            Arrays.fill(written, 0);
+        } else {
+            for (int i = 0; i < nWrittenCells; i++) {
+                int cell = writtenCells[i];
+                if (currentStamp[cell] != stamp) {
+                    Arrays.fill(written, cell * wordsPerCell, (cell + 1) * wordsPerCell, 0);
+                }
+            }
+        }
+        System.arraycopy(currentCells, 0, writtenCells, 0, nCurrentCells);
+        nWrittenCells = nCurrentCells;
+    }
+
+    private boolean sameAsWritten(int cell) {
+        int base = cell * wordsPerCell;
+        for (int i = base; i < base + wordsPerCell; i++) {
+            if (masks[i] != written[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Key of everything the mask of a unit depends on (see {@link Unit#getUnitActions(GameState)}):
+     * its type, owner and whether it carries resources, the units right next to it,
+     * which unit types its owner can afford, and (for ranged units) the enemy units in range.
+     * Terrain is not included, since it does not change within a map.
+     * @param u
+     * @param pgs
+     * @return
+     */
+    private long key(Unit u, PhysicalGameState pgs) {
+        UnitType type = u.getType();
+        long key = ZobristHash.mix(((long) type.ID << 32) | ((long) (u.getPlayer() + 1) << 1) | (u.getResources() > 0 ? 1 : 0));
+        for (int direction = UnitAction.DIRECTION_UP; direction <= UnitAction.DIRECTION_LEFT; direction++) {
+            Unit other = pgs.getUnitAt(u.getX() + UnitAction.DIRECTION_OFFSET_X[direction], u.getY() + UnitAction.DIRECTION_OFFSET_Y[direction]);
+            key = ZobristHash.mix(key ^ (other == null ? 0 : ((long) (other.getType().ID + 1) << 32) | (other.getPlayer() + 2)));
+        }
+        if (!type.produces.isEmpty()) {
+            Player p = pgs.getPlayer(u.getPlayer());
+            long affordable = 0;
+            for (int i = 0; i < type.produces.size(); i++) {
+                if (p.getResources() >= type.produces.get(i).cost) affordable |= 1L << (i & 63);
+            }
+            key = ZobristHash.mix(key ^ affordable);
+        }
+        if (type.canAttack && type.attackRange > 1) {
+            int range = type.attackRange;
+            for (int dy = -range; dy <= range; dy++) {
+                for (int dx = -range; dx <= range; dx++) {
+                    if (dx * dx + dy * dy > range * range) continue;
+                    Unit other = pgs.getUnitAt(u.getX() + dx, u.getY() + dy);
+                    if (other != null && other.getPlayer() >= 0 && other.getPlayer() != u.getPlayer()) {
+                        key = ZobristHash.mix(key ^ (((long) dx << 32) ^ (dy & 0xffffffffL)));
+                    }
+                }
+            }
+        }
+        return key;
+    }
+}
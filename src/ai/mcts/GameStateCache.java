@@ -0,0 +1,66 @@
+package ai.mcts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import rts.GameState;
+
+/**
+ * Bounded cache of game states, which evicts the least recently used one when it is
+ * full. It is used by search trees whose nodes do not keep their states, but can rebuild
+ * them when they are not in the cache (e.g., {@link ai.mcts.naivemcts.NaiveMCTSNode}).
+ *
+ * @param <K> the type of the keys (typically, the nodes themselves)
+ */
+public class GameStateCache<K> {
+
+    int capacity;
+    // in access order, so that the eldest entry is the least recently used one:
+    private final LinkedHashMap<K, GameState> states;
+
+    /**
+     * @param a_capacity maximum number of states kept
+     */
+    public GameStateCache(int a_capacity) {
+        capacity = a_capacity;
+        states = new LinkedHashMap<K, GameState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, GameState> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param key
+     * @return the state cached for 'key' (which becomes the most recently used one), or null
+     */
+    public GameState get(K key) {
+        return states.get(key);
+    }
+
+    /**
+     * Caches 'state' for 'key', evicting the least recently used state if the cache is full
+     * @param key
+     * @param state
+     */
+    public void put(K key, GameState state) {
+        states.put(key, state);
+    }
+
+    /**
+     * Removes the states of the keys matching 'filter' (e.g., nodes no longer in the tree)
+     * @param filter
+     */
+    public void removeIf(Predicate<? super K> filter) {
+        states.keySet().removeIf(filter);
+    }
+
+    public int size() {
+        return states.size();
+    }
+}
@@ -5,10 +5,12 @@
 package ai.mcts;
 
 import ai.evaluation.EvaluationFunction;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
+import rts.units.Unit;
 
 /**
  *
@@ -46,14 +48,99 @@ public abstract class MCTSNode {
     public int best_child_so_far = -1;   
     
     
+    /**
+     * @return the state of this node (which, in trees that do not keep the states of their
+     * nodes, might have to be rebuilt)
+     */
+    public GameState getGameState() {
+        return gs;
+    }
+
+
+    /**
+     * @return the time of the state of this node (without rebuilding it, see getGameState)
+     */
+    public int getStateTime() {
+        return gs.getTime();
+    }
+
+
+    /**
+     * @return the Zobrist key of the state of this node (without rebuilding it, see getGameState)
+     */
+    public long getStateKey() {
+        return gs.getZobristKey();
+    }
+
+
     public void showNode(int depth, int maxdepth, EvaluationFunction ef) {
         if (children!=null) {
             for(int i = 0;i<children.size();i++) {
                 MCTSNode child = children.get(i);
                 for(int j = 0;j<depth;j++) System.out.print("    ");
-                System.out.println("child explored " + child.visit_count + " (EF: " + ef.evaluate(0, 1, child.gs) + ") Avg evaluation: " + (child.accum_evaluation/((double)child.visit_count)) + " : " + actions.get(i));
+                System.out.println("child explored " + child.visit_count + " (EF: " + ef.evaluate(0, 1, child.getGameState()) + ") Avg evaluation: " + (child.accum_evaluation/((double)child.visit_count)) + " : " + actions.get(i));
                 if (depth<maxdepth) child.showNode(depth+1,maxdepth, ef);
             }        
         }
     }    
+
+
+    /**
+     * Looks (breadth first) for a node whose state is the same as 'a_gs' (see sameState),
+     * and whose type is 'a_type', among this node and its descendants down to the next
+     * nodes of type 'a_type' on each branch (e.g., if this is the root of the tree of the
+     * previous decision of a player, the nodes where that player decides next, which is
+     * where the state of the game when it has to decide again can be). Nodes whose time is
+     * after that of 'a_gs' are not explored either, and only the states of nodes whose
+     * Zobrist key is that of 'a_gs' are retrieved (which might require rebuilding them).
+     * @param a_gs
+     * @param a_type
+     * @return the node, or null if there is none
+     */
+    public MCTSNode findNode(GameState a_gs, int a_type) {
+        LinkedList<MCTSNode> open = new LinkedList<>();
+        open.add(this);
+        while (!open.isEmpty()) {
+            MCTSNode node = open.removeFirst();
+            if (node.getStateTime() > a_gs.getTime()) continue;
+            if (node.type == a_type && node.getStateKey() == a_gs.getZobristKey() &&
+                sameState(node.getGameState(), a_gs)) return node;
+            if (node.children != null && (node == this || node.type != a_type)) open.addAll(node.children);
+        }
+        return null;
+    }
+
+
+    /**
+     * Turns this node into the root of its subtree (so that the rest of the tree it was
+     * part of can be released), updating the depths of the nodes in the subtree
+     */
+    public void makeRoot() {
+        parent = null;
+        int offset = depth;
+        LinkedList<MCTSNode> open = new LinkedList<>();
+        open.add(this);
+        while (!open.isEmpty()) {
+            MCTSNode node = open.removeFirst();
+            node.depth -= offset;
+            if (node.children != null) open.addAll(node.children);
+        }
+    }
+
+
+    /**
+     * @return whether both states are the same (see GameState.equals), including the IDs
+     * of their units (which GameState.equals ignores, but player actions refer to)
+     */
+    public static boolean sameState(GameState gs1, GameState gs2) {
+        if (gs1.getTime() != gs2.getTime()) return false;
+        if (gs1.getZobristKey() != gs2.getZobristKey()) return false;
+        if (!gs1.equals(gs2)) return false;
+        List<Unit> units1 = gs1.getUnits();
+        List<Unit> units2 = gs2.getUnits();
+        for (int i = 0; i < units1.size(); i++) {
+            if (units1.get(i).getID() != units2.get(i).getID()) return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,177 @@
+package ai.mcts.naivemcts;
+
+import ai.mcts.MCTSNode;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import rts.GameState;
+
+/**
+ * NaiveMCTS node that can be searched by several threads at once (see
+ * {@link TreeParallelNaiveMCTS}):
+ * <ul>
+ * <li>The statistics of the nodes and of their unit action tables are updated atomically
+ *     (without locks), and read without synchronization (so a thread might see slightly
+ *     outdated values, which only affects the quality of its selection).</li>
+ * <li>When a thread descends into a child, it counts the visit straight away, together
+ *     with a "virtual loss" (the worst evaluation for the player choosing the child, scaled
+ *     by VIRTUAL_LOSS), both in the child and in the unit actions leading to it. So, other
+ *     threads are discouraged from selecting the same path until the playout finishes, when
+ *     the virtual loss is replaced by the actual evaluation.</li>
+ * <li>Children are added while holding the lock of their parent (which is also held to
+ *     clone its state), and are stored in copy-on-write lists, so they can be iterated
+ *     over while being added.</li>
+ * </ul>
+ * All the nodes draw their random numbers from the generator of the thread using them.
+ */
+public class ConcurrentNaiveMCTSNode extends NaiveMCTSNode {
+
+    static final Random THREAD_RANDOM = new Random() {
+        @Override
+        protected int next(int bits) {
+            return ThreadLocalRandom.current().nextInt() >>> (32 - bits);
+        }
+    };
+
+    static final VarHandle VISIT_COUNT;
+    static final VarHandle ACCUM_EVALUATION;
+    static final VarHandle INT_ELEMENT = MethodHandles.arrayElementVarHandle(int[].class);
+    static final VarHandle DOUBLE_ELEMENT = MethodHandles.arrayElementVarHandle(double[].class);
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VISIT_COUNT = lookup.findVarHandle(MCTSNode.class, "visit_count", int.class);
+            ACCUM_EVALUATION = lookup.findVarHandle(MCTSNode.class, "accum_evaluation", double.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // fraction of the evaluation bound used as virtual loss (0 disables it), fixed for the
+    // lifetime of the node, so that the virtual losses it removes are the ones it added:
+    final double virtual_loss;
+
+
+    public ConcurrentNaiveMCTSNode(int maxplayer, int minplayer, GameState a_gs, ConcurrentNaiveMCTSNode a_parent, double a_evaluation_bound, int a_creation_ID, boolean fensa, double a_virtual_loss) throws Exception {
+        super(maxplayer, minplayer, a_gs, a_parent, a_evaluation_bound, a_creation_ID, fensa);
+        virtual_loss = a_virtual_loss;
+        r = THREAD_RANDOM;
+        if (children != null) {
+            actions = new CopyOnWriteArrayList<>();
+            children = new CopyOnWriteArrayList<>();
+        }
+    }
+
+
+    @Override
+    public NaiveMCTSNode selectLeaf(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {
+        if (unitActionTable == null) return this;
+        if (depth>=max_depth) return this;
+
+        if (children.size()>0 && r.nextFloat()>=epsilon_0) {
+            // sample from the global MAB:
+            NaiveMCTSNode selected = null;
+            if (global_strategy==E_GREEDY) selected = selectFromAlreadySampledEpsilonGreedy(epsilon_g);
+            else if (global_strategy==UCB1) selected = selectFromAlreadySampledUCB1(C);
+            addVirtualLoss(selected);
+            return selected.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+        }  else {
+            // sample from the local MABs (this might recursively call "selectLeaf" internally):
+            return selectLeafUsingLocalMABs(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+        }
+    }
+
+
+    @Override
+    public NaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {
+        Sample sample = sampleFromLocalMABs(epsilon_l);
+
+        NaiveMCTSNode pate;
+        synchronized (this) {
+            pate = getChild(sample);
+            if (pate==null) {
+                GameState gs2 = gs.cloneIssue(sample.action);
+                ConcurrentNaiveMCTSNode node = new ConcurrentNaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions, virtual_loss);
+                addChild(sample, node);
+                return node;
+            }
+        }
+
+        addVirtualLoss(pate);
+        return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+    }
+
+
+    /**
+     * @return the virtual loss of the children of this node (the worst evaluation for the
+     * player choosing among them)
+     */
+    double virtualLoss() {
+        return (type==0 ? -evaluation_bound : evaluation_bound) * virtual_loss;
+    }
+
+
+    /**
+     * Also counts the visit to 'node' (see addVirtualLoss), since other threads can select
+     * it as soon as it is added (so this must be called holding the lock of this node)
+     */
+    @Override
+    void addChild(Sample sample, NaiveMCTSNode node) {
+        node.actionCode = sample.code;
+        node.bigActionCode = sample.bigCode;
+        addVirtualLoss(node);
+        super.addChild(sample, node);
+    }
+
+
+    /**
+     * Counts a visit to 'child', and to the unit actions leading to it in this node, with a
+     * virtual loss as their evaluation (until propagateEvaluation is called)
+     */
+    void addVirtualLoss(NaiveMCTSNode child) {
+        double loss = virtualLoss();
+        VISIT_COUNT.getAndAdd((MCTSNode)child, 1);
+        ACCUM_EVALUATION.getAndAdd((MCTSNode)child, loss);
+        for (int i = 0; i < unitActionTable.size(); i++) {
+            int action = actionIndex(child, i);
+            if (action < 0) continue;
+            UnitActionTableEntry actionTable = unitActionTable.get(i);
+            int idx = actionTable.offset + action;
+            INT_ELEMENT.getAndAdd(actionTable.visit_count, idx, 1);
+            DOUBLE_ELEMENT.getAndAdd(actionTable.accum_evaluation, idx, loss);
+        }
+    }
+
+
+    /**
+     * Replaces the virtual losses added by selectLeaf along the path to this node by
+     * 'evaluation' (the visits were already counted then, except the one of the root)
+     */
+    @Override
+    public void propagateEvaluation(double evaluation, NaiveMCTSNode child) {
+        if (parent == null) {
+            VISIT_COUNT.getAndAdd((MCTSNode)this, 1);
+            ACCUM_EVALUATION.getAndAdd((MCTSNode)this, evaluation);
+        } else {
+            ACCUM_EVALUATION.getAndAdd((MCTSNode)this, evaluation - ((ConcurrentNaiveMCTSNode)parent).virtualLoss());
+        }
+
+        // update the unitAction table:
+        if (child != null) {
+            double delta = evaluation - virtualLoss();
+            for (int i = 0; i < unitActionTable.size(); i++) {
+                int action = actionIndex(child, i);
+                if (action < 0) continue;
+                UnitActionTableEntry actionTable = unitActionTable.get(i);
+                int idx = actionTable.offset + action;
+                DOUBLE_ELEMENT.getAndAdd(actionTable.accum_evaluation, idx, delta);
+            }
+        }
+
+        if (parent != null) {
+            ((NaiveMCTSNode)parent).propagateEvaluation(evaluation, this);
+        }
+    }
+}
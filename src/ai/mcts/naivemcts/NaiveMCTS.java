@@ -10,6 +10,7 @@ import ai.core.AIWithComputationBudget;
 import ai.core.ParameterSpecification;
 import ai.evaluation.EvaluationFunction;
 import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.GameStateCache;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -54,6 +55,14 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     
     public int global_strategy = NaiveMCTSNode.E_GREEDY;
     public boolean forceExplorationOfNonSampledActions = true;
+    // if true, the subtree of the previous search whose state is the current one (if any)
+    // is reused, instead of starting the search from scratch:
+    public boolean treeReuse = false;
+    // if >= 0, the nodes of the tree (other than the root) do not keep their states, and at most
+    // this many of them are cached (the rest are rebuilt from their parents when needed). This is
+    // ignored if the game is not deterministic (see UnitTypeTable.isDeterministic), since rebuilt
+    // states would then differ from the original ones:
+    public int stateCacheSize = -1;
     
     // statistics:
     public long total_runs = 0;
@@ -133,7 +142,10 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         
     
     public AI clone() {
-        return new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy, ef, forceExplorationOfNonSampledActions);
+        NaiveMCTS clone = new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions);
+        clone.treeReuse = treeReuse;
+        clone.stateCacheSize = stateCacheSize;
+        return clone;
     }    
     
     
@@ -150,14 +162,23 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
+        NaiveMCTSNode reused = (treeReuse ? findReusableSubtree(a_player, gs) : null);
         player = a_player;
-        current_iteration = 0;
-        tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+        if (reused != null) {
+            // creation IDs keep increasing, so that they are still unique in the subtree:
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            current_iteration = 0;
+            tree = new NaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), current_iteration++, forceExplorationOfNonSampledActions);
+            // states can only be rebuilt exactly if the game is deterministic:
+            if (stateCacheSize>=0 && gs.getUnitTypeTable().isDeterministic()) tree.setStateCache(new GameStateCache<>(stateCacheSize));
+        }
         
-        if (tree.moveGenerator==null) {
+        if (tree.type==-1) {
             max_actions_so_far = 0;
         } else {
-            max_actions_so_far = Math.max(tree.moveGenerator.getSize(),max_actions_so_far);        
+            max_actions_so_far = Math.max(tree.moveGeneratorSize,max_actions_so_far);        
         }
         gs_to_start_from = gs;
         
@@ -167,6 +188,22 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     }    
     
     
+    /**
+     * Looks for a node of the current tree whose state is 'gs' (e.g., the node reached
+     * after the action returned in the previous frame, and the ones chosen by the opponent)
+     * @param a_player
+     * @param gs
+     * @return the node, or null if there is none (or the tree cannot be reused)
+     */
+    protected NaiveMCTSNode findReusableSubtree(int a_player, GameState gs) {
+        if (tree == null || player != a_player || tree.evaluation_bound != ef.upperBound(gs)) return null;
+        NaiveMCTSNode node = (NaiveMCTSNode)tree.findNode(gs, 0);
+        if (node == null || node.unitActionTable == null) return null;
+        if (DEBUG>=1) System.out.println("NaiveMCTS reusing a subtree with " + node.visit_count + " playouts");
+        return node;
+    }
+
+
     public void resetSearch() {
         if (DEBUG>=2) System.out.println("Resetting search...");
         tree = null;
@@ -197,7 +234,7 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         NaiveMCTSNode leaf = tree.selectLeaf(player, 1-player, epsilon_l, epsilon_g, epsilon_0, global_strategy, MAX_TREE_DEPTH, current_iteration++);
 
         if (leaf!=null) {            
-            GameState gs2 = leaf.gs.clone();
+            GameState gs2 = leaf.getGameState().clone();
             simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME);
 
             int time = gs2.getTime() - gs_to_start_from.getTime();
@@ -232,7 +269,9 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
             NaiveMCTSNode best = (NaiveMCTSNode) tree.children.get(idx);
             System.out.println("NaiveMCTS selected children " + tree.actions.get(idx) + " explored " + best.visit_count + " Avg evaluation: " + (best.accum_evaluation/((double)best.visit_count)));
         }
-        return tree.actions.get(idx);
+        // a copy, since GameState.issueSafe() replaces the units of the pairs in place, and the tree
+        // (which might be reused, and rebuild states from its actions, see stateCacheSize) keeps this one:
+        return tree.actions.get(idx).clone();
     }
     
     
@@ -298,7 +337,7 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.cycleUntilNextDecision(time);
             } else {
                 gs.issue(playoutPolicy.getAction(0, gs));
                 gs.issue(playoutPolicy.getAction(1, gs));
@@ -350,6 +389,8 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
 
         parameters.add(new ParameterSpecification("ForceExplorationOfNonSampledActions",boolean.class,true));
+        parameters.add(new ParameterSpecification("TreeReuse",boolean.class,false));
+        parameters.add(new ParameterSpecification("StateCacheSize",int.class,-1));
         
         return parameters;
     }    
@@ -463,4 +504,20 @@ public class NaiveMCTS extends AIWithComputationBudget implements InterruptibleA
     {
         forceExplorationOfNonSampledActions = fensa;
     }    
+
+    public boolean getTreeReuse() {
+        return treeReuse;
+    }
+
+    public void setTreeReuse(boolean a_treeReuse) {
+        treeReuse = a_treeReuse;
+    }
+
+    public int getStateCacheSize() {
+        return stateCacheSize;
+    }
+
+    public void setStateCacheSize(int a_stateCacheSize) {
+        stateCacheSize = a_stateCacheSize;
+    }
 }
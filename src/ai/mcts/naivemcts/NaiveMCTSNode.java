@@ -4,11 +4,13 @@
  */
 package ai.mcts.naivemcts;
 
+import ai.mcts.GameStateCache;
 import ai.mcts.MCTSNode;
 import java.math.BigInteger;
 import java.util.*;
 import rts.*;
 import rts.units.Unit;
+import util.LongHashMap;
 import util.Pair;
 import util.Sampler;
 
@@ -28,11 +30,36 @@ public class NaiveMCTSNode extends MCTSNode {
     boolean forceExplorationOfNonSampledActions = true;
     boolean hasMoreActions = true;
     public PlayerActionGenerator moveGenerator;
-    HashMap<BigInteger,NaiveMCTSNode> childrenMap = new LinkedHashMap<>();    // associates action codes with children
-    // Decomposition of the player actions in unit actions, and their contributions:
+    // number of player actions (see PlayerActionGenerator.getSize), kept since 'moveGenerator'
+    // is released when the state of the node goes to the state cache:
+    public long moveGeneratorSize = 0;
+    // Decomposition of the player actions in unit actions, and their contributions (the
+    // statistics of all the units are stored in two arrays, see UnitActionTableEntry):
     public List<UnitActionTableEntry> unitActionTable;
     double evaluation_bound;    // this is the maximum positive value that the evaluation function can return
-    public BigInteger multipliers[];
+    // The code of a player action is the sum, over the units, of 1 + the index of the action of
+    // the unit (or 0 if no action could be sampled for it) times its multiplier. If the number of
+    // codes fits in a long, 'multipliers' are used (and codes are longs), and otherwise
+    // 'bigMultipliers' (and codes are BigIntegers):
+    public long multipliers[];
+    public BigInteger bigMultipliers[];
+    LongHashMap<NaiveMCTSNode> childrenMap = new LongHashMap<>();    // associates action codes with children
+    HashMap<BigInteger,NaiveMCTSNode> bigChildrenMap;                 // (when codes are BigIntegers)
+    long actionCode;            // code of the action leading from the parent to this node
+    BigInteger bigActionCode;
+    // random number generator used by all the nodes of this tree (hides MCTSNode.r, so that
+    // trees searched concurrently do not share it, see setRandom):
+    Random r = MCTSNode.r;
+    // when not null, nodes other than the root do not keep their state ('gs' is null), but
+    // keep it in this cache, and rebuild it from the state of their parent when evicted
+    // (which requires a deterministic forward model, see getGameState):
+    GameStateCache<NaiveMCTSNode> stateCache;
+    PlayerAction action;    // action leading from the parent to this node (set by the parent)
+    int stateTime;
+    long stateKey;
+    // IDs of the units of the state (in order), which units produced in the tree would not
+    // get again when the state is rebuilt:
+    long unitIDs[];
 
 
     public NaiveMCTSNode(int maxplayer, int minplayer, GameState a_gs, NaiveMCTSNode a_parent, double a_evaluation_bound, int a_creation_ID, boolean fensa) throws Exception {
@@ -40,6 +67,10 @@ public class NaiveMCTSNode extends MCTSNode {
         gs = a_gs;
         if (parent==null) depth = 0;
                      else depth = parent.depth+1;     
+        if (parent!=null) {
+            r = a_parent.r;
+            stateCache = a_parent.stateCache;
+        }
         evaluation_bound = a_evaluation_bound;
         creation_ID = a_creation_ID;
         forceExplorationOfNonSampledActions = fensa;
@@ -57,58 +88,80 @@ public class NaiveMCTSNode extends MCTSNode {
             moveGenerator = new PlayerActionGenerator(gs, maxplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
-            for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
-                UnitActionTableEntry ae = new UnitActionTableEntry();
-                ae.u = choice.m_a;
-                ae.nactions = choice.m_b.size();
-                ae.actions = choice.m_b;
-                ae.accum_evaluation = new double[ae.nactions];
-                ae.visit_count = new int[ae.nactions];
-                for (int i = 0; i < ae.nactions; i++) {
-                    ae.accum_evaluation[i] = 0;
-                    ae.visit_count[i] = 0;
-                }
-                unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
-             }
+            createUnitActionTable();
         } else if (gs.canExecuteAnyAction(minplayer)) {
             type = 1;
             moveGenerator = new PlayerActionGenerator(gs, minplayer);
             actions = new ArrayList<>();
             children = new ArrayList<>();
-            unitActionTable = new LinkedList<>();
-            multipliers = new BigInteger[moveGenerator.getChoices().size()];
-            BigInteger baseMultiplier = BigInteger.ONE;
-            int idx = 0;
-            for (Pair<Unit, List<UnitAction>> choice : moveGenerator.getChoices()) {
-                UnitActionTableEntry ae = new UnitActionTableEntry();
-                ae.u = choice.m_a;
-                ae.nactions = choice.m_b.size();
-                ae.actions = choice.m_b;
-                ae.accum_evaluation = new double[ae.nactions];
-                ae.visit_count = new int[ae.nactions];
-                for (int i = 0; i < ae.nactions; i++) {
-                    ae.accum_evaluation[i] = 0;
-                    ae.visit_count[i] = 0;
-                }
-                unitActionTable.add(ae);
-                multipliers[idx] = baseMultiplier;
-                baseMultiplier = baseMultiplier.multiply(BigInteger.valueOf(ae.nactions));
-                idx++;
-           }
+            createUnitActionTable();
         } else {
             type = -1;
             System.err.println("NaiveMCTSNode: This should not have happened...");
         }
+        if (moveGenerator != null) moveGeneratorSize = moveGenerator.getSize();
+        if (stateCache != null) {
+            stateTime = gs.getTime();
+            stateKey = gs.getZobristKey();
+            List<Unit> units = gs.getUnits();
+            unitIDs = new long[units.size()];
+            for (int i = 0; i < unitIDs.length; i++) unitIDs[i] = units.get(i).getID();
+            stateCache.put(this, gs);
+            gs = null;
+            // it holds a reference to the state (the choices, needed above, are in 'unitActionTable'):
+            moveGenerator = null;
+        }
     }
 
-    
+
+
+    /**
+     * Creates the unit action table and the multipliers of the action codes, from the
+     * choices of 'moveGenerator'
+     */
+    void createUnitActionTable() {
+        List<Pair<Unit, List<UnitAction>>> choices = moveGenerator.getChoices();
+        int nentries = choices.size();
+        unitActionTable = new ArrayList<>(nentries);
+        int total = 0;
+        for (Pair<Unit, List<UnitAction>> choice : choices) total += choice.m_b.size();
+        double accum_evaluations[] = new double[total];
+        int visit_counts[] = new int[total];
+        multipliers = new long[nentries];
+        long baseMultiplier = 1;
+        int offset = 0;
+        for (int idx = 0; idx < nentries; idx++) {
+            Pair<Unit, List<UnitAction>> choice = choices.get(idx);
+            UnitActionTableEntry ae = new UnitActionTableEntry();
+            ae.u = choice.m_a;
+            ae.nactions = choice.m_b.size();
+            ae.actions = choice.m_b;
+            ae.accum_evaluation = accum_evaluations;
+            ae.visit_count = visit_counts;
+            ae.offset = offset;
+            offset += ae.nactions;
+            unitActionTable.add(ae);
+            if (multipliers != null) {
+                multipliers[idx] = baseMultiplier;
+                try {
+                    baseMultiplier = Math.multiplyExact(baseMultiplier, (long)ae.nactions + 1);
+                } catch (ArithmeticException e) {
+                    multipliers = null;
+                }
+            }
+        }
+        if (multipliers == null) {
+            bigMultipliers = new BigInteger[nentries];
+            BigInteger bigBaseMultiplier = BigInteger.ONE;
+            for (int idx = 0; idx < nentries; idx++) {
+                bigMultipliers[idx] = bigBaseMultiplier;
+                bigBaseMultiplier = bigBaseMultiplier.multiply(BigInteger.valueOf(unitActionTable.get(idx).nactions + 1));
+            }
+            bigChildrenMap = new HashMap<>();
+        }
+    }
+
+
     // Naive Sampling:
     public NaiveMCTSNode selectLeaf(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {
         if (unitActionTable == null) return this;
@@ -194,12 +247,44 @@ public class NaiveMCTSNode extends MCTSNode {
     
     
     public NaiveMCTSNode selectLeafUsingLocalMABs(int maxplayer, int minplayer, float epsilon_l, float epsilon_g, float epsilon_0, int global_strategy, int max_depth, int a_creation_ID) throws Exception {   
+        Sample sample = sampleFromLocalMABs(epsilon_l);
+
+        NaiveMCTSNode pate = getChild(sample);
+        if (pate==null) {
+            GameState gs2 = issue(sample.action);
+            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
+            addChild(sample, node);
+            return node;                
+        }
+
+        return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+    }
+
+
+    /**
+     * A player action sampled from the local MABs, with its code (see 'multipliers')
+     */
+    public static class Sample {
+        public PlayerAction action;
+        public long code;
+        public BigInteger bigCode;  // (when codes are BigIntegers, null otherwise)
+    }
+
+
+    /**
+     * Samples a player action from the local MABs (one per unit), discarding unit actions
+     * that are not consistent with the ones sampled before
+     * @param epsilon_l
+     * @return the player action, and its action code
+     */
+    public Sample sampleFromLocalMABs(float epsilon_l) {
+        GameState gs = getGameState();
+        Sample sample = new Sample();
         PlayerAction pa2;
-        BigInteger actionCode;       
 
         // For each unit, rank the unitActions according to preference:
-        List<double []> distributions = new LinkedList<>();
-        List<Integer> notSampledYet = new LinkedList<>();
+        List<double []> distributions = new ArrayList<>(unitActionTable.size());
+        List<Integer> notSampledYet = new ArrayList<>(unitActionTable.size());
         for(UnitActionTableEntry ate:unitActionTable) {
             double []dist = new double[ate.nactions];
             int bestIdx = -1;
@@ -209,38 +294,38 @@ public class NaiveMCTSNode extends MCTSNode {
                 if (type==0) {
                     // max node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])>bestEvaluation)) {
+                        (visits!=0 && ate.visit_count[ate.offset+i]==0) ||
+                        (visits!=0 && (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i])>bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.visit_count[ate.offset+i]>0) bestEvaluation = (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i]);
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.visit_count[ate.offset+i];
                     }
                 } else {
                     // min node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])<bestEvaluation)) {
+                        (visits!=0 && ate.visit_count[ate.offset+i]==0) ||
+                        (visits!=0 && (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i])<bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.visit_count[ate.offset+i]>0) bestEvaluation = (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i]);
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.visit_count[ate.offset+i];
                     }
                 }
                 dist[i] = epsilon_l/ate.nactions;
             }
-            if (ate.visit_count[bestIdx]!=0) {
+            if (ate.visit_count[ate.offset+bestIdx]!=0) {
                 dist[bestIdx] = (1-epsilon_l) + (epsilon_l/ate.nactions);
             } else {
                 if (forceExplorationOfNonSampledActions) {
                     for(int j = 0;j<dist.length;j++) 
-                        if (ate.visit_count[j]>0) dist[j] = 0;
+                        if (ate.visit_count[ate.offset+j]>0) dist[j] = 0;
                 }
             }  
 
             if (DEBUG>=3) {
                 System.out.print("[ ");
-                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[i] + "," + ate.accum_evaluation[i]/ate.visit_count[i] + ")");
+                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[ate.offset+i] + "," + ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i] + ")");
                 System.out.println("]");
                 System.out.print("[ ");
                 for (double v : dist) System.out.print(v + " ");
@@ -262,7 +347,7 @@ public class NaiveMCTSNode extends MCTSNode {
         }
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
+        if (bigMultipliers != null) sample.bigCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
             int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
@@ -275,7 +360,7 @@ public class NaiveMCTSNode extends MCTSNode {
 
                 // try one at random:
                 double []distribution = distributions.get(i);
-                code = Sampler.weighted(distribution);
+                code = Sampler.weighted(distribution, r);
                 ua = ate.actions.get(code);
                 r2 = ua.resourceUsage(ate.u, gs.getPhysicalGameState());
                 if (!pa2.getResourceUsage().consistentWith(r2, gs)) {
@@ -291,7 +376,7 @@ public class NaiveMCTSNode extends MCTSNode {
                         int idx = dist_outputs.indexOf(code);
                         dist_l.remove(idx);
                         dist_outputs.remove(idx);
-                        code = (Integer)Sampler.weighted(dist_l, dist_outputs);
+                        code = (Integer)Sampler.weighted(dist_l, dist_outputs, r);
                         ua = ate.actions.get(code);
                         r2 = ua.resourceUsage(ate.u, gs.getPhysicalGameState());                            
                     }while(!pa2.getResourceUsage().consistentWith(r2, gs));
@@ -304,27 +389,193 @@ public class NaiveMCTSNode extends MCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                addToCode(sample, i, code);
 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
-        NaiveMCTSNode pate = childrenMap.get(actionCode);
-        if (pate==null) {
-            actions.add(pa2);            
-            GameState gs2 = gs.cloneIssue(pa2);
-            NaiveMCTSNode node = new NaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
-            childrenMap.put(actionCode,node);
-            children.add(node);          
-            return node;                
+        sample.action = pa2;
+        return sample;
+    }
+
+
+    /**
+     * Adds the action of index 'action' of the unit of the given entry of the unit action
+     * table to the code of 'sample' (see 'multipliers')
+     */
+    void addToCode(Sample sample, int entry, int action) {
+        if (bigMultipliers == null) {
+            sample.code += (action + 1) * multipliers[entry];
+        } else {
+            sample.bigCode = sample.bigCode.add(BigInteger.valueOf(action + 1).multiply(bigMultipliers[entry]));
         }
+    }
 
-        return pate.selectLeaf(maxplayer, minplayer, epsilon_l, epsilon_g, epsilon_0, global_strategy, max_depth, a_creation_ID);
+
+    /**
+     * @return the child reached by the sampled action, or null if it has not been added yet
+     */
+    NaiveMCTSNode getChild(Sample sample) {
+        if (bigChildrenMap != null) return bigChildrenMap.get(sample.bigCode);
+        return childrenMap.get(sample.code);
+    }
+
+
+    /**
+     * Adds 'node' as the child reached by the sampled action
+     */
+    void addChild(Sample sample, NaiveMCTSNode node) {
+        node.action = sample.action;
+        node.actionCode = sample.code;
+        node.bigActionCode = sample.bigCode;
+        actions.add(sample.action);
+        children.add(node);
+        if (bigChildrenMap != null) {
+            bigChildrenMap.put(sample.bigCode, node);
+        } else {
+            childrenMap.put(sample.code, node);
+        }
+    }
+
+
+    /**
+     * @return the index of the action of the unit of the given entry of the unit action
+     * table, in the action leading to 'child' (decoded from its action code), or -1 if
+     * no action could be sampled for that unit
+     */
+    int actionIndex(NaiveMCTSNode child, int entry) {
+        int radix = unitActionTable.get(entry).nactions + 1;
+        if (bigMultipliers != null) {
+            return child.bigActionCode.divide(bigMultipliers[entry]).mod(BigInteger.valueOf(radix)).intValue() - 1;
+        }
+        return (int)((child.actionCode / multipliers[entry]) % radix) - 1;
     }
     
     
+    /**
+     * @return the state of this node, rebuilding it (and caching it) if it is not in the
+     * state cache, by issuing the action leading to this node in the state of its parent.
+     * This requires a deterministic forward model (see UnitTypeTable.isDeterministic, which
+     * NaiveMCTS checks before using a state cache), and gives the units the IDs they had in
+     * the original state.
+     */
+    @Override
+    public GameState getGameState() {
+        if (gs != null) return gs;
+        GameState state = stateCache.get(this);
+        if (state == null) {
+            state = ((NaiveMCTSNode)parent).issue(action).clone();
+            while (state.getTime() < stateTime) state.cycle();
+            assert state.getZobristKey() == stateKey && state.getUnits().size() == unitIDs.length :
+                   "NaiveMCTSNode: rebuilt state differs from the original one (is the forward model deterministic?)";
+            restoreUnitIDs(state);
+            stateCache.put(this, state);
+        }
+        return state;
+    }
+
+
+    /**
+     * Gives the units of 'state' (a rebuilt state of this node, whose units are not shared
+     * with other states) the IDs they had in the original state
+     */
+    void restoreUnitIDs(GameState state) {
+        List<Unit> units = state.getUnits();
+        boolean changed = false;
+        for (int i = 0; i < unitIDs.length && i < units.size(); i++) {
+            if (units.get(i).getID() != unitIDs[i]) {
+                units.get(i).setID(unitIDs[i]);
+                changed = true;
+            }
+        }
+        if (changed) {
+            // the assignments are hashed by unit ID, so they have to be added again:
+            HashMap<Unit, UnitActionAssignment> assignments = state.getUnitActions();
+            List<UnitActionAssignment> uaas = new ArrayList<>(assignments.values());
+            assignments.clear();
+            for (UnitActionAssignment uaa : uaas) assignments.put(uaa.unit, uaa);
+        }
+    }
+
+
+    @Override
+    public int getStateTime() {
+        return (gs != null ? gs.getTime() : stateTime);
+    }
+
+
+    @Override
+    public long getStateKey() {
+        return (gs != null ? gs.getZobristKey() : stateKey);
+    }
+
+
+    /**
+     * @return a state sharing the units of the state of this node, where 'pa' (an action
+     * of this node) has been issued (see GameState.cloneIssue)
+     */
+    GameState issue(PlayerAction pa) {
+        GameState state = getGameState();
+        if (stateCache != null) {
+            // the units of 'pa' are those of the state this node had when it was created
+            // (which might have been rebuilt since then):
+            PlayerAction pa2 = new PlayerAction();
+            for (Pair<Unit, UnitAction> ua : pa.getActions()) {
+                Unit u = state.getPhysicalGameState().getUnitAt(ua.m_a.getX(), ua.m_a.getY());
+                if (u != null) pa2.addUnitAction(u, ua.m_b);
+            }
+            pa = pa2;
+        }
+        return state.cloneIssue(pa);
+    }
+
+
+    /**
+     * Also makes this node keep its state (since the root cannot rebuild it), and removes
+     * the states of the nodes outside of its subtree from the state cache (which would
+     * otherwise keep those nodes, and the rest of the old tree, from being released)
+     */
+    @Override
+    public void makeRoot() {
+        gs = getGameState();
+        super.makeRoot();
+        if (stateCache != null) stateCache.removeIf(node -> !isInSubtree(node));
+    }
+
+
+    /**
+     * @return whether 'node' is this node or one of its descendants
+     */
+    boolean isInSubtree(MCTSNode node) {
+        for (MCTSNode n = node; n != null; n = n.parent) {
+            if (n == this) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Makes the nodes created below this one from now on not keep their states, but keep
+     * them in 'a_stateCache' (see getGameState)
+     * @param a_stateCache
+     */
+    public void setStateCache(GameStateCache<NaiveMCTSNode> a_stateCache) {
+        stateCache = a_stateCache;
+    }
+
+
+    /**
+     * Sets the random number generator used by this node and the ones created below it
+     * from now on (the one of the parent by default, or MCTSNode.r for roots)
+     * @param a_r
+     */
+    public void setRandom(Random a_r) {
+        r = a_r;
+    }
+
+
     public UnitActionTableEntry getActionTableEntry(Unit u) {
         for(UnitActionTableEntry e:unitActionTable) {
             if (e.u == u) return e;
@@ -341,18 +592,11 @@ public class NaiveMCTSNode extends MCTSNode {
 
         // update the unitAction table:
         if (child != null) {
-            int idx = children.indexOf(child);
-            PlayerAction pa = actions.get(idx);
-
-            for (Pair<Unit, UnitAction> ua : pa.getActions()) {
-                UnitActionTableEntry actionTable = getActionTableEntry(ua.m_a);
-                idx = actionTable.actions.indexOf(ua.m_b);
-
-                if (idx==-1) {
-                    System.out.println("Looking for action: " + ua.m_b);
-                    System.out.println("Available actions are: " + actionTable.actions);
-                }
-                
+            for (int i = 0; i < unitActionTable.size(); i++) {
+                int action = actionIndex(child, i);
+                if (action < 0) continue;
+                UnitActionTableEntry actionTable = unitActionTable.get(i);
+                int idx = actionTable.offset + action;
                 actionTable.accum_evaluation[idx] += evaluation;
                 actionTable.visit_count[idx]++;
             }
@@ -367,7 +611,7 @@ public class NaiveMCTSNode extends MCTSNode {
         for (UnitActionTableEntry uat : unitActionTable) {
             System.out.println("Actions for unit " + uat.u);
             for (int i = 0; i < uat.nactions; i++) {
-                System.out.println("   " + uat.actions.get(i) + " visited " + uat.visit_count[i] + " with average evaluation " + (uat.accum_evaluation[i] / uat.visit_count[i]));
+                System.out.println("   " + uat.actions.get(i) + " visited " + uat.visit_count[uat.offset + i] + " with average evaluation " + (uat.accum_evaluation[uat.offset + i] / uat.visit_count[uat.offset + i]));
             }
         }
     }    
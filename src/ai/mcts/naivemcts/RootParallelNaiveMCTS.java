@@ -0,0 +1,264 @@
+package ai.mcts.naivemcts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import rts.GameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+/**
+ * Root-parallel version of NaiveMCTS: each of 'numWorkers' workers grows its own tree from
+ * its own copy of the current state, with its own random number generator and copy of the
+ * playout policy, on its own thread. When an action is requested, the statistics of the
+ * children of the roots of all the trees are merged (children are matched by their action
+ * code, which is the same in all the trees, since their roots are copies of the same state),
+ * and the most visited action overall is returned.
+ *
+ * With a time budget, each worker searches for the whole budget, so the number of playouts
+ * per frame grows with the number of workers (as long as there are enough cores). With an
+ * iterations budget, the budget is split among the workers. The evaluation function is
+ * shared by all the workers, so it must not keep state between calls.
+ */
+public class RootParallelNaiveMCTS extends NaiveMCTS {
+
+    protected int numWorkers;
+    protected NaiveMCTS workers[];
+    protected Random workerRandoms[];
+    // runs the workers other than the first one (which runs in the calling thread):
+    protected ThreadPoolExecutor executor;
+
+
+    public RootParallelNaiveMCTS(UnitTypeTable utt) {
+        this(100,-1,100,10,
+             0.3f, 0.0f, 0.4f,
+             new RandomBiasedAI(),
+             new SimpleSqrtEvaluationFunction3(), true,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public RootParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth,
+                               float e_l, float discout_l,
+                               float e_g, float discout_g,
+                               float e_0, float discout_0,
+                               AI policy, EvaluationFunction a_ef,
+                               boolean fensa, int a_numWorkers) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, discout_l, e_g, discout_g, e_0, discout_0, policy, a_ef, fensa);
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+
+
+    public RootParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth, float e_l, float e_g, float e_0, AI policy, EvaluationFunction a_ef, boolean fensa, int a_numWorkers) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, e_g, e_0, policy, a_ef, fensa);
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+
+
+    @Override
+    public void reset() {
+        super.reset();
+        workers = null;
+    }
+
+
+    @Override
+    public AI clone() {
+        RootParallelNaiveMCTS clone = new RootParallelNaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions, numWorkers);
+        clone.global_strategy = global_strategy;
+        clone.stateCacheSize = stateCacheSize;
+        return clone;
+    }
+
+
+    /**
+     * Creates the workers, each with a copy of the playout policy and its own random number
+     * generator (so that they reflect the current values of the parameters)
+     */
+    protected void createWorkers() {
+        int workerBudget = (ITERATIONS_BUDGET >= 0 ? (ITERATIONS_BUDGET + numWorkers - 1) / numWorkers : -1);
+        workers = new NaiveMCTS[numWorkers];
+        workerRandoms = new Random[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new NaiveMCTS(TIME_BUDGET, workerBudget, MAXSIMULATIONTIME, MAX_TREE_DEPTH,
+                                       initial_epsilon_l, discount_l, initial_epsilon_g, discount_g, initial_epsilon_0, discount_0,
+                                       playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions);
+            workers[i].global_strategy = global_strategy;
+            workers[i].stateCacheSize = stateCacheSize;
+            workerRandoms[i] = new Random(r.nextLong());
+        }
+    }
+
+
+    protected ThreadPoolExecutor getExecutor(int threads) {
+        if (executor == null) {
+            // idle threads are stopped after a while, since AIs are not explicitly disposed of:
+            executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread t = new Thread(runnable, "RootParallelNaiveMCTS worker");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else if (executor.getMaximumPoolSize() < threads) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        return executor;
+    }
+
+
+    @Override
+    public void startNewComputation(int a_player, GameState gs) throws Exception {
+        createWorkers();
+        player = a_player;
+        current_iteration = 0;
+        gs_to_start_from = gs;
+        // all the copies are made before any worker starts, since they are made from 'gs':
+        GameState copies[] = new GameState[numWorkers];
+        copies[0] = gs;
+        for (int i = 1; i < numWorkers; i++) copies[i] = gs.clone();
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].startNewComputation(a_player, copies[i]);
+            workers[i].getTree().setRandom(workerRandoms[i]);
+        }
+        tree = workers[0].getTree();
+        max_actions_so_far = Math.max(workers[0].max_actions_so_far, max_actions_so_far);
+    }
+
+
+    @Override
+    public void resetSearch() {
+        super.resetSearch();
+        if (workers != null) {
+            for (NaiveMCTS worker : workers) worker.resetSearch();
+        }
+    }
+
+
+    @Override
+    public void computeDuringOneGameFrame() throws Exception {
+        long start = System.currentTimeMillis();
+        long runs = 0;
+        for (NaiveMCTS worker : workers) runs -= worker.total_runs;
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            NaiveMCTS worker = workers[i];
+            futures.add(getExecutor(workers.length - 1).submit(() -> {
+                worker.computeDuringOneGameFrame();
+                return null;
+            }));
+        }
+        workers[0].computeDuringOneGameFrame();
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Throwable t = e.getCause();
+                if (t instanceof Error) throw (Error) t;
+                throw (Exception) t;
+            }
+        }
+        for (NaiveMCTS worker : workers) runs += worker.total_runs;
+        total_runs += runs;
+        total_time += System.currentTimeMillis() - start;
+        total_cycles_executed++;
+    }
+
+
+    @Override
+    public PlayerAction getBestActionSoFar() {
+        total_actions_issued++;
+        // visit counts and accumulated evaluations of each root child, over all the trees:
+        // (children are identified by their action codes, which are BigIntegers or Longs):
+        Map<Object, PlayerAction> actions = new LinkedHashMap<>();
+        Map<Object, double[]> statistics = new LinkedHashMap<>();
+        for (NaiveMCTS worker : workers) {
+            NaiveMCTSNode root = worker.getTree();
+            if (root == null || root.children == null) continue;
+            for (int i = 0; i < root.children.size(); i++) {
+                NaiveMCTSNode child = (NaiveMCTSNode)root.children.get(i);
+                Object code = (child.bigActionCode != null ? child.bigActionCode : Long.valueOf(child.actionCode));
+                actions.putIfAbsent(code, root.actions.get(i));
+                double stats[] = statistics.computeIfAbsent(code, k -> new double[2]);
+                stats[0] += child.visit_count;
+                stats[1] += child.accum_evaluation;
+            }
+        }
+        Object best = null;
+        double bestVisits = -1;
+        for (Map.Entry<Object, double[]> entry : statistics.entrySet()) {
+            if (entry.getValue()[0] > bestVisits) {
+                best = entry.getKey();
+                bestVisits = entry.getValue()[0];
+            }
+        }
+        if (best == null) {
+            if (DEBUG>=1) System.out.println("RootParallelNaiveMCTS no children selected. Returning an empty asction");
+            return new PlayerAction();
+        }
+        if (DEBUG>=1) {
+            double stats[] = statistics.get(best);
+            System.out.println("RootParallelNaiveMCTS selected children " + actions.get(best) + " explored " + stats[0] + " Avg evaluation: " + (stats[1]/stats[0]));
+        }
+        return actions.get(best);
+    }
+
+
+    /**
+     * @return the roots of the trees of the workers (from the last call to startNewComputation)
+     */
+    public List<NaiveMCTSNode> getTrees() {
+        List<NaiveMCTSNode> trees = new ArrayList<>();
+        if (workers != null) {
+            for (NaiveMCTS worker : workers) {
+                if (worker.getTree() != null) trees.add(worker.getTree());
+            }
+        }
+        return trees;
+    }
+
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + MAXSIMULATIONTIME + "," + MAX_TREE_DEPTH + "," + epsilon_l + ", " + discount_l + ", " + epsilon_g + ", " + discount_g + ", " + epsilon_0 + ", " + discount_0 + ", " + playoutPolicy + ", " + ef + ", " + numWorkers + ")";
+    }
+
+
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        List<ParameterSpecification> parameters = super.getParameters();
+        // the trees of the workers are not kept from one search to the next:
+        parameters.removeIf(parameter -> parameter.name.equals("TreeReuse"));
+        parameters.add(new ParameterSpecification("NumWorkers",int.class,Runtime.getRuntime().availableProcessors()));
+        return parameters;
+    }
+
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+
+    @Override
+    public int getNumThreads() {
+        return numWorkers;
+    }
+
+
+    public void setNumWorkers(int a_numWorkers) {
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+}
@@ -0,0 +1,265 @@
+package ai.mcts.naivemcts;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import rts.GameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Tree-parallel version of NaiveMCTS: 'numWorkers' threads grow a single shared tree of
+ * {@link ConcurrentNaiveMCTSNode}s, each running its own playouts with its own copy of the
+ * playout policy. Threads are kept apart using virtual loss (see ConcurrentNaiveMCTSNode),
+ * so, unlike with {@link RootParallelNaiveMCTS}, the playouts of all the threads go into
+ * one deeper tree, instead of into 'numWorkers' shallower ones.
+ *
+ * With a time budget, all the workers search for the whole budget. With an iterations
+ * budget, the budget is shared by all the workers. The evaluation function is shared by
+ * all the workers, so it must not keep state between calls. Epsilon discounts are not
+ * applied (they are 1.0 by default anyway), since they depend on the order of iterations.
+ */
+public class TreeParallelNaiveMCTS extends NaiveMCTS {
+
+    protected int numWorkers;
+    // fraction of the evaluation bound used as virtual loss (0 disables it):
+    public double virtualLoss = 1.0;
+    // used by each worker to run its playouts (with its own copy of the playout policy):
+    protected NaiveMCTS workers[];
+    // runs the workers other than the first one (which runs in the calling thread):
+    protected ThreadPoolExecutor executor;
+    protected AtomicInteger creationIDs = new AtomicInteger(0);
+
+
+    public TreeParallelNaiveMCTS(UnitTypeTable utt) {
+        this(100,-1,100,10,
+             0.3f, 0.0f, 0.4f,
+             new RandomBiasedAI(),
+             new SimpleSqrtEvaluationFunction3(), true,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+
+    public TreeParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth,
+                               float e_l, float discout_l,
+                               float e_g, float discout_g,
+                               float e_0, float discout_0,
+                               AI policy, EvaluationFunction a_ef,
+                               boolean fensa, int a_numWorkers) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, discout_l, e_g, discout_g, e_0, discout_0, policy, a_ef, fensa);
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+
+
+    public TreeParallelNaiveMCTS(int available_time, int max_playouts, int lookahead, int max_depth, float e_l, float e_g, float e_0, AI policy, EvaluationFunction a_ef, boolean fensa, int a_numWorkers) {
+        super(available_time, max_playouts, lookahead, max_depth, e_l, e_g, e_0, policy, a_ef, fensa);
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+
+
+    @Override
+    public void reset() {
+        super.reset();
+        workers = null;
+    }
+
+
+    @Override
+    public AI clone() {
+        TreeParallelNaiveMCTS clone = new TreeParallelNaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, epsilon_l, discount_l, epsilon_g, discount_g, epsilon_0, discount_0, playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions, numWorkers);
+        clone.global_strategy = global_strategy;
+        clone.treeReuse = treeReuse;
+        clone.virtualLoss = virtualLoss;
+        return clone;
+    }
+
+
+    protected ThreadPoolExecutor getExecutor(int threads) {
+        if (executor == null) {
+            // idle threads are stopped after a while, since AIs are not explicitly disposed of:
+            executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> {
+                        Thread t = new Thread(runnable, "TreeParallelNaiveMCTS worker");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        } else if (executor.getMaximumPoolSize() < threads) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        return executor;
+    }
+
+
+    @Override
+    public void startNewComputation(int a_player, GameState gs) throws Exception {
+        // created here, so that they reflect the current values of the parameters:
+        workers = new NaiveMCTS[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i] = new NaiveMCTS(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH,
+                                       initial_epsilon_l, discount_l, initial_epsilon_g, discount_g, initial_epsilon_0, discount_0,
+                                       playoutPolicy.clone(), ef, forceExplorationOfNonSampledActions);
+        }
+        NaiveMCTSNode reused = (treeReuse ? findReusableSubtree(a_player, gs) : null);
+        player = a_player;
+        if (reused != null) {
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            creationIDs.set(0);
+            tree = new ConcurrentNaiveMCTSNode(player, 1-player, gs, null, ef.upperBound(gs), creationIDs.getAndIncrement(), forceExplorationOfNonSampledActions, virtualLoss);
+        }
+
+        if (tree.type==-1) {
+            max_actions_so_far = 0;
+        } else {
+            max_actions_so_far = Math.max(tree.moveGeneratorSize,max_actions_so_far);
+        }
+        gs_to_start_from = gs;
+
+        epsilon_l = initial_epsilon_l;
+        epsilon_g = initial_epsilon_g;
+        epsilon_0 = initial_epsilon_0;
+    }
+
+
+    @Override
+    public void computeDuringOneGameFrame() throws Exception {
+        long start = System.currentTimeMillis();
+        AtomicLong count = new AtomicLong(0);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            NaiveMCTS worker = workers[i];
+            futures.add(getExecutor(workers.length - 1).submit(() -> {
+                search(worker, start, count);
+                return null;
+            }));
+        }
+        try {
+            search(workers[0], start, count);
+        } finally {
+            // the tree must not be modified once this method returns:
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Error) throw (Error) t;
+                    throw (Exception) t;
+                }
+            }
+        }
+        total_runs += count.get();
+        total_time += System.currentTimeMillis() - start;
+        total_cycles_executed++;
+    }
+
+
+    /**
+     * Runs iterations on the shared tree until the budget is exhausted
+     * @param worker used to run the playouts
+     * @param start time at which the search started
+     * @param count number of iterations completed so far by all the workers (with an
+     * iterations budget, an iteration is counted before running it, so that the workers do
+     * not exceed the budget, and uncounted if it fails)
+     */
+    protected void search(NaiveMCTS worker, long start, AtomicLong count) throws Exception {
+        while (true) {
+            if (ITERATIONS_BUDGET>=0 && count.getAndIncrement()>=ITERATIONS_BUDGET) {
+                count.decrementAndGet();
+                break;
+            }
+            boolean completed = false;
+            try {
+                completed = iteration(worker);
+            } finally {
+                if (ITERATIONS_BUDGET>=0 && !completed) count.decrementAndGet();
+            }
+            if (!completed) break;
+            if (ITERATIONS_BUDGET<0) count.incrementAndGet();
+            if (TIME_BUDGET>=0 && (System.currentTimeMillis() - start)>=TIME_BUDGET) break;
+        }
+    }
+
+
+    /**
+     * Runs one iteration (selection, expansion, playout and backpropagation) on the
+     * shared tree, using the playout policy of 'worker'
+     */
+    protected boolean iteration(NaiveMCTS worker) throws Exception {
+        NaiveMCTSNode leaf = tree.selectLeaf(player, 1-player, epsilon_l, epsilon_g, epsilon_0, global_strategy, MAX_TREE_DEPTH, creationIDs.getAndIncrement());
+
+        if (leaf!=null) {
+            GameState gs2;
+            // other threads might be cloning it too (and cloning can use its random generator):
+            synchronized (leaf) {
+                gs2 = leaf.gs.clone();
+            }
+            worker.simulate(gs2, gs2.getTime() + MAXSIMULATIONTIME);
+
+            int time = gs2.getTime() - gs_to_start_from.getTime();
+            double evaluation = ef.evaluate(player, 1-player, gs2)*Math.pow(0.99,time/10.0);
+
+            leaf.propagateEvaluation(evaluation,null);
+        } else {
+            // no actions to choose from :)
+            System.err.println(this.getClass().getSimpleName() + ": claims there are no more leafs to explore...");
+            return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + TIME_BUDGET + ", " + ITERATIONS_BUDGET + ", " + MAXSIMULATIONTIME + "," + MAX_TREE_DEPTH + "," + epsilon_l + ", " + discount_l + ", " + epsilon_g + ", " + discount_g + ", " + epsilon_0 + ", " + discount_0 + ", " + playoutPolicy + ", " + ef + ", " + numWorkers + ")";
+    }
+
+
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        List<ParameterSpecification> parameters = super.getParameters();
+        // nodes shared by several threads always keep their states:
+        parameters.removeIf(parameter -> parameter.name.equals("StateCacheSize"));
+        parameters.add(new ParameterSpecification("NumWorkers",int.class,Runtime.getRuntime().availableProcessors()));
+        parameters.add(new ParameterSpecification("VirtualLoss",double.class,1.0));
+        return parameters;
+    }
+
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+
+    @Override
+    public int getNumThreads() {
+        return numWorkers;
+    }
+
+
+    public void setNumWorkers(int a_numWorkers) {
+        numWorkers = Math.max(1, a_numWorkers);
+    }
+
+
+    public double getVirtualLoss() {
+        return virtualLoss;
+    }
+
+
+    public void setVirtualLoss(double a_virtualLoss) {
+        virtualLoss = a_virtualLoss;
+    }
+}
@@ -8,7 +8,6 @@ import static ai.mcts.MCTSNode.r;
 import static ai.mcts.naivemcts.NaiveMCTSNode.DEBUG;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import rts.*;
 import rts.units.Unit;
@@ -54,13 +53,13 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                                                                                         int phase1_budget,
                                                                                         int max_depth, int a_creation_ID) throws Exception {   
         PlayerAction pa2;
-        BigInteger actionCode;       
+        Sample sample = new Sample();
         
         float epsilon_l = (visit_count<phase1_budget ? el1 : el2);      
 
         // For each unit, rank the unitActions according to preference:
-        List<double []> distributions = new LinkedList<>();
-        List<Integer> notSampledYet = new LinkedList<>();
+        List<double []> distributions = new ArrayList<>(unitActionTable.size());
+        List<Integer> notSampledYet = new ArrayList<>(unitActionTable.size());
         for(UnitActionTableEntry ate:unitActionTable) {
             double []dist = new double[ate.nactions];
             int bestIdx = -1;
@@ -70,36 +69,36 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                 if (type==0) {
                     // max node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])>bestEvaluation)) {
+                        (visits!=0 && ate.visit_count[ate.offset+i]==0) ||
+                        (visits!=0 && (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i])>bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.visit_count[ate.offset+i]>0) bestEvaluation = (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i]);
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.visit_count[ate.offset+i];
                     }
                 } else {
                     // min node:
                     if (bestIdx==-1 || 
-                        (visits!=0 && ate.visit_count[i]==0) ||
-                        (visits!=0 && (ate.accum_evaluation[i]/ate.visit_count[i])<bestEvaluation)) {
+                        (visits!=0 && ate.visit_count[ate.offset+i]==0) ||
+                        (visits!=0 && (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i])<bestEvaluation)) {
                         bestIdx = i;
-                        if (ate.visit_count[i]>0) bestEvaluation = (ate.accum_evaluation[i]/ate.visit_count[i]);
+                        if (ate.visit_count[ate.offset+i]>0) bestEvaluation = (ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i]);
                                              else bestEvaluation = 0;
-                        visits = ate.visit_count[i];
+                        visits = ate.visit_count[ate.offset+i];
                     }
                 }
                 dist[i] = epsilon_l/ate.nactions;
             }
-            if (ate.visit_count[bestIdx]!=0) {
+            if (ate.visit_count[ate.offset+bestIdx]!=0) {
                 dist[bestIdx] = (1-epsilon_l) + (epsilon_l/ate.nactions);
             } else {
                 for(int j = 0;j<dist.length;j++) 
-                    if (ate.visit_count[j]>0) dist[j] = 0;
+                    if (ate.visit_count[ate.offset+j]>0) dist[j] = 0;
             }  
 
             if (DEBUG>=3) {
                 System.out.print("[ ");
-                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[i] + "," + ate.accum_evaluation[i]/ate.visit_count[i] + ")");
+                for(int i = 0;i<ate.nactions;i++) System.out.print("(" + ate.visit_count[ate.offset+i] + "," + ate.accum_evaluation[ate.offset+i]/ate.visit_count[ate.offset+i] + ")");
                 System.out.println("]");
                 System.out.print("[ ");
                 for (double v : dist) System.out.print(v + " ");
@@ -121,7 +120,7 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
         }
 
         pa2 = new PlayerAction();
-        actionCode = BigInteger.ZERO;
+        if (bigMultipliers != null) sample.bigCode = BigInteger.ZERO;
         pa2.setResourceUsage(base_ru.clone());            
         while(!notSampledYet.isEmpty()) {
             int i = notSampledYet.remove(r.nextInt(notSampledYet.size()));
@@ -163,20 +162,19 @@ public class TwoPhaseNaiveMCTSNode extends NaiveMCTSNode {
                 pa2.getResourceUsage().merge(r2);
                 pa2.addUnitAction(ate.u, ua);
 
-                actionCode = actionCode.add(BigInteger.valueOf(code).multiply(multipliers[i]));
+                addToCode(sample, i, code);
                 
             } catch(Exception e) {
                 e.printStackTrace();
             }
         }   
 
-        TwoPhaseNaiveMCTSNode pate = (TwoPhaseNaiveMCTSNode)childrenMap.get(actionCode);
+        sample.action = pa2;
+        TwoPhaseNaiveMCTSNode pate = (TwoPhaseNaiveMCTSNode)getChild(sample);
         if (pate==null) {
-            actions.add(pa2);            
             GameState gs2 = gs.cloneIssue(pa2);
             TwoPhaseNaiveMCTSNode node = new TwoPhaseNaiveMCTSNode(maxplayer, minplayer, gs2.clone(), this, evaluation_bound, a_creation_ID, forceExplorationOfNonSampledActions);
-            childrenMap.put(actionCode,node);
-            children.add(node);          
+            addChild(sample, node);
             return node;                
         }
 
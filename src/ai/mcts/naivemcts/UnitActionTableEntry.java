@@ -16,6 +16,9 @@ public class UnitActionTableEntry {
     public Unit u;
     public int nactions = 0;
     public List<UnitAction> actions;
+    // the statistics of all the units of a node are stored in the same two arrays, where
+    // those of the actions of this unit start at 'offset':
     public double[] accum_evaluation;
     public int[] visit_count;
+    public int offset = 0;
 }
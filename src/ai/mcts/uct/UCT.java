@@ -44,6 +44,9 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     int MAX_TREE_DEPTH = 10;
     
     int playerForThisComputation;
+    // if true, the subtree of the previous search whose state is the current one (if any)
+    // is reused, instead of starting the search from scratch:
+    boolean treeReuse = false;
     
     
     public UCT(UnitTypeTable utt) {
@@ -84,7 +87,9 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     
     public AI clone() {
-        return new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        UCT clone = new UCT(TIME_BUDGET, ITERATIONS_BUDGET, MAXSIMULATIONTIME, MAX_TREE_DEPTH, randomAI, ef);
+        clone.treeReuse = treeReuse;
+        return clone;
     }  
     
     
@@ -102,8 +107,18 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     
     public void startNewComputation(int a_player, GameState gs) throws Exception {
         float evaluation_bound = ef.upperBound(gs);
+        UCTNode reused = null;
+        if (treeReuse && tree != null && playerForThisComputation == a_player && tree.evaluation_bound == evaluation_bound) {
+            reused = (UCTNode)tree.findNode(gs, 0);
+        }
         playerForThisComputation = a_player;
-        tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        if (reused != null) {
+            if (DEBUG>=1) System.out.println(this.getClass().getSimpleName() + " reusing a subtree with " + reused.visit_count + " playouts");
+            reused.makeRoot();
+            tree = reused;
+        } else {
+            tree = new UCTNode(playerForThisComputation, 1-playerForThisComputation, gs, null, evaluation_bound);
+        }
         gs_to_start_from = gs;
         total_runs_this_move = 0;
 //        System.out.println(evaluation_bound);
@@ -153,7 +168,7 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
             while(leaf!=null) {
                 leaf.accum_evaluation += evaluation;
                 leaf.visit_count++;
-                leaf = leaf.parent;
+                leaf = (UCTNode)leaf.parent;
             }
             total_runs++;
             total_runs_this_move++;
@@ -177,7 +192,7 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         int mostVisitedIdx = -1;
         UCTNode mostVisited = null;
         for(int i = 0;i<tree.children.size();i++) {
-            UCTNode child = tree.children.get(i);
+            UCTNode child = (UCTNode)tree.children.get(i);
             if (mostVisited == null || child.visit_count>mostVisited.visit_count ||
                 (child.visit_count==mostVisited.visit_count &&
                  child.accum_evaluation > mostVisited.accum_evaluation)) {
@@ -252,6 +267,8 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
         parameters.add(new ParameterSpecification("DefaultPolicy",AI.class, randomAI));
         parameters.add(new ParameterSpecification("EvaluationFunction", EvaluationFunction.class, new SimpleSqrtEvaluationFunction3()));
 
+        parameters.add(new ParameterSpecification("TreeReuse",boolean.class,false));
+
         return parameters;
     }      
     
@@ -294,4 +311,14 @@ public class UCT extends AIWithComputationBudget implements InterruptibleAI {
     public void setEvaluationFunction(EvaluationFunction a_ef) {
         ef = a_ef;
     }
+
+
+    public boolean getTreeReuse() {
+        return treeReuse;
+    }
+
+
+    public void setTreeReuse(boolean a_treeReuse) {
+        treeReuse = a_treeReuse;
+    }
 }
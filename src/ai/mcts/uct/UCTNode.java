@@ -4,8 +4,8 @@
  */
 package ai.mcts.uct;
 
+import ai.mcts.MCTSNode;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 import rts.GameState;
 import rts.PlayerAction;
@@ -15,23 +15,14 @@ import rts.PlayerActionGenerator;
  *
  * @author santi
  */
-public class UCTNode {
+public class UCTNode extends MCTSNode {
     static Random r = new Random();
     public static float C = 0.05f;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
 //    public static float C = 1;   // this is the constant that regulates exploration vs exploitation, it must be tuned for each domain
     
-    public int type;    // 0 : max, 1 : min, -1: Game-over
-    UCTNode parent;
-    public GameState gs;
-    int depth = 0;  // the depth in the tree
-    
     boolean hasMoreActions = true;
     PlayerActionGenerator moveGenerator;
-    public List<PlayerAction> actions;
-    public List<UCTNode> children;
     float evaluation_bound = 0;
-    float accum_evaluation = 0;
-    int visit_count = 0;
     
     
     public UCTNode(int maxplayer, int minplayer, GameState a_gs, UCTNode a_parent, float bound) throws Exception {
@@ -93,10 +84,10 @@ public class UCTNode {
         // Bandit policy:
         double best_score = 0;
         UCTNode best = null;
-        for (UCTNode child : children) {
-            double tmp = childValue(child);
+        for (MCTSNode child : children) {
+            double tmp = childValue((UCTNode)child);
             if (best==null || tmp>best_score) {
-                best = child;
+                best = (UCTNode)child;
                 best_score = tmp;
             }
         } 
@@ -112,7 +103,7 @@ public class UCTNode {
     
         
     public double childValue(UCTNode child) {
-        double exploitation = ((double)child.accum_evaluation) / child.visit_count;
+        double exploitation = child.accum_evaluation / child.visit_count;
         double exploration = Math.sqrt(Math.log((double)visit_count)/child.visit_count);
         if (type==0) {
             // max node:
@@ -131,7 +122,7 @@ public class UCTNode {
         int mostVisitedIdx = -1;
         UCTNode mostVisited = null;
         for(int i = 0;i<children.size();i++) {
-            UCTNode child = children.get(i);
+            UCTNode child = (UCTNode)children.get(i);
             for(int j = 0;j<depth;j++) System.out.print("    ");
             System.out.println("child explored " + child.visit_count + " Avg evaluation: " + (child.accum_evaluation/((double)child.visit_count)) + " : " + actions.get(i));
             if (depth<maxdepth) child.showNode(depth+1,maxdepth);
@@ -226,7 +226,7 @@ public class MonteCarlo extends AIWithComputationBudget implements Interruptible
 
         do{
             if (gs.isComplete()) {
-                gameover = gs.cycle();
+                gameover = gs.cycleUntilNextDecision(time);
             } else {
                 gs.issue(randomAI.getAction(0, gs));
                 gs.issue(randomAI.getAction(1, gs));
@@ -273,7 +273,7 @@ public class PGSAI extends AIWithComputationBudget {
 
     @Override
     public AI clone() {
-        return new PGSAI(TIME_BUDGET, ITERATIONS_BUDGET, LOOKAHEAD, I, R, evaluation, utt, pf);
+        return new PGSAI(TIME_BUDGET, ITERATIONS_BUDGET, LOOKAHEAD, I, R, evaluation, utt, pf.clone());
     }
     
     
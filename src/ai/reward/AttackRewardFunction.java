@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepEvents;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -35,6 +36,22 @@ public class AttackRewardFunction extends RewardFunctionInterface {
         }
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        reward = 0.0;
+        done = false;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.getEvent(i) == StepEvents.ISSUED && events.getPlayer(i) == maxplayer &&
+                events.getValue(i) == UnitAction.TYPE_ATTACK_LOCATION) {
+                // the parameter is the owner of the unit at the target location:
+                if (events.getParameter(i) == minplayer) {
+                    reward += ATTACK_REWARD;		// Positive reward for attacking opponent
+                } else if (events.getParameter(i) == maxplayer) {
+                    reward -= ATTACK_REWARD;		// Negative reward for attacking self
+                }
+            }
+        }
+    }
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,9 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.units.UnitTypeTable;
+import rts.units.UnitType;
+import rts.StepEvents;
 import rts.TraceEntry;
 import rts.units.Unit;
 
@@ -59,6 +62,85 @@ public class CloserToEnemyBaseRewardFunction extends RewardFunctionInterface{
         reward = oldMinDistanceToEnemyBase - newMinDistanceToEnemyBase;
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        reward = distanceRewardFromEvents(maxplayer, minplayer, events, afterGs);
+        done = false;
+    }
+
+    /**
+     * Same reward as computed from a TraceEntry, but reconstructing the positions of the
+     * units before the step from the events: units that moved were at their previous
+     * positions, units that died were still there, and units that were spawned did not exist
+     * yet. If several enemy bases exist, the first one still alive is used as the reference.
+     */
+    static double distanceRewardFromEvents(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        UnitTypeTable utt = afterGs.getUnitTypeTable();
+        int baseX = 0;
+        int baseY = 0;
+        boolean baseExists = false;
+        for(Unit t: afterGs.getPhysicalGameState().getUnits()) {
+            if (t.getPlayer() == minplayer && t.getType().name.equals("Base") &&
+                events.firstIndexOf(StepEvents.SPAWNED, t.getID()) < 0) {
+                baseExists = true;
+                baseX = t.getX();
+                baseY = t.getY();
+                break;
+            }
+        }
+        for (int i = 0; i < events.size() && !baseExists; i++) {
+            if (events.getEvent(i) == StepEvents.DIED && events.getPlayer(i) == minplayer &&
+                utt.getUnitType(events.getUnitTypeID(i)).name.equals("Base")) {
+                baseExists = true;
+                baseX = events.getX(i);
+                baseY = events.getY(i);
+            }
+        }
+        if (!baseExists) {
+            return 0.0;
+        }
+
+        double oldMinDistanceToEnemyBase = 2000000000;
+        double newMinDistanceToEnemyBase = 2000000000;
+        for(Unit t: afterGs.getPhysicalGameState().getUnits()) {
+            if (t.getPlayer() == maxplayer && isMobile(t.getType())) {
+                double distance = distance(baseX, baseY, t.getX(), t.getY());
+                if (distance < newMinDistanceToEnemyBase) {
+                    newMinDistanceToEnemyBase = distance;
+                }
+                if (events.firstIndexOf(StepEvents.SPAWNED, t.getID()) < 0) {
+                    int moved = events.firstIndexOf(StepEvents.MOVED, t.getID());
+                    distance = moved < 0 ? distance : distance(baseX, baseY, events.getValue(moved), events.getParameter(moved));
+                    if (distance < oldMinDistanceToEnemyBase) {
+                        oldMinDistanceToEnemyBase = distance;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < events.size(); i++) {
+            if (events.getEvent(i) == StepEvents.DIED && events.getPlayer(i) == maxplayer &&
+                isMobile(utt.getUnitType(events.getUnitTypeID(i))) &&
+                events.firstIndexOf(StepEvents.SPAWNED, events.getUnitID(i)) < 0) {
+                int moved = events.firstIndexOf(StepEvents.MOVED, events.getUnitID(i));
+                double distance = moved < 0 ? distance(baseX, baseY, events.getX(i), events.getY(i)) :
+                                              distance(baseX, baseY, events.getValue(moved), events.getParameter(moved));
+                if (distance < oldMinDistanceToEnemyBase) {
+                    oldMinDistanceToEnemyBase = distance;
+                }
+            }
+        }
+        return oldMinDistanceToEnemyBase - newMinDistanceToEnemyBase;
+    }
+
+    private static boolean isMobile(UnitType type) {
+        return type.name.equals("Light") || type.name.equals("Heavy") || 
+               type.name.equals("Ranged") || type.name.equals("Worker");
+    }
+
+    private static double distance(int x1, int y1, int x2, int y2) {
+        // Euclidean distance
+        return Math.sqrt(Math.pow((x1-x2), 2.0) + Math.pow((y1-y2), 2.0));
+    }
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepEvents;
 import rts.TraceEntry;
 import rts.units.Unit;
 
@@ -59,6 +60,11 @@ public class CloserToEnemyUnitRewardFunction extends RewardFunctionInterface{
         reward = oldMinDistanceToEnemyBase - newMinDistanceToEnemyBase;
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        reward = CloserToEnemyBaseRewardFunction.distanceRewardFromEvents(maxplayer, minplayer, events, afterGs);
+        done = false;
+    }
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,8 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.units.UnitType;
+import rts.StepEvents;
 import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
@@ -29,6 +31,21 @@ public class ProduceBuildingRewardFunction extends RewardFunctionInterface{
         }
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        reward = 0.0;
+        done = false;
+        for (int i = 0; i < events.size(); i++) {
+            // for produce actions, the parameter is the type of the unit to produce:
+            if (events.getEvent(i) == StepEvents.ISSUED && events.getPlayer(i) == maxplayer &&
+                events.getValue(i) == UnitAction.TYPE_PRODUCE && events.getParameter(i) >= 0) {
+                UnitType type = afterGs.getUnitTypeTable().getUnitType(events.getParameter(i));
+                if (type.name.equals("Barracks") || type.name.equals("Base")) {
+                    reward += BUILDING_PRODUCE_REWARD;
+                }
+            }
+        }
+    }
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepEvents;
 import rts.PhysicalGameState;
 import rts.TraceEntry;
 import rts.UnitAction;
@@ -41,6 +42,30 @@ public class ResourceGatherRewardFunction extends RewardFunctionInterface{
         }
     }
 
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        reward = 0.0;
+        for (int i = 0; i < events.size(); i++) {
+            if (events.getEvent(i) == StepEvents.ISSUED && events.getPlayer(i) == maxplayer) {
+                if (events.getValue(i) == UnitAction.TYPE_HARVEST) {
+                    reward += RESOURCE_HARVEST_REWARD;
+                } else if (events.getValue(i) == UnitAction.TYPE_RETURN) {
+                    reward += RESOURCE_RETURN_REWARD;
+                }
+            }
+        }
+        done = true;
+        PhysicalGameState pgs = afterGs.getPhysicalGameState();
+        for(Unit u:pgs.getUnits()) {
+            // If there are Resources left, it's not done
+            if (u.getType().name.equals("Resource")) {
+                if (u.getResources()>0) {
+                    done = false;
+                    return;
+                }
+            }
+        }
+    }
+
     public double getReward() {
         return reward;
     }
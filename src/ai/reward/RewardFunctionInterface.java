@@ -4,18 +4,45 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepEvents;
 import rts.TraceEntry;
 
 /**
  *
  * @author costa
  */
-public abstract class RewardFunctionInterface {    
+public abstract class RewardFunctionInterface implements Cloneable {    
     public double reward = 0.0;
     public boolean done = false;
 
+    /**
+     * Returns a copy of this reward function, so that several environments can compute
+     * their rewards at the same time. Subclasses with mutable fields (other than 'reward'
+     * and 'done') need to override it, to copy them
+     * @return
+     */
+    @Override
+    public RewardFunctionInterface clone() {
+        try {
+            return (RewardFunctionInterface)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public abstract void computeReward(int maxplayer, int minplayer, TraceEntry te, GameState afterGs);
 
+    /**
+     * Computes the same reward from the events recorded by the game state during a
+     * step (see {@link StepEvents}), which spares clients from building a TraceEntry
+     * (with a clone of the state) before every step
+     * @param maxplayer
+     * @param minplayer
+     * @param events events recorded by issuing the actions of the step, and cycling
+     * @param afterGs
+     */
+    public abstract void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs);
+
     public double getReward() {
         return reward;
     }
@@ -4,6 +4,7 @@
  */
 package ai.reward;
 import rts.GameState;
+import rts.StepEvents;
 import rts.TraceEntry;
 
 /**
@@ -22,4 +23,8 @@ public class WinLossRewardFunction extends RewardFunctionInterface{
         }
 
     }
+
+    public void computeReward(int maxplayer, int minplayer, StepEvents events, GameState afterGs) {
+        computeReward(maxplayer, minplayer, (TraceEntry)null, afterGs);
+    }
 }
@@ -0,0 +1,327 @@
+package gui;
+
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/**
+ * Draws game states into a reused pixel buffer, without going through AWT/Swing, so it
+ * works without a display and costs no allocations per frame (e.g., for recording videos
+ * of the games played by the JNI clients).
+ *
+ * It uses the layout and colors of {@link PhysicalGameStatePanel#draw}: the terrain, grid,
+ * the current actions of the units (with the progress of produce actions), the units and
+ * their hit point bars, and, optionally, which cells each player can see. Text (the time
+ * and unit counts, resource amounts and the names of units being produced) is not drawn.
+ */
+public class RasterRenderer {
+    int width;
+    int height;
+    int colorScheme;
+    boolean showVisibility = false;
+
+    int[] pixels;
+    byte[] bgr;
+    // per cell, whether players 0 and 1 can see it:
+    boolean[][] visible = new boolean[2][0];
+
+    int background;
+    int gridline;
+    int player0;
+    int player0Visibility;
+    int player1;
+    int player1Visibility;
+    int bothVisibility;
+    int resource;
+    int light;
+    int ranged;
+    int heavy;
+    int hpBar;
+    int hpBarLost;
+    int base;
+    int barracks;
+    int harvest;
+
+    static final int WALL = 0x005400;
+    static final int GRAY = 0x808080;
+    static final int WORKER = 0x808080;
+
+    /**
+     * @param a_width width of the image, in pixels
+     * @param a_height height of the image, in pixels
+     * @param a_colorScheme PhysicalGameStatePanel.COLORSCHEME_BLACK or PhysicalGameStatePanel.COLORSCHEME_WHITE
+     */
+    public RasterRenderer(int a_width, int a_height, int a_colorScheme) {
+        width = a_width;
+        height = a_height;
+        pixels = new int[width * height];
+        bgr = new byte[width * height * 3];
+        setColorScheme(a_colorScheme);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setColorScheme(int cs) {
+        colorScheme = cs;
+        gridline = 0x000000;
+        player0 = 0x0C7BDC;
+        player0Visibility = 0x9CCAE4;
+        player1 = 0xBF3682;
+        player1Visibility = 0xC183A6;
+        bothVisibility = 0xE69F00;
+        resource = 0xC2DFAE;
+        light = 0xD55E00;
+        ranged = 0x0072B2;
+        heavy = 0xF0E442;
+        hpBar = 0xC2DFAE;
+        hpBarLost = 0xBF3682;
+        if (colorScheme == PhysicalGameStatePanel.COLORSCHEME_BLACK) {
+            background = 0x22272e;
+            gridline = 0xadbbc7;
+            base = 0xFFFFFF;
+            barracks = 0xC0C0C0;
+            harvest = 0xFFFFFF;
+        } else {
+            background = 0xFFFFFF;
+            base = 0xC0C0C0;
+            barracks = 0x808080;
+            harvest = 0x00FF00;
+        }
+    }
+
+    /**
+     * Whether to shade the cells each player can see (as PhysicalGameStatePanel
+     * does for partially observable games)
+     * @param show
+     */
+    public void setShowVisibility(boolean show) {
+        showVisibility = show;
+    }
+
+    /**
+     * Draws the game state
+     * @param gs
+     * @return the image, as one 0xRRGGBB int per pixel, row by row. The array is
+     * 	reused by the next call.
+     */
+    public int[] render(GameState gs) {
+        Arrays.fill(pixels, background);
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        int grid = Math.min((width - 64) / pgs.getWidth(), (height - 64) / pgs.getHeight());
+        if (grid <= 0) return pixels;
+        int x0 = width / 2 - grid * pgs.getWidth() / 2;
+        int y0 = height / 2 - grid * pgs.getHeight() / 2;
+        int thickness = grid > 20 ? 2 : 1;
+
+        if (showVisibility) computeVisibility(pgs);
+        for (int y = 0; y < pgs.getHeight(); y++) {
+            for (int x = 0; x < pgs.getWidth(); x++) {
+                int cell = x + y * pgs.getWidth();
+                if (showVisibility) {
+                    boolean v0 = visible[0][cell], v1 = visible[1][cell];
+                    if (v0 || v1) {
+                        fillRect(x0 + x * grid, y0 + y * grid, grid, grid, v0 ? (v1 ? bothVisibility : player0Visibility) : player1Visibility);
+                    }
+                }
+                if (pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL) {
+                    fillRect(x0 + x * grid, y0 + y * grid, grid, grid, WALL);
+                }
+            }
+        }
+
+        for (int i = 0; i <= pgs.getWidth(); i++) {
+            drawLine(x0 + i * grid, y0, x0 + i * grid, y0 + pgs.getHeight() * grid, gridline);
+        }
+        for (int i = 0; i <= pgs.getHeight(); i++) {
+            drawLine(x0, y0 + i * grid, x0 + pgs.getWidth() * grid, y0 + i * grid, gridline);
+        }
+
+        for (Unit u : pgs.getUnits()) {
+            int ux = x0 + u.getX() * grid;
+            int uy = y0 + u.getY() * grid;
+            UnitActionAssignment uaa = gs.getActionAssignment(u);
+            if (uaa != null) drawAction(gs, u, uaa, ux, uy, grid);
+
+            UnitType type = u.getType();
+            int color = GRAY;
+            int reduction = 0;
+            if (type.name.equals("Resource")) color = resource;
+            if (type.name.equals("Base")) color = base;
+            if (type.name.equals("Barracks")) color = barracks;
+            if (type.name.equals("Worker")) {
+                color = WORKER;
+                reduction = grid / 4;
+            }
+            if (type.name.equals("Light")) {
+                color = light;
+                reduction = grid / 8;
+            }
+            if (type.name.equals("Heavy")) color = heavy;
+            if (type.name.equals("Ranged")) {
+                color = ranged;
+                reduction = grid / 8;
+            }
+            int size = grid - reduction * 2;
+            int outline = u.getPlayer() == 0 ? player0 : (u.getPlayer() == 1 ? player1 : -1);
+            if (!type.canMove) {
+                fillRect(ux + reduction, uy + reduction, size, size, color);
+                if (outline >= 0) {
+                    for (int t = 0; t < thickness; t++) {
+                        drawRect(ux + reduction + t, uy + reduction + t, size - 2 * t, size - 2 * t, outline);
+                    }
+                }
+            } else {
+                fillDisc(ux + reduction, uy + reduction, size, 0, color);
+                if (outline >= 0) fillDisc(ux + reduction, uy + reduction, size, thickness, outline);
+            }
+
+            if (u.getHitPoints() < u.getMaxHitPoints()) {
+                fillRect(ux, uy, grid, grid / 5, hpBarLost);
+                fillRect(ux, uy, (int) (grid * (((float) u.getHitPoints()) / u.getMaxHitPoints())), grid / 5, hpBar);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Draws the game state
+     * @param gs
+     * @return the image, as 3 bytes (blue, green, red) per pixel, row by row (the layout
+     * 	of a BufferedImage.TYPE_3BYTE_BGR). The array is reused by the next call.
+     */
+    public byte[] renderBGR(GameState gs) {
+        render(gs);
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            int c = pixels[i];
+            bgr[j] = (byte) c;
+            bgr[j + 1] = (byte) (c >> 8);
+            bgr[j + 2] = (byte) (c >> 16);
+        }
+        return bgr;
+    }
+
+    private void drawAction(GameState gs, Unit u, UnitActionAssignment uaa, int ux, int uy, int grid) {
+        UnitAction action = uaa.action;
+        int offsx = 0, offsy = 0;
+        if (action.getType() == UnitAction.TYPE_ATTACK_LOCATION) {
+            offsx = (action.getLocationX() - u.getX()) * grid;
+            offsy = (action.getLocationY() - u.getY()) * grid;
+        } else if (action.getType() != UnitAction.TYPE_NONE && action.getDirection() != UnitAction.DIRECTION_NONE) {
+            offsx = UnitAction.DIRECTION_OFFSET_X[action.getDirection()] * grid;
+            offsy = UnitAction.DIRECTION_OFFSET_Y[action.getDirection()] * grid;
+        }
+        int cx = ux + grid / 2, cy = uy + grid / 2;
+        switch (action.getType()) {
+            case UnitAction.TYPE_MOVE:
+                drawLine(cx, cy, cx + offsx, cy + offsy, GRAY);
+                break;
+            case UnitAction.TYPE_ATTACK_LOCATION:
+                drawLine(cx, cy, cx + offsx, cy + offsy, player1);
+                break;
+            case UnitAction.TYPE_PRODUCE: {
+                drawLine(cx, cy, cx + offsx, cy + offsy, player0);
+                int eta = action.ETA(uaa.unit);
+                int remaining = uaa.time + eta - gs.getTime();
+                fillRect(ux + offsx, uy + offsy, grid - (int) (grid * (((float) remaining) / eta)), grid / 5, player0);
+                break;
+            }
+            case UnitAction.TYPE_HARVEST:
+            case UnitAction.TYPE_RETURN:
+                drawLine(cx, cy, cx + offsx, cy + offsy, harvest);
+                break;
+        }
+    }
+
+    /**
+     * Marks the cells within the sight radius of the units of each player (as in
+     * {@link rts.PartiallyObservableGameState#observable(int, int)})
+     * @param pgs
+     */
+    private void computeVisibility(PhysicalGameState pgs) {
+        int cells = pgs.getWidth() * pgs.getHeight();
+        for (int p = 0; p < 2; p++) {
+            if (visible[p].length != cells) {
+                visible[p] = new boolean[cells];
+            } else {
+                Arrays.fill(visible[p], false);
+            }
+        }
+        for (Unit u : pgs.getUnits()) {
+            if (u.getPlayer() != 0 && u.getPlayer() != 1) continue;
+            boolean[] v = visible[u.getPlayer()];
+            int r = u.getType().sightRadius;
+            for (int y = Math.max(0, u.getY() - r); y <= Math.min(pgs.getHeight() - 1, u.getY() + r); y++) {
+                for (int x = Math.max(0, u.getX() - r); x <= Math.min(pgs.getWidth() - 1, u.getX() + r); x++) {
+                    int dx = x - u.getX(), dy = y - u.getY();
+                    if (dx * dx + dy * dy <= r * r) v[x + y * pgs.getWidth()] = true;
+                }
+            }
+        }
+    }
+
+    private void fillRect(int x, int y, int w, int h, int color) {
+        int xa = Math.max(x, 0), xb = Math.min(x + w, width);
+        int ya = Math.max(y, 0), yb = Math.min(y + h, height);
+        for (int j = ya; j < yb; j++) {
+            if (xa < xb) Arrays.fill(pixels, j * width + xa, j * width + xb, color);
+        }
+    }
+
+    private void drawRect(int x, int y, int w, int h, int color) {
+        if (w <= 0 || h <= 0) return;
+        drawLine(x, y, x + w, y, color);
+        drawLine(x, y + h, x + w, y + h, color);
+        drawLine(x, y, x, y + h, color);
+        drawLine(x + w, y, x + w, y + h, color);
+    }
+
+    /**
+     * Fills the disc inscribed in the square of side 'size' at (x, y), or, if thickness
+     * is greater than 0, only the ring of that thickness at its border
+     */
+    private void fillDisc(int x, int y, int size, int thickness, int color) {
+        if (size <= 0) return;
+        // work in half-pixel units so that the center can be between pixels:
+        int c2x = 2 * x + size, c2y = 2 * y + size;
+        int r2 = size * size;
+        int inner = thickness > 0 && size > 2 * thickness ? (size - 2 * thickness) * (size - 2 * thickness) : -1;
+        for (int j = Math.max(y, 0); j < Math.min(y + size, height); j++) {
+            int dy = 2 * j + 1 - c2y;
+            for (int i = Math.max(x, 0); i < Math.min(x + size, width); i++) {
+                int dx = 2 * i + 1 - c2x;
+                int d = dx * dx + dy * dy;
+                if (d <= r2 && (thickness == 0 || d > inner)) pixels[j * width + i] = color;
+            }
+        }
+    }
+
+    private void drawLine(int xa, int ya, int xb, int yb, int color) {
+        int dx = Math.abs(xb - xa), dy = -Math.abs(yb - ya);
+        int sx = xa < xb ? 1 : -1, sy = ya < yb ? 1 : -1;
+        int err = dx + dy;
+        while (true) {
+            if (xa >= 0 && xa < width && ya >= 0 && ya < height) pixels[ya * width + xa] = color;
+            if (xa == xb && ya == yb) break;
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                xa += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                ya += sy;
+            }
+        }
+    }
+}
@@ -239,6 +239,8 @@ public class FEStatePane extends JPanel {
                             }
                         }
                         pgs.getUnits().clear();
+                        pgs.invalidateUnitIndex();
+                        gs.invalidateZobristKey();
                         statePanel.repaint();
                     }
                 });
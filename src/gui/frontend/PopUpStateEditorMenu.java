@@ -100,7 +100,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                     JMenuItem i2 = new JMenuItem("-1 resource");
                     i2.addActionListener(new ActionListener() {
                          public void actionPerformed(ActionEvent event) {
-                            u.setResources(u.getResources()-1);
+                            pgs.setUnitResources(u, u.getResources()-1);
                             panel.gameStateUpdated();
                             panel.repaint();
                          }
@@ -111,7 +111,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                     JMenuItem i2 = new JMenuItem("+1 resource");
                     i2.addActionListener(new ActionListener() {
                          public void actionPerformed(ActionEvent event) {
-                            u.setResources(u.getResources()+1);
+                            pgs.setUnitResources(u, u.getResources()+1);
                             panel.gameStateUpdated();
                             panel.repaint();
                          }
@@ -122,7 +122,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                     JMenuItem i2 = new JMenuItem("-10 resource");
                     i2.addActionListener(new ActionListener() {
                          public void actionPerformed(ActionEvent event) {
-                            u.setResources(u.getResources()-10);
+                            pgs.setUnitResources(u, u.getResources()-10);
                             panel.gameStateUpdated();
                             panel.repaint();
                          }
@@ -133,7 +133,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                     JMenuItem i2 = new JMenuItem("+10 resource");
                     i2.addActionListener(new ActionListener() {
                          public void actionPerformed(ActionEvent event) {
-                            u.setResources(u.getResources()+10);
+                            pgs.setUnitResources(u, u.getResources()+10);
                             panel.gameStateUpdated();
                             panel.repaint();
                          }
@@ -163,6 +163,7 @@ public class PopUpStateEditorMenu extends JPopupMenu {
                 i2.addActionListener(new ActionListener() {
                      public void actionPerformed(ActionEvent event) {
                         gs.getUnitActions().remove(u);
+                        gs.invalidateZobristKey();
                         panel.gameStateUpdated();
                         panel.repaint();
                      }
@@ -0,0 +1,124 @@
+package rts;
+
+import ai.core.AI;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
+
+/**
+ * Computes the actions of both players of a game concurrently: player 0 in the calling
+ * thread, and player 1 in a thread owned by this object. Each AI gets its own view of the
+ * game state: a {@link PartiallyObservableGameState}, or, when both are given the same
+ * state, a {@link GameState#cloneKeepingUnits()} of it, so that each AI has its own
+ * random generator (derived in a fixed order) to hand to the clones it makes. The views
+ * share the units of the game state (rather than cloning them), since many AIs keep
+ * references to its units from one cycle to the next, so AIs must not modify them.
+ * Each player must have its own instance of the AI (e.g., a clone for self-play).
+ * The time used by each AI is measured in the thread that runs it, so, with a clock
+ * based on thread CPU time, it is not affected by the other AI.
+ *
+ * Notice that this only saves time if there are at least two cores available, and that
+ * AIs relying on static state shared by both players are not safe to run this way.
+ */
+public class ConcurrentDecisions {
+
+    private final ExecutorService executor;
+    private final LongSupplier clock;
+    private final PlayerAction[] actions = new PlayerAction[2];
+    private final Exception[] exceptions = new Exception[2];
+    private final long[] times = new long[2];
+
+    /**
+     * Measures the time used by the AIs as wall-clock time, in milliseconds
+     */
+    public ConcurrentDecisions() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param a_clock returns the current time, in milliseconds, of the thread it is called from
+     */
+    public ConcurrentDecisions(LongSupplier a_clock) {
+        clock = a_clock;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Player 1 decisions");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Calls ai1.getAction(0, gs1) and ai2.getAction(1, gs2) concurrently, and waits for both.
+     * Exceptions thrown by the AIs are not propagated, but recorded (see getException()).
+     * @param ai1
+     * @param gs1 view of the game state for player 0
+     * @param ai2 must not be ai1
+     * @param gs2 view of the game state for player 1 (if it is gs1, each AI gets its own view of it)
+     * @throws InterruptedException
+     */
+    public void getActions(AI ai1, GameState gs1, AI ai2, GameState gs2) throws InterruptedException {
+        if (ai1 == ai2) {
+            throw new IllegalArgumentException("both players cannot use the same AI instance concurrently");
+        }
+        // views are created here, in a fixed order, so that their generators do not depend on thread timing:
+        final GameState view1 = (gs2 == gs1 ? gs1.cloneKeepingUnits() : gs1);
+        final GameState view2 = (gs2 == gs1 ? gs1.cloneKeepingUnits() : gs2);
+        view1.prepareConcurrentReads();
+        view2.prepareConcurrentReads();
+        Future<?> future = executor.submit(() -> decide(1, ai2, view2));
+        decide(0, ai1, view1);
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // only Errors can get here, since decide() catches all exceptions:
+            throw (Error) e.getCause();
+        }
+    }
+
+    private void decide(int player, AI ai, GameState gs) {
+        actions[player] = null;
+        exceptions[player] = null;
+        long start = clock.getAsLong();
+        try {
+            actions[player] = ai.getAction(player, gs);
+        } catch (Exception e) {
+            exceptions[player] = e;
+        }
+        times[player] = clock.getAsLong() - start;
+    }
+
+    /**
+     * @param player
+     * @return the action returned by the AI of 'player' in the last call to getActions(),
+     * or null if it threw an exception
+     */
+    public PlayerAction getAction(int player) {
+        return actions[player];
+    }
+
+    /**
+     * @param player
+     * @return the exception thrown by the AI of 'player' in the last call to getActions(), if any
+     */
+    public Exception getException(int player) {
+        return exceptions[player];
+    }
+
+    /**
+     * @param player
+     * @return the time used by the AI of 'player' in the last call to getActions(), in milliseconds
+     */
+    public long getTime(int player) {
+        return times[player];
+    }
+
+    /**
+     * Stops the thread used for player 1
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
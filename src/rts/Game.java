@@ -20,6 +20,8 @@ public class Game {
 
     private boolean partiallyObservable, headless;
     private int maxCycles, updateInterval;
+    // whether the actions of both players are computed concurrently (see setConcurrentDecisions):
+    private boolean concurrentDecisions = false;
 
     /**
      * Create a game from a GameSettings object.
@@ -34,6 +36,7 @@ public class Game {
                 gameSettings.isHeadless(),
                 gameSettings.isPartiallyObservable(), gameSettings.getMaxCycles(), gameSettings.getUpdateInterval(),
                 gameSettings.getAI1(), gameSettings.getAI2());
+        concurrentDecisions = gameSettings.isConcurrentDecisions();
     }
 
 
@@ -110,6 +113,7 @@ public class Game {
 
         ai1 = player_one;
         ai2 = player_two;
+        concurrentDecisions = gameSettings.isConcurrentDecisions();
 
         System.out.println(" ai1 --> "+ai1);
         System.out.println(" ai2 --> "+ai2);
@@ -122,6 +126,24 @@ public class Game {
 
     }
 
+    /**
+     * Seeds the game state (see {@link GameState#setSeed(long)}), so that the
+     * randomness of the game itself is reproducible
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        gs.setSeed(seed);
+    }
+
+    /**
+     * Computes the actions of both players concurrently in each cycle, each on its own
+     * thread and view of the game state (see {@link ConcurrentDecisions})
+     * @param concurrent
+     */
+    public void setConcurrentDecisions(boolean concurrent) {
+        concurrentDecisions = concurrent;
+    }
+
     /**
      * run the main loop of the game
      * @throws Exception
@@ -140,6 +162,9 @@ public class Game {
      * @throws Exception
      */
     public void start(JFrame w) throws Exception {
+        // when deciding concurrently, each player needs its own instance of the AI:
+        if (concurrentDecisions && ai2 == ai1) ai2 = ai1.clone();
+
         // Reset all players
         ai1.reset();
         ai2.reset();
@@ -149,41 +174,57 @@ public class Game {
         ai2.preGameAnalysis(gs, 0);
 
         boolean gameover = false;
-
-        while (!gameover && gs.getTime() < maxCycles) {
-            long timeToNextUpdate = System.currentTimeMillis() + updateInterval;
-
-            rts.GameState playerOneGameState =
-                    partiallyObservable ? new PartiallyObservableGameState(gs, 0) : gs;
-            rts.GameState playerTwoGameState =
-                    partiallyObservable ? new PartiallyObservableGameState(gs, 1) : gs;
-
-            rts.PlayerAction pa1 = ai1.getAction(0, playerOneGameState);
-            rts.PlayerAction pa2 = ai2.getAction(1, playerTwoGameState);
-            gs.issueSafe(pa1);
-            gs.issueSafe(pa2);
-
-            // simulate
-            gameover = gs.cycle();
-
-            // if not headless mode, wait and repaint the window
-            if (w != null) {
-                if (!w.isVisible())
-                    break;
-
-                // only wait if the AIs have not already consumed more time than the predetermined interval
-                long waitTime = timeToNextUpdate - System.currentTimeMillis();
-                if (waitTime >=0) {
-                    try {
-                        Thread.sleep(waitTime);
-                    } catch (Exception e) {
-                        e.printStackTrace();
+        ConcurrentDecisions decisions = concurrentDecisions ? new ConcurrentDecisions() : null;
+
+        try {
+            while (!gameover && gs.getTime() < maxCycles) {
+                long timeToNextUpdate = System.currentTimeMillis() + updateInterval;
+
+                rts.PlayerAction pa1, pa2;
+                if (decisions != null) {
+                    decisions.getActions(ai1, partiallyObservable ? new PartiallyObservableGameState(gs, 0) : gs,
+                                         ai2, partiallyObservable ? new PartiallyObservableGameState(gs, 1) : gs);
+                    for (int player = 0; player < 2; player++) {
+                        if (decisions.getException(player) != null) throw decisions.getException(player);
                     }
+                    pa1 = decisions.getAction(0);
+                    pa2 = decisions.getAction(1);
+                } else {
+                    rts.GameState playerOneGameState =
+                            partiallyObservable ? new PartiallyObservableGameState(gs, 0) : gs;
+                    rts.GameState playerTwoGameState =
+                            partiallyObservable ? new PartiallyObservableGameState(gs, 1) : gs;
+
+                    pa1 = ai1.getAction(0, playerOneGameState);
+                    pa2 = ai2.getAction(1, playerTwoGameState);
                 }
+                gs.issueSafe(pa1);
+                gs.issueSafe(pa2);
+
+                // simulate
+                gameover = gs.cycle();
+
+                // if not headless mode, wait and repaint the window
+                if (w != null) {
+                    if (!w.isVisible())
+                        break;
+
+                    // only wait if the AIs have not already consumed more time than the predetermined interval
+                    long waitTime = timeToNextUpdate - System.currentTimeMillis();
+                    if (waitTime >=0) {
+                        try {
+                            Thread.sleep(waitTime);
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
 
-                // repaint the window after (or regardless of) wait time
-                w.repaint();
+                    // repaint the window after (or regardless of) wait time
+                    w.repaint();
+                }
             }
+        } finally {
+            if (decisions != null) decisions.close();
         }
         ai1.gameOver(gs.winner());
         ai2.gameOver(gs.winner());
@@ -18,6 +18,7 @@ public class GameSettings {
                 "-i: update interval between each tick, in milliseconds\n" +
                 "--headless: 1 or true, 0 or false\n" +
                 "--partially_observable: 1 or true, 0 or false\n" +
+                "--concurrent_decisions: 1 or true, 0 or false\n" +
                 "-u: unit type table version\n" +
                 "--conflict_policy: which conflict policy to use\n" +
                 "--ai1: name of the class to be instantiated for player 1\n" +
@@ -46,6 +47,7 @@ public class GameSettings {
     private int maxCycles = 5000;
     private int updateInterval = 20;
     private boolean partiallyObservable = false;
+    private boolean concurrentDecisions = false;
     private int uttVersion = 1;
     private int conflictPolicy = 1;
 
@@ -106,6 +108,13 @@ public class GameSettings {
         return partiallyObservable;
     }
 
+    /**
+     * @return whether the actions of both players are computed concurrently (see {@link Game#setConcurrentDecisions(boolean)})
+     */
+    public boolean isConcurrentDecisions() {
+        return concurrentDecisions;
+    }
+
     public int getUTTVersion() {
         return uttVersion;
     }
@@ -159,6 +168,7 @@ public class GameSettings {
      * -i: update interval between each tick, in milliseconds
      * --headless: headless: 1 or true, 0 or false
      * --partially_observable: 1 or true, 0 or false
+     * --concurrent_decisions: 1 or true, 0 or false
      * -u: unit type table version
      * --conflict_policy: which conflict policy to use
      * --ai1: name of the class to be instantiated for player 1
@@ -197,6 +207,9 @@ public class GameSettings {
                 case "--partially_observable":
                     partiallyObservable = args[i].equals("1") || Boolean.parseBoolean(args[i]);
                     break;
+                case "--concurrent_decisions":
+                    concurrentDecisions = args[i].equals("1") || Boolean.parseBoolean(args[i]);
+                    break;
                 case "-u":
                     uttVersion = Integer.parseInt(args[i]);
                     break;
@@ -262,9 +275,11 @@ public class GameSettings {
         String AI1 = prop.getProperty("AI1", "ai.RandomAI");
         String AI2 = prop.getProperty("AI2", "ai.RandomAI");
 
-        return new GameSettings(launchMode, serverAddress, serverPort, serializationType,
+        GameSettings settings = new GameSettings(launchMode, serverAddress, serverPort, serializationType,
             mapLocation, maxCycles, updateInterval, partiallyObservable, uttVersion, conflictPolicy,
             includeConstantsInState, compressTerrain, headless, AI1, AI2);
+        settings.concurrentDecisions = Boolean.parseBoolean(prop.getProperty("concurrent_decisions", "false"));
+        return settings;
     }
     
     
@@ -286,6 +301,7 @@ public class GameSettings {
                 "Map Location: " + getMapLocation() + "\n" +
                 "Max Cycles: " + getMaxCycles() + "\n" +
                 "Partially Observable: " + isPartiallyObservable() + "\n" +
+                "Concurrent Decisions: " + isConcurrentDecisions() + "\n" +
                 "Rules Version: " + getUTTVersion() + "\n" +
                 "Conflict Policy: " + getConflictPolicy() + "\n" +
                 "AI1: " + getAI1() + "\n" +
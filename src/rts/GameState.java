@@ -4,12 +4,18 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
 
 import org.jdom.Document;
 import org.jdom.Element;
@@ -35,6 +41,13 @@ public class GameState {
     public static final boolean REPORT_ILLEGAL_ACTIONS = false;
     
     static Random r = new Random();         // only used if the action conflict resolution strategy is set to random
+
+    // when not null, the random numbers of this state are drawn from here instead of from the shared generators:
+    protected RandomGenerator random = null;
+    // the generators of the clones are derived from this seed and the number of clones made so
+    // far, so that cloning never advances (or races on) the generator of this state:
+    protected long cloneSeed;
+    protected AtomicLong cloneCounter = null;
     protected int unitCancelationCounter = 0;  // only used if the action conflict resolution strategy is set to alternating
     
     protected int time = 0;
@@ -42,6 +55,22 @@ public class GameState {
     protected HashMap<Unit,UnitActionAssignment> unitActions = new LinkedHashMap<>();
     protected UnitTypeTable utt;
 
+    // when not null, the changes made by "issue" and "cycle" are recorded here, so they can be undone:
+    protected UndoLog undoLog = null;
+
+    // when not null, what happens in "issue" and "cycle" is recorded here (e.g., to compute rewards):
+    protected StepEvents events = null;
+
+    // Zobrist key of the action assignments (computed lazily, see getZobristKey):
+    protected long assignmentsKey;
+    protected boolean assignmentsKeyValid = false;
+
+    // no assigned action completes before this time (a lower bound, so that "cycle" can skip
+    // the cycles in which nothing happens). It starts at 0 so that the first cycle computes it,
+    // since subclasses might fill "unitActions" directly:
+    protected int nextCompletionTime = 0;
+    private final List<UnitActionAssignment> readyToExecute = new ArrayList<>();
+
     // [player][feature map][Y][X] --> Note: feature maps not yet binarised here!
     protected int [][][][] vectorObservation;
     
@@ -77,8 +106,103 @@ public class GameState {
      * @param u
      */
     public void removeUnit(Unit u) {
-        pgs.removeUnit(u);
-        unitActions.remove(u);
+        if (undoLog == null) {
+            pgs.removeUnit(u);
+            removeAssignment(u);
+        } else {
+            int index = pgs.removeUnitAndGetIndex(u);
+            if (index >= 0) undoLog.unitRemoved(u, index);
+            UnitActionAssignment uaa = removeAssignment(u);
+            if (uaa != null) undoLog.assignmentChanged(u, uaa);
+        }
+    }
+    
+    /**
+     * Assigns an action to a unit, keeping the Zobrist key up to date
+     * @param u
+     * @param uaa
+     * @return the previous assignment of the unit (or null)
+     */
+    UnitActionAssignment putAssignment(Unit u, UnitActionAssignment uaa) {
+        UnitActionAssignment previous = unitActions.put(u, uaa);
+        int t = uaa.time + uaa.action.ETA(u);
+        if (t < nextCompletionTime) nextCompletionTime = t;
+        if (assignmentsKeyValid) {
+            if (previous != null) assignmentsKey ^= ZobristHash.assignmentKey(previous);
+            assignmentsKey ^= ZobristHash.assignmentKey(uaa);
+        }
+        return previous;
+    }
+    
+    /**
+     * Removes the action assigned to a unit, keeping the Zobrist key up to date
+     * @param u
+     * @return the removed assignment (or null)
+     */
+    UnitActionAssignment removeAssignment(Unit u) {
+        UnitActionAssignment previous = unitActions.remove(u);
+        if (previous != null && assignmentsKeyValid) {
+            assignmentsKey ^= ZobristHash.assignmentKey(previous);
+        }
+        return previous;
+    }
+    
+    /**
+     * Recomputes the time at which the next assigned action completes, which "cycle" uses
+     * to skip the cycles in which nothing happens. Call this after adding assignments
+     * directly to {@link #getUnitActions()}, or after changing the durations of the
+     * assigned actions
+     */
+    public void updateNextCompletionTime() {
+        int next = Integer.MAX_VALUE;
+        for(UnitActionAssignment uaa:unitActions.values()) {
+            int t = uaa.action.ETA(uaa.unit)+uaa.time;
+            if (t < next) next = t;
+        }
+        nextCompletionTime = next;
+    }
+    
+    /**
+     * Returns a 64 bit Zobrist key of this state (see {@link ZobristHash}), 
+     * covering time, units, players and action assignments. Equal states (see 
+     * {@link #equals(Object)}) have the same key. The first call computes it in 
+     * O(units), after which it is updated incrementally by {@link #issue(PlayerAction)}, 
+     * {@link #cycle()} and {@link #undo(int)}, so it can be used as a transposition key.
+     * If units, players or assignments are modified directly (e.g. through 
+     * {@link #getUnitActions()} or the {@link Unit} setters), call {@link #invalidateZobristKey()}.
+     * @return
+     */
+    public long getZobristKey() {
+        if (!assignmentsKeyValid) {
+            long key = 0;
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                key ^= ZobristHash.assignmentKey(uaa);
+            }
+            assignmentsKey = key;
+            assignmentsKeyValid = true;
+        }
+        return pgs.getZobristKey() ^ assignmentsKey ^ ZobristHash.timeKey(time);
+    }
+    
+    /**
+     * Builds the indexes and keys that are otherwise built lazily by the first query that
+     * needs them, so that this state can then be read from several threads at once (as long
+     * as none of them modifies it)
+     */
+    public void prepareConcurrentReads() {
+        // (rebuilds the unit index if it is missing or stale, e.g. after units were moved
+        // directly, so that readers never need to rebuild it):
+        pgs.unitIndex();
+        getZobristKey();
+    }
+
+    /**
+     * Discards the Zobrist key, so that it is recomputed on the next call to
+     * {@link #getZobristKey()}
+     */
+    public void invalidateZobristKey() {
+        assignmentsKeyValid = false;
+        pgs.invalidateZobristKey();
     }
     
     /**
@@ -108,7 +232,10 @@ public class GameState {
     }
     
     /**
-     * Returns a map with the units and the actions assigned to them
+     * Returns a map with the units and the actions assigned to them. If assignments are
+     * added or replaced directly in this map, call {@link #updateNextCompletionTime()}
+     * afterwards (otherwise {@link #cycle()} might skip the cycle in which they complete),
+     * as well as {@link #invalidateZobristKey()}
      * @return
      */
     public HashMap<Unit,UnitActionAssignment> getUnitActions() {
@@ -190,18 +317,16 @@ public class GameState {
      */
     public boolean free(int x, int y) {
         if (pgs.getTerrain(x, y)!=PhysicalGameState.TERRAIN_NONE) return false;
-        for(Unit u:pgs.units) {
-            if (u.getX()==x && u.getY()==y) return false;
-        }
-        for(UnitActionAssignment ua:unitActions.values()) {
-            if (ua.action.type==UnitAction.TYPE_MOVE ||
-                ua.action.type==UnitAction.TYPE_PRODUCE) {
-                Unit u = ua.unit;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_UP && u.getX()==x && u.getY()==y+1) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_RIGHT && u.getX()==x-1 && u.getY()==y) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_DOWN && u.getX()==x && u.getY()==y-1) return false;
-                if (ua.action.getDirection()==UnitAction.DIRECTION_LEFT && u.getX()==x+1 && u.getY()==y) return false;
-            }
+        if (pgs.getUnitAt(x, y)!=null) return false;
+        // only the units right next to the position can be moving or producing into it:
+        for(int direction = UnitAction.DIRECTION_UP;direction<=UnitAction.DIRECTION_LEFT;direction++) {
+            Unit u = pgs.getUnitAt(x - UnitAction.DIRECTION_OFFSET_X[direction], y - UnitAction.DIRECTION_OFFSET_Y[direction]);
+            if (u==null) continue;
+            UnitActionAssignment ua = unitActions.get(u);
+            if (ua!=null &&
+                (ua.action.type==UnitAction.TYPE_MOVE ||
+                 ua.action.type==UnitAction.TYPE_PRODUCE) &&
+                ua.action.getDirection()==direction) return false;
         }
         return true;
     }
@@ -250,6 +375,7 @@ public class GameState {
         boolean returnValue = false;
         
         for(Pair<Unit,UnitAction> p:pa.actions) {
+            final Pair<Unit,UnitAction> requested = p;
 //            if (p.m_a==null) {
 //                System.err.println("Issuing an action to a null unit!!!");
 //                System.exit(1);
@@ -276,10 +402,11 @@ public class GameState {
                                     cancel_old = cancel_new = true;
                                     break;
                                 case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM:
-                                    if (r.nextInt(2)==0) cancel_new = true;
+                                    if ((random != null ? random : r).nextInt(2)==0) cancel_new = true;
                                                     else cancel_old = true;
                                     break;
                                 case UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_ALTERNATING:
+                                    if (undoLog != null) undoLog.cancelationCounterChanged(unitCancelationCounter);
                                     if ((unitCancelationCounter%2)==0) cancel_new = true;
                                                                   else cancel_old = true;
                                     unitCancelationCounter++;
@@ -289,7 +416,9 @@ public class GameState {
                             int duration2 = p.m_b.ETA(p.m_a);
                             if (cancel_old) {
 //                                System.out.println("Old action canceled: " + uaa.unit.getID() + ", " + uaa.action);
-                                uaa.action = new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2));
+                                // the assignment is replaced rather than modified, since it might be shared with other states (see cloneIssue):
+                                UnitActionAssignment previous = putAssignment(uaa.unit, new UnitActionAssignment(uaa.unit, new UnitAction(UnitAction.TYPE_NONE,Math.min(duration1,duration2)), uaa.time));
+                                if (undoLog != null) undoLog.assignmentChanged(uaa.unit, previous);
                             }
                             if (cancel_new) {
 //                                System.out.println("New action canceled: " + p.m_a.getID() + ", " + p.m_b);
@@ -319,7 +448,10 @@ public class GameState {
                 }
                 
                 UnitActionAssignment uaa = new UnitActionAssignment(p.m_a, p.m_b, time);
-                unitActions.put(p.m_a,uaa);
+                UnitActionAssignment previous = putAssignment(p.m_a,uaa);
+                if (undoLog != null) undoLog.assignmentChanged(p.m_a, previous);
+                // the action requested in "pa" is recorded, even if it was cancelled by a conflict:
+                if (events != null) events.actionIssued(p.m_a, requested.m_b, pgs);
                 if (p.m_b.type!=UnitAction.TYPE_NONE) returnValue = true;
 //                System.out.println("Issuing action " + p.m_b + " to " + p.m_a);                
 //            }
@@ -338,7 +470,8 @@ public class GameState {
     public boolean issueSafe(PlayerAction pa) {
         if (!pa.integrityCheck()) throw new Error("PlayerAction inconsistent before 'issueSafe'");
         if (!integrityCheck()) throw new Error("GameState inconsistent before 'issueSafe'");
-        for(Pair<Unit,UnitAction> p:pa.actions) {
+        for(int i = 0;i<pa.actions.size();i++) {
+            Pair<Unit,UnitAction> p = pa.actions.get(i);
             if (p.m_a==null) {
                 System.err.println("Issuing an action to a null unit!!!");
                 System.exit(1);
@@ -377,7 +510,7 @@ public class GameState {
                     System.err.println("The problem was with unit " + p.m_a);
             	}
             	else {
-            		p.m_a = substituteUnit;
+            		pa.setUnit(i, substituteUnit);
             	}
             }
 
@@ -551,26 +684,78 @@ public class GameState {
      * @return whether the game was over
      */
     public boolean cycle() {
+        if (undoLog != null) undoLog.timeChanged(time);
         time++;
         
-        List<UnitActionAssignment> readyToExecute = new LinkedList<>();
-        for(UnitActionAssignment uaa:unitActions.values()) {
-            if (uaa.action.ETA(uaa.unit)+uaa.time<=time) readyToExecute.add(uaa);
-        }
+        // no action completes in this cycle:
+        if (time < nextCompletionTime) return gameover();
+        
+        // (the list is reused across cycles, and is cleared even if an action
+        // throws, so that stale entries are not executed again in the next cycle):
+        try {
+            int next = Integer.MAX_VALUE;
+            for(UnitActionAssignment uaa:unitActions.values()) {
+                int t = uaa.action.ETA(uaa.unit)+uaa.time;
+                if (t<=time) {
+                    readyToExecute.add(uaa);
+                } else if (t < next) {
+                    next = t;
+                }
+            }
+            nextCompletionTime = next;
+                    
+            // execute the actions:
+            for(int i = 0;i<readyToExecute.size();i++) {
+                UnitActionAssignment uaa = readyToExecute.get(i);
+                UnitActionAssignment removed = removeAssignment(uaa.unit);
+                if (undoLog != null && removed != null) undoLog.assignmentChanged(uaa.unit, removed);
                 
-        // execute the actions:
-        for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
-            
-//            System.out.println("Executing action for " + u + " issued at time " + uaa.time + " with duration " + uaa.action.ETA(uaa.unit));
-            
-            uaa.action.execute(uaa.unit,this);
+//                System.out.println("Executing action for " + u + " issued at time " + uaa.time + " with duration " + uaa.action.ETA(uaa.unit));
+                
+                uaa.action.execute(uaa.unit,this);
+            }
+        } finally {
+            readyToExecute.clear();
         }
         
         return gameover();
     }
     
     
+    /**
+     * Runs game cycles until a player can issue actions or the game is over.
+     * Cycles in which no action completes are skipped in a single step, so this 
+     * is equivalent to (but faster than) calling {@link #cycle()} while
+     * {@link #isComplete()}.
+     * @return whether the game was over
+     */
+    public boolean cycleUntilNextDecision() {
+        return cycleUntilNextDecision(Integer.MAX_VALUE);
+    }
+    
+    
+    /**
+     * Runs game cycles until a player can issue actions, the game is over, or
+     * 'maxTime' is reached (at least one cycle is always run). Cycles in which 
+     * no action completes are skipped in a single step.
+     * @param maxTime
+     * @return whether the game was over
+     */
+    public boolean cycleUntilNextDecision(int maxTime) {
+        boolean gameover = cycle();
+        while(!gameover && time<maxTime && isComplete()) {
+            // jump to the cycle right before the next action completes:
+            int target = Math.min(nextCompletionTime, maxTime) - 1;
+            if (target > time) {
+                if (undoLog != null) undoLog.timeChanged(time);
+                time = target;
+            }
+            gameover = cycle();
+        }
+        return gameover;
+    }
+    
+    
     /**
      * Forces the execution of all assigned actions
      */
@@ -579,33 +764,170 @@ public class GameState {
                 
         // execute all the actions:
         for(UnitActionAssignment uaa:readyToExecute) {
-            unitActions.remove(uaa.unit);
+            UnitActionAssignment removed = removeAssignment(uaa.unit);
+            if (undoLog != null && removed != null) undoLog.assignmentChanged(uaa.unit, removed);
             uaa.action.execute(uaa.unit,this);
         }
     }
     
+    
+    /**
+     * Enables or disables recording the changes made by {@link #issue(PlayerAction)} 
+     * and {@link #cycle()}, so that they can be reverted with {@link #undo(int)}. 
+     * This lets depth-first searches walk the game tree on a single state instead
+     * of cloning it at every node. Disabling it discards the recorded changes.
+     * Notice that random events (random damage, random conflict resolution) are 
+     * not rewound, so replaying after an undo might not reproduce the same outcome.
+     * @param enabled
+     */
+    public void setUndoLogging(boolean enabled) {
+        if (enabled) {
+            if (undoLog == null) undoLog = new UndoLog();
+        } else {
+            undoLog = null;
+        }
+    }
+    
+    
+    /**
+     * @return whether changes are being recorded to be undone
+     */
+    public boolean isUndoLogging() {
+        return undoLog != null;
+    }
+    
+    
+    /**
+     * Enables/disables recording the events that happen in {@link #issue(PlayerAction)}
+     * and {@link #cycle()} (see {@link StepEvents}). Events are not copied by clone().
+     * @param enabled
+     */
+    public void setEventRecording(boolean enabled) {
+        if (enabled) {
+            if (events == null) events = new StepEvents();
+        } else {
+            events = null;
+        }
+    }
+    
+    
+    /**
+     * @return the events recorded so far, or null if event recording is not enabled
+     */
+    public StepEvents getEvents() {
+        return events;
+    }
+    
+    
+    /**
+     * Makes this state draw the random numbers it needs (random damage, random move
+     * conflict resolution and random actions generated by {@link PlayerActionGenerator})
+     * from 'generator', instead of from the generators shared by all the states, so that
+     * games (e.g., the ones simulated in parallel) can be seeded independently and
+     * replayed, without contending for the shared generators. Clones of the state get
+     * their own generator, derived from a seed drawn from 'generator' here and from the
+     * number of clones made before them, so cloning a state (e.g., when an AI searches
+     * from it, even from several threads) does not change the numbers it draws afterwards.
+     * Setting it to null goes back to the shared generators.
+     * @param generator
+     */
+    public void setRandomGenerator(RandomGenerator generator) {
+        random = generator;
+        if (generator != null) {
+            cloneSeed = generator.nextLong();
+            cloneCounter = new AtomicLong();
+        } else {
+            cloneCounter = null;
+        }
+    }
+    
+    
+    /**
+     * Seeds this state with its own generator (see {@link #setRandomGenerator(RandomGenerator)})
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        setRandomGenerator(new SplittableRandom(seed));
+    }
+    
+    
+    /**
+     * @return the generator set with {@link #setRandomGenerator(RandomGenerator)}, or null
+     * if this state uses the shared generators
+     */
+    public RandomGenerator getRandomGenerator() {
+        return random;
+    }
+    
+    
+    /**
+     * Gives this state a generator derived from the one of 'source' (see
+     * {@link #setRandomGenerator(RandomGenerator)}), without changing the latter
+     * @param source
+     */
+    void deriveRandomGenerator(GameState source) {
+        if (source.cloneCounter == null) {
+            setRandomGenerator(null);
+        } else {
+            // the "golden gamma" and finalizer of SplittableRandom, so that consecutive clones get unrelated seeds:
+            long seed = source.cloneSeed + source.cloneCounter.incrementAndGet() * 0x9e3779b97f4a7c15L;
+            seed = (seed ^ (seed >>> 30)) * 0xbf58476d1ce4e5b9L;
+            seed = (seed ^ (seed >>> 27)) * 0x94d049bb133111ebL;
+            setRandomGenerator(new SplittableRandom(seed ^ (seed >>> 31)));
+        }
+    }
+    
+    
+    /**
+     * Returns a mark identifying the current point in the undo log, to be
+     * later passed to {@link #undo(int)}
+     * @return
+     */
+    public int mark() {
+        if (undoLog == null) throw new IllegalStateException("GameState.mark: undo logging is not enabled");
+        return undoLog.size();
+    }
+    
+    
+    /**
+     * Reverts all the changes made since {@link #mark()} returned 'mark'. The 
+     * resulting state is equal (see {@link #equals(Object)}) to the one at the 
+     * time of the mark, although the iteration order of the assigned actions 
+     * may differ.
+     * @param mark
+     */
+    public void undo(int mark) {
+        if (undoLog == null) throw new IllegalStateException("GameState.undo: undo logging is not enabled");
+        if (mark < 0 || mark > undoLog.size()) throw new IllegalArgumentException("GameState.undo: invalid mark " + mark);
+        undoLog.undo(this, mark);
+    }
+    
     /* 
      * @see java.lang.Object#clone()
      */
     @Override
 	public GameState clone() {
-        GameState gs = new GameState(pgs.clone(), utt);
+        // map each unit to its clone while cloning, instead of looking up every assigned unit in the list:
+        IdentityHashMap<Unit,Unit> unitMap = new IdentityHashMap<>(pgs.units.size());
+        GameState gs = new GameState(pgs.clone(unitMap), utt);
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
         for(UnitActionAssignment uaa:unitActions.values()) {
-            Unit u = uaa.unit;
-            int idx = pgs.getUnits().indexOf(u);
-            if (idx==-1) {
+            Unit u2 = unitMap.get(uaa.unit);
+            if (u2==null) {
                 System.out.println("Problematic game state:");
                 System.out.println(this);
                 System.out.println("Problematic action:");
                 System.out.println(uaa);
                 throw new Error("Inconsistent game state during cloning...");
             } else {
-                Unit u2 = gs.pgs.getUnits().get(idx);
                 gs.unitActions.put(u2,new UnitActionAssignment(u2, uaa.action, uaa.time));
             }                
         }
+        gs.assignmentsKey = assignmentsKey;
+        gs.assignmentsKeyValid = assignmentsKeyValid;
+        gs.nextCompletionTime = nextCompletionTime;
+        gs.deriveRandomGenerator(this);
         return gs;
     }
     
@@ -616,12 +938,28 @@ public class GameState {
      * @return
      */
     public GameState cloneIssue(PlayerAction pa) {
+        GameState gs = cloneKeepingUnits();
+        gs.issue(pa);
+        return gs;        
+    }
+    
+    
+    /**
+     * Returns a state that shares the PGS (and thus the units) of this one, but has its own
+     * action assignments and random generator (see {@link #setRandomGenerator(RandomGenerator)}),
+     * e.g., to give each of several AIs reading this state at the same time its own view of it
+     * @return
+     */
+    public GameState cloneKeepingUnits() {
         GameState gs = new GameState(pgs, utt);
         gs.time = time;
         gs.unitCancelationCounter = unitCancelationCounter;
         gs.unitActions.putAll(unitActions);
-        gs.issue(pa);
-        return gs;        
+        gs.assignmentsKey = assignmentsKey;
+        gs.assignmentsKeyValid = assignmentsKeyValid;
+        gs.nextCompletionTime = nextCompletionTime;
+        gs.deriveRandomGenerator(this);
+        return gs;
     }
     
     
@@ -640,6 +978,9 @@ public class GameState {
             if (u.getHitPoints() == u.getType().hp) u.setHitPoints(new_type.hp);
             u.setType(new_type);
         }
+        gs.invalidateZobristKey();
+        // action durations depend on the unit types:
+        gs.updateNextCompletionTime();
         return gs;
     }
     
@@ -967,4 +1308,58 @@ public class GameState {
         return vectorObservation[player];
     }
 
+
+    /**
+     * Returns the number of feature maps of the vector observations (see
+     * {@link #getVectorObservation(int)})
+     * @return
+     */
+    public int getNumVectorObservationFeatureMaps() {
+        return NUM_VECTOR_OBSERVATION_FEATURE_MAPS;
+    }
+
+    /**
+     * Writes the vector observation for a player (the same feature maps as 
+     * {@link #getVectorObservation(int)}) into a flat buffer, starting at 
+     * 'offset', without allocating any arrays. This lets callers (e.g. the 
+     * JNI clients) fill a single direct buffer shared with native code for
+     * many environments, rather than marshalling nested arrays.
+     * @param player
+     * @param buffer receives height*width*{@link #getNumVectorObservationFeatureMaps()} ints
+     * @param offset index in the buffer of the first int to write
+     * @param channelsLast if true, the layout is [Y][X][feature map] (NHWC), 
+     * otherwise it is [feature map][Y][X] (NCHW)
+     */
+    public void writeVectorObservation(final int player, final IntBuffer buffer, final int offset, final boolean channelsLast) {
+        final int nFeatures = getNumVectorObservationFeatureMaps();
+        final int width = pgs.width;
+        final int height = pgs.height;
+        final int cells = width * height;
+        final int cellStride = channelsLast ? nFeatures : 1;
+        final int featureStride = channelsLast ? 1 : cells;
+
+        // clear all the feature maps, except for walls, which are copied from the terrain:
+        final int[] terrain = pgs.terrain;
+        for (int cell = 0; cell < cells; cell++) {
+            final int base = offset + cell * cellStride;
+            for (int f = 0; f < nFeatures; f++) {
+                buffer.put(base + f * featureStride, f == 5 ? terrain[cell] : 0);
+            }
+        }
+
+        for (final Unit u : pgs.units) {
+            final int base = offset + (u.getX() + u.getY() * width) * cellStride;
+            buffer.put(base, u.getHitPoints());
+            buffer.put(base + featureStride, u.getResources());
+            if (u.getPlayer() >= 0) {
+                buffer.put(base + 2 * featureStride, ((u.getPlayer() + player) % 2) + 1);
+            }
+            buffer.put(base + 3 * featureStride, u.getType().ID + 1);
+            final UnitActionAssignment uaa = unitActions.get(u);
+            if (uaa != null) {
+                buffer.put(base + 4 * featureStride, uaa.action.type);
+            }
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package rts;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -38,6 +39,7 @@ public class PartiallyObservableGameState extends GameState {
 		time = gs.time;
 
 		observer = a_player;
+		deriveRandomGenerator(gs);
 
 		unitActions.putAll(gs.unitActions);
 
@@ -153,6 +155,38 @@ public class PartiallyObservableGameState extends GameState {
         return vectorObservation[player];
     }
     
+    @Override
+    public int getNumVectorObservationFeatureMaps() {
+        return NUM_VECTOR_OBSERVATION_FEATURE_MAPS_PARTIAL_OBS;
+    }
+
+    @Override
+    public void writeVectorObservation(final int player, final IntBuffer buffer, final int offset, final boolean channelsLast) {
+        super.writeVectorObservation(player, buffer, offset, channelsLast);
+
+        // Encode visibility (feature maps 6 and 7 were cleared by the call above):
+        final int width = pgs.width;
+        final int height = pgs.height;
+        final int cellStride = channelsLast ? NUM_VECTOR_OBSERVATION_FEATURE_MAPS_PARTIAL_OBS : 1;
+        final int featureStride = channelsLast ? 1 : width * height;
+        for (final Unit u : pgs.units) {
+            if (u.getPlayer() < 0) continue;
+            final int feature = u.getPlayer() == player ? 6 : 7;
+            final int sightRadius = u.getType().sightRadius;
+            final int sightRadiusSquared = sightRadius * sightRadius;
+            for (int dy = -sightRadius; dy <= sightRadius; dy++) {
+                final int y = u.getY() + dy;
+                if (y < 0 || y >= height) continue;
+                for (int dx = -sightRadius; dx <= sightRadius; dx++) {
+                    final int x = u.getX() + dx;
+                    if (x >= 0 && x < width && dx * dx + dy * dy <= sightRadiusSquared) {
+                        buffer.put(offset + (x + y * width) * cellStride + feature * featureStride, 1);
+                    }
+                }
+            }
+        }
+    }
+
     private static int[][] calculateVisibility(final List<int[]> units, final int width, final int height) {
         final int[][] visibility = new int[height][width];
         for (final int[] unit : units) {
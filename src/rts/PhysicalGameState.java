@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -43,7 +44,55 @@ public class PhysicalGameState {
     int height = 8;
     int terrain[];
     List<Player> players = new ArrayList<>();
-    List<Unit> units = new LinkedList<>();
+    List<Unit> units = new ArrayList<>();
+
+    /**
+     * Occupancy index over the map cells (x + y * width): the unit standing on
+     * each cell and how many units claim it. It is built lazily and kept in sync
+     * by {@link #addUnit(Unit)}, {@link #removeUnit(Unit)} and
+     * {@link #moveUnit(Unit, int, int)}. Units relocated directly through
+     * {@link Unit#setX(int)}/{@link Unit#setY(int)} count the change in
+     * 'positionCounter', so the index is rebuilt when it no longer matches
+     * 'indexedPositionChanges'. A cell claimed by more than one unit (only
+     * possible if an AI forces it) is resolved by scanning the unit list.
+     * The index is published only once it is fully built (unitGrid is
+     * assigned last), since several threads might query the same state.
+     */
+    volatile Unit unitGrid[];
+    int unitGridCount[];
+    PositionCounter positionCounter = new PositionCounter();
+    int indexedPositionChanges;
+
+    /**
+     * Units of this map that report their position changes to the counter of
+     * another map (a unit keeps the counter of the first map it was added to,
+     * e.g., when the same unit is added to several sampled worlds), together
+     * with the cell each of them was indexed at. This map is not notified when
+     * they move, so their positions are checked before each use of the index
+     */
+    Unit foreignUnits[] = NO_UNITS;
+    int foreignUnitCells[];
+    private static final Unit NO_UNITS[] = new Unit[0];
+
+    /**
+     * Counts the position changes of the units of a map (and of the maps
+     * sharing its units, see {@link #cloneKeepingUnits()})
+     */
+    public static final class PositionCounter {
+        int changes = 0;
+
+        public void positionChanged() {
+            changes++;
+        }
+    }
+
+    /**
+     * Zobrist key of the units and players (see {@link ZobristHash}). It is
+     * computed lazily and then updated incrementally by the methods that
+     * modify units and players through this class
+     */
+    long zobristKey;
+    boolean zobristKeyValid = false;
 
     /**
      * Constructs the game state map from a XML
@@ -116,6 +165,7 @@ public class PhysicalGameState {
      */
     public void setWidth(int w) {
         width = w;
+        invalidateUnitIndex();
     }
 
     /**
@@ -126,6 +176,7 @@ public class PhysicalGameState {
      */
     public void setHeight(int h) {
         height = h;
+        invalidateUnitIndex();
     }
 
     /**
@@ -169,6 +220,9 @@ public class PhysicalGameState {
             throw new IllegalArgumentException("PhysicalGameState.addPlayer: player added in the wrong order.");
         }
         players.add(p);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.playerKey(p);
+        }
     }
 
     /**
@@ -179,17 +233,19 @@ public class PhysicalGameState {
      * occupied
      */
     public void addUnit(Unit newUnit) throws IllegalArgumentException {
-        for (Unit existingUnit : units) {
-            if (newUnit.getX() == existingUnit.getX() && newUnit.getY() == existingUnit.getY()) {
-                throw new IllegalArgumentException(
-                        "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
-            }
+        if (getUnitAt(newUnit.getX(), newUnit.getY()) != null) {
+            throw new IllegalArgumentException(
+                    "PhysicalGameState.addUnit: added two units in position: (" + newUnit.getX() + ", " + newUnit.getY() + ")");
         }
         assert newUnit.getX() >= 0;
         assert newUnit.getX() < this.getWidth();
         assert newUnit.getY() >= 0;
         assert newUnit.getY() < this.getHeight();
         units.add(newUnit);
+        addToUnitIndex(newUnit);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(newUnit);
+        }
     }
 
     /**
@@ -198,7 +254,288 @@ public class PhysicalGameState {
      * @param u
      */
     public void removeUnit(Unit u) {
-        units.remove(u);
+        removeUnitAndGetIndex(u);
+    }
+
+    /**
+     * Removes a unit from the map, returning the index it had in the unit
+     * list, or -1 if it was not in the map
+     *
+     * @param u
+     * @return
+     */
+    int removeUnitAndGetIndex(Unit u) {
+        int index = units.indexOf(u);
+        if (index >= 0) {
+            units.remove(index);
+            if (u.getPositionCounter() != positionCounter) {
+                invalidateUnitIndex();
+            } else if (unitGrid != null) {
+                unindexUnit(u);
+            }
+            if (zobristKeyValid) {
+                zobristKey ^= ZobristHash.unitKey(u);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Inserts a unit at a given index of the unit list, without checking
+     * whether its position is free (used to restore removed units)
+     *
+     * @param index
+     * @param u
+     */
+    void addUnit(int index, Unit u) {
+        units.add(index, u);
+        addToUnitIndex(u);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+    }
+
+    /**
+     * Moves a unit that is already in the map to a new position. Units in the
+     * map should be relocated through this method rather than
+     * {@link Unit#setX(int)}/{@link Unit#setY(int)}, so that the occupancy
+     * index stays consistent
+     *
+     * @param u
+     * @param x
+     * @param y
+     */
+    public void moveUnit(Unit u, int x, int y) {
+        // (a foreign unit is found to have moved on the next query instead):
+        boolean indexed = unitGrid != null && indexedPositionChanges == positionCounter.changes
+                && u.getPositionCounter() == positionCounter;
+        if (indexed) {
+            unindexUnit(u);
+        }
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+        u.setX(x);
+        u.setY(y);
+        if (indexed) {
+            indexUnit(unitGrid, unitGridCount, u);
+            indexedPositionChanges = positionCounter.changes;
+        }
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+    }
+
+    /**
+     * Sets the hit points of a unit that is in the map, keeping the Zobrist
+     * key up to date
+     *
+     * @param u
+     * @param hitpoints
+     */
+    public void setUnitHitPoints(Unit u, int hitpoints) {
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+        u.setHitPoints(hitpoints);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+    }
+
+    /**
+     * Sets the resources carried by a unit that is in the map, keeping the
+     * Zobrist key up to date
+     *
+     * @param u
+     * @param resources
+     */
+    public void setUnitResources(Unit u, int resources) {
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+        u.setResources(resources);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.unitKey(u);
+        }
+    }
+
+    /**
+     * Sets the resources of a player, keeping the Zobrist key up to date
+     *
+     * @param p
+     * @param resources
+     */
+    public void setPlayerResources(Player p, int resources) {
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.playerKey(p);
+        }
+        p.setResources(resources);
+        if (zobristKeyValid) {
+            zobristKey ^= ZobristHash.playerKey(p);
+        }
+    }
+
+    /**
+     * Returns the Zobrist key of the units and players in the map (see
+     * {@link ZobristHash}). The first call computes it in O(units), and it
+     * is then maintained incrementally as the game is simulated
+     *
+     * @return
+     */
+    public long getZobristKey() {
+        if (!zobristKeyValid) {
+            long key = 0;
+            for (Player p : players) {
+                key ^= ZobristHash.playerKey(p);
+            }
+            for (Unit u : units) {
+                key ^= ZobristHash.unitKey(u);
+            }
+            zobristKey = key;
+            zobristKeyValid = true;
+        }
+        return zobristKey;
+    }
+
+    /**
+     * Discards the Zobrist key, so that it is recomputed on the next call to
+     * {@link #getZobristKey()}. Call this after modifying units or players
+     * directly through their setters
+     */
+    public void invalidateZobristKey() {
+        zobristKeyValid = false;
+    }
+
+    /**
+     * Discards the occupancy index, so that it is rebuilt from the unit list
+     * on the next query. Call this after modifying the list returned by
+     * {@link #getUnits()} directly
+     */
+    public void invalidateUnitIndex() {
+        unitGrid = null;
+        unitGridCount = null;
+    }
+
+    /**
+     * @return the occupancy index, (re)building it from the unit list if it
+     * has not been built yet or is stale
+     */
+    Unit[] unitIndex() {
+        Unit grid[] = unitGrid;
+        if (grid == null || indexedPositionChanges != positionCounter.changes || foreignUnitsMoved()) {
+            grid = buildUnitIndex();
+        }
+        return grid;
+    }
+
+    /**
+     * @return whether a unit in 'foreignUnits' is no longer at the cell it was
+     * indexed at
+     */
+    private boolean foreignUnitsMoved() {
+        Unit foreign[] = foreignUnits;
+        for (int i = 0; i < foreign.length; i++) {
+            if (foreignUnitCells[i] != cellOf(foreign[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the occupancy index from the unit list
+     * @return the new 'unitGrid'
+     */
+    Unit[] buildUnitIndex() {
+        int changes = positionCounter.changes;
+        Unit grid[] = new Unit[width * height];
+        int counts[] = new int[width * height];
+        List<Unit> foreign = null;
+        for (Unit u : units) {
+            // (units might have been added to the list directly):
+            if (u.getPositionCounter() == null) {
+                u.setPositionCounter(positionCounter);
+            } else if (u.getPositionCounter() != positionCounter) {
+                if (foreign == null) {
+                    foreign = new ArrayList<>();
+                }
+                foreign.add(u);
+            }
+            indexUnit(grid, counts, u);
+        }
+        if (foreign == null) {
+            foreignUnits = NO_UNITS;
+            foreignUnitCells = null;
+        } else {
+            int cells[] = new int[foreign.size()];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = cellOf(foreign.get(i));
+            }
+            foreignUnitCells = cells;
+            foreignUnits = foreign.toArray(NO_UNITS);
+        }
+        indexedPositionChanges = changes;
+        unitGridCount = counts;
+        unitGrid = grid;
+        return grid;
+    }
+
+    /**
+     * Registers a unit just added to the unit list in the occupancy index
+     *
+     * @param u
+     */
+    private void addToUnitIndex(Unit u) {
+        if (u.getPositionCounter() == null) {
+            u.setPositionCounter(positionCounter);
+        }
+        if (u.getPositionCounter() != positionCounter) {
+            // it belongs to another map too, so it has to be in 'foreignUnits':
+            invalidateUnitIndex();
+        } else if (unitGrid != null) {
+            indexUnit(unitGrid, unitGridCount, u);
+        }
+    }
+
+    /**
+     * @return the cell index of the unit, or -1 if it is outside of the map
+     */
+    private int cellOf(Unit u) {
+        if (u.getX() < 0 || u.getY() < 0 || u.getX() >= width || u.getY() >= height) {
+            return -1;
+        }
+        return u.getX() + u.getY() * width;
+    }
+
+    private void indexUnit(Unit grid[], int counts[], Unit u) {
+        if (u.getX() < 0 || u.getY() < 0 || u.getX() >= width || u.getY() >= height) {
+            return;
+        }
+        int pos = u.getX() + u.getY() * width;
+        if (counts[pos]++ == 0) {
+            grid[pos] = u;
+        }
+    }
+
+    private void unindexUnit(Unit u) {
+        if (u.getX() < 0 || u.getY() < 0 || u.getX() >= width || u.getY() >= height) {
+            return;
+        }
+        int pos = u.getX() + u.getY() * width;
+        unitGridCount[pos]--;
+        if (unitGrid[pos] == u) {
+            unitGrid[pos] = null;
+            if (unitGridCount[pos] > 0) {
+                // another unit was sharing the cell, find it:
+                for (Unit u2 : units) {
+                    if (u2 != u && u2.getX() == u.getX() && u2.getY() == u.getY()) {
+                        unitGrid[pos] = u2;
+                        break;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -253,12 +590,21 @@ public class PhysicalGameState {
      * @return
      */
     public Unit getUnitAt(int x, int y) {
-        for (Unit u : units) {
-            if (u.getX() == x && u.getY() == y) {
-                return u;
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return null;
+        }
+        Unit grid[] = unitIndex();
+        int pos = x + y * width;
+        Unit u = grid[pos];
+        if (unitGridCount[pos] > 1) {
+            // several units claim this cell, return the first one in the list:
+            for (Unit u2 : units) {
+                if (u2.getX() == x && u2.getY() == y) {
+                    return u2;
+                }
             }
         }
-        return null;
+        return u;
     }
 
     /**
@@ -283,13 +629,10 @@ public class PhysicalGameState {
      * @return
      */
     public Collection<Unit> getUnitsAround(int x, int y, int width, int height) {
-        List<Unit> closeUnits = new LinkedList<>();
-        for (Unit u : units) {
-            if ((Math.abs(u.getX() - x) <= width && Math.abs(u.getY() - y) <= height)) {
-                closeUnits.add(u);
-            }
+        if (width < 0 || height < 0) {
+            return new LinkedList<>();
         }
-        return closeUnits;
+        return getUnitsInRectangle(x - width, y - height, 2 * width + 1, 2 * height + 1);
     }
     
     /**
@@ -306,10 +649,40 @@ public class PhysicalGameState {
     	if(width < 1 || height < 1) throw new IllegalArgumentException("Width and height must be >=1");
     	
         List<Unit> unitsInside = new LinkedList<Unit>();
-        for (Unit u : units) {
-        	//tests for x <= unitX < x+width && y <= unitY < y+height 
-        	if(x <= u.getX() && u.getX() < x + width && y <= u.getY() && u.getY() < y+height) {
-                unitsInside.add(u);
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1) {
+            return unitsInside;
+        }
+        if ((x1 - x0) * (y1 - y0) >= units.size()) {
+            // the area is larger than the unit list, scanning the list is cheaper:
+            for (Unit u : units) {
+                //tests for x <= unitX < x+width && y <= unitY < y+height 
+                if(x <= u.getX() && u.getX() < x + width && y <= u.getY() && u.getY() < y+height) {
+                    unitsInside.add(u);
+                }
+            }
+            return unitsInside;
+        }
+        unitIndex();
+        int counts[] = unitGridCount;
+        for (int cy = y0; cy < y1; cy++) {
+            for (int cx = x0; cx < x1; cx++) {
+                int pos = cx + cy * this.width;
+                if (counts[pos] == 1) {
+                    Unit u = getUnitAt(cx, cy);
+                    if (u != null) {
+                        unitsInside.add(u);
+                    }
+                } else if (counts[pos] > 1) {
+                    for (Unit u : units) {
+                        if (u.getX() == cx && u.getY() == cy) {
+                            unitsInside.add(u);
+                        }
+                    }
+                }
             }
         }
         return unitsInside;
@@ -382,13 +755,32 @@ public class PhysicalGameState {
      * @see java.lang.Object#clone()
      */
     public PhysicalGameState clone() {
+        return clone(null);
+    }
+
+    /**
+     * Clones the physical game state, recording in unitMap (if not null) the
+     * clone of each unit, so that callers can translate references to the
+     * original units in a single pass
+     *
+     * @param unitMap
+     * @return
+     */
+    public PhysicalGameState clone(Map<Unit, Unit> unitMap) {
         PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);  // The terrain is shared amongst all instances, since it never changes
         for (Player p : players) {
             pgs.players.add(p.clone());
         }
         for (Unit u : units) {
-            pgs.units.add(u.clone());
+            Unit u2 = u.clone();
+            u2.setPositionCounter(pgs.positionCounter);
+            pgs.units.add(u2);
+            if (unitMap != null) {
+                unitMap.put(u, u2);
+            }
         }
+        pgs.zobristKey = zobristKey;
+        pgs.zobristKeyValid = zobristKeyValid;
         return pgs;
     }
 
@@ -402,6 +794,10 @@ public class PhysicalGameState {
         PhysicalGameState pgs = new PhysicalGameState(width, height, terrain);  // The terrain is shared amongst all instances, since it never changes
         pgs.players.addAll(players);
         pgs.units.addAll(units);
+        // the units are shared, so their position changes concern both maps:
+        pgs.positionCounter = positionCounter;
+        pgs.zobristKey = zobristKey;
+        pgs.zobristKeyValid = zobristKeyValid;
         return pgs;
     }
 
@@ -418,8 +814,12 @@ public class PhysicalGameState {
             pgs.players.add(p.clone());
         }
         for (Unit u : units) {
-            pgs.units.add(u.clone());
+            Unit u2 = u.clone();
+            u2.setPositionCounter(pgs.positionCounter);
+            pgs.units.add(u2);
         }
+        pgs.zobristKey = zobristKey;
+        pgs.zobristKeyValid = zobristKeyValid;
         return pgs;
     }
 
@@ -775,5 +1175,6 @@ public class PhysicalGameState {
         for (Unit u : units) {
             u.setHitPoints(u.getType().hp);
         }
+        invalidateZobristKey();
     }
 }
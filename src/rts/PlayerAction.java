@@ -1,6 +1,7 @@
 package rts;
 
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -18,13 +19,60 @@ import util.XMLWriter;
 
 /**
  * Stores a collection of pairs({@link Unit}, {@link UnitAction})
+ * 
+ * The pairs are kept in an array-backed list, and looking up the action of a
+ * unit uses an index from units to positions in the list, which is built 
+ * lazily and rebuilt when the list is modified. The unit of a pair must be
+ * replaced through {@link #setUnit(int, Unit)} (as in 
+ * {@link GameState#issueSafe(PlayerAction)}), since the list cannot notice
+ * changes to its pairs, so that lookups do not need to search the list.
  * @author santi
  */
 public class PlayerAction {
+    /**
+     * Lists with at most this many actions are searched linearly, rather
+     * than through the index
+     */
+    static final int INDEX_THRESHOLD = 8;
+    
+    /**
+     * Array list that also counts the replaced elements, so that the 
+     * index can detect any change to the list
+     */
+    static class ActionList extends ArrayList<Pair<Unit,UnitAction>> {
+        private static final long serialVersionUID = 1L;
+        int replacements = 0;
+        
+        ActionList() {
+        }
+        
+        ActionList(int initialCapacity) {
+            super(initialCapacity);
+        }
+        
+        @Override
+        public Pair<Unit,UnitAction> set(int index, Pair<Unit,UnitAction> element) {
+            replacements++;
+            return super.set(index, element);
+        }
+        
+        int version() {
+            return modCount + replacements;
+        }
+    }
+    
     /**
      * A list of unit actions
      */
-    List<Pair<Unit,UnitAction>> actions = new LinkedList<>();
+    ActionList actions = new ActionList();
+    
+    /**
+     * Open addressing hash table from units to their position in "actions" 
+     * (only valid when indexVersion == actions.version())
+     */
+    Unit indexKeys[] = null;
+    int indexPositions[] = null;
+    int indexVersion = -1;
     
     /**
      * Represents the resources used by the player action
@@ -47,16 +95,128 @@ public class PlayerAction {
         if (!(o instanceof PlayerAction)) return false;
         PlayerAction a = (PlayerAction)o;
 
+        if (actions.size() <= INDEX_THRESHOLD || a.actions.size() <= INDEX_THRESHOLD) {
+            for(Pair<Unit,UnitAction> p:actions) {
+                for(Pair<Unit,UnitAction> p2:a.actions) {
+                    if (p.m_a.getID()==p2.m_a.getID() &&
+                        !p.m_b.equals(p2.m_b)) return false;
+                }
+            }
+            return true;
+        }
+        
+        // units are matched by ID (they might belong to different clones of the state),
+        // so hash the IDs of one of the actions:
+        int n = a.actions.size();
+        int mask = tableSize(n) - 1;
+        long ids[] = new long[mask + 1];
+        int positions[] = new int[mask + 1];
+        for(int i = 0;i<n;i++) {
+            long ID = a.actions.get(i).m_a.getID();
+            int slot = hash(ID) & mask;
+            while(positions[slot] != 0) slot = (slot + 1) & mask;
+            ids[slot] = ID;
+            positions[slot] = i + 1;
+        }
         for(Pair<Unit,UnitAction> p:actions) {
-            for(Pair<Unit,UnitAction> p2:a.actions) {
-                if (p.m_a.getID()==p2.m_a.getID() &&
-                    !p.m_b.equals(p2.m_b)) return false;
+            long ID = p.m_a.getID();
+            for(int slot = hash(ID) & mask;positions[slot] != 0;slot = (slot + 1) & mask) {
+                if (ids[slot] == ID && 
+                    !p.m_b.equals(a.actions.get(positions[slot] - 1).m_b)) return false;
             }
         }
         return true;
     }    
     
     
+    static int tableSize(int n) {
+        return Integer.highestOneBit(Math.max(n, 2) * 2 - 1) * 2;
+    }
+    
+    
+    static int hash(long ID) {
+        long h = ID * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    
+    /**
+     * Returns the position of the first action of a unit in the list (or -1),
+     * using the index, which is rebuilt if the list has been modified
+     * @param u
+     * @return
+     */
+    int indexOf(Unit u) {
+        int n = actions.size();
+        if (n <= INDEX_THRESHOLD) {
+            for(int i = 0;i<n;i++) {
+                if (actions.get(i).m_a == u) return i;
+            }
+            return -1;
+        }
+        if (indexVersion != actions.version()) buildIndex();
+        int mask = indexKeys.length - 1;
+        for(int slot = hash(u.getID()) & mask;indexKeys[slot] != null;slot = (slot + 1) & mask) {
+            if (indexKeys[slot] == u) return indexPositions[slot];
+        }
+        return -1;
+    }
+    
+    
+    void buildIndex() {
+        int n = actions.size();
+        int size = tableSize(n);
+        if (indexKeys == null || indexKeys.length < size || indexKeys.length > size * 4) {
+            indexKeys = new Unit[size];
+            indexPositions = new int[size];
+        } else {
+            for(int i = 0;i<indexKeys.length;i++) indexKeys[i] = null;
+        }
+        for(int i = 0;i<n;i++) {
+            addToIndex(actions.get(i).m_a, i);
+        }
+        indexVersion = actions.version();
+    }
+    
+    
+    void addToIndex(Unit u, int position) {
+        int mask = indexKeys.length - 1;
+        int slot = hash(u.getID()) & mask;
+        while(indexKeys[slot] != null) {
+            if (indexKeys[slot] == u) return;   // keep the first action of each unit
+            slot = (slot + 1) & mask;
+        }
+        indexKeys[slot] = u;
+        indexPositions[slot] = position;
+    }
+    
+    
+    /**
+     * Discards the index from units to actions, so that it is rebuilt in the
+     * next lookup. Needed if the unit of one of the pairs returned by 
+     * {@link #getActions()} is replaced in place other than through
+     * {@link #setUnit(int, Unit)}
+     */
+    public void invalidateIndex() {
+        indexVersion = -1;
+    }
+
+    
+    /**
+     * Replaces the unit of the pair at a given position of the list (e.g., 
+     * by the corresponding unit of a cloned state), keeping the index up to 
+     * date. The pair is modified in place, so if it is also in other
+     * PlayerActions (as after {@link #merge(PlayerAction)}), call 
+     * {@link #invalidateIndex()} on them
+     * @param index
+     * @param u
+     */
+    public void setUnit(int index, Unit u) {
+        actions.get(index).m_a = u;
+        invalidateIndex();
+    }
+    
+    
     /**
      * Returns whether there are no player actions
      * @return
@@ -115,7 +275,13 @@ public class PlayerAction {
      * @param a
      */
     public void addUnitAction(Unit u, UnitAction a) {
+        boolean indexValid = indexVersion == actions.version();
         actions.add(new Pair<>(u, a));
+        // keep the index up to date while it has room, rather than rebuilding it:
+        if (indexValid && actions.size() * 2 <= indexKeys.length) {
+            addToIndex(u, actions.size() - 1);
+            indexVersion = actions.version();
+        }
     }
     
     /**
@@ -124,15 +290,21 @@ public class PlayerAction {
      * @param a
      */
     public void removeUnitAction(Unit u, UnitAction a) {
-		Pair<Unit, UnitAction> found = null;
-		for (Pair<Unit, UnitAction> tmp : actions) {
-			if (tmp.m_a == u && tmp.m_b == a) {
-				found = tmp;
-				break;
+		int idx = indexOf(u);
+		if (idx < 0) return;
+		if (actions.get(idx).m_b != a) {
+			// not the first action of the unit, so look for it:
+			idx = -1;
+			for (int i = 0; i < actions.size(); i++) {
+				Pair<Unit, UnitAction> tmp = actions.get(i);
+				if (tmp.m_a == u && tmp.m_b == a) {
+					idx = i;
+					break;
+				}
 			}
 		}
-		if (found != null)
-			actions.remove(found);
+		if (idx >= 0)
+			actions.remove(idx);
     }
     
     
@@ -143,6 +315,7 @@ public class PlayerAction {
      */
     public PlayerAction merge(PlayerAction a) {
         PlayerAction merge = new PlayerAction();
+        merge.actions.ensureCapacity(actions.size() + a.actions.size());
         merge.actions.addAll(actions);
         merge.actions.addAll(a.actions);
         merge.r = r.mergeIntoNew(a.r);
@@ -164,11 +337,9 @@ public class PlayerAction {
      * @return
      */
     public UnitAction getAction(Unit u) {
-		for (Pair<Unit, UnitAction> tmp : actions) {
-			if (tmp.m_a == u)
-				return tmp.m_b;
-		}
-		return null;
+		int idx = indexOf(u);
+		if (idx < 0) return null;
+		return actions.get(idx).m_b;
     }
     
     /**
@@ -185,6 +356,7 @@ public class PlayerAction {
 			if (r.consistentWith(r2, s)) {
 				PlayerAction a = new PlayerAction();
 				a.r = r.mergeIntoNew(r2);
+				a.actions.ensureCapacity(actions.size() + 1);
 				a.actions.addAll(actions);
 				a.addUnitAction(u, ua);
 				l.add(a);
@@ -216,18 +388,14 @@ public class PlayerAction {
      */
     public void fillWithNones(GameState s, int pID, int duration) {
         PhysicalGameState pgs = s.getPhysicalGameState();
+        // rebuilt once here (and then kept up to date by addUnitAction), rather
+        // than searching the list for every unit without an action:
+        if (actions.size() > INDEX_THRESHOLD) buildIndex();
 		for (Unit u : pgs.getUnits()) {
 			if (u.getPlayer() == pID) {
 				if (s.unitActions.get(u) == null) {
-					boolean found = false;
-					for (Pair<Unit, UnitAction> pa : actions) {
-						if (pa.m_a == u) {
-							found = true;
-							break;
-						}
-					}
-                    if (!found) {
-                        actions.add(new Pair<>(u, new UnitAction(UnitAction.TYPE_NONE, duration)));
+                    if (indexOf(u) < 0) {
+                        addUnitAction(u, new UnitAction(UnitAction.TYPE_NONE, duration));
                     }
                 }
             }
@@ -263,7 +431,7 @@ public class PlayerAction {
      */
     public PlayerAction clone() {
         PlayerAction clone = new PlayerAction();
-        clone.actions = new LinkedList<>();
+        clone.actions = new ActionList(actions.size());
         for(Pair<Unit,UnitAction> tmp:actions) {
             clone.actions.add(new Pair<>(tmp.m_a, tmp.m_b));
         }
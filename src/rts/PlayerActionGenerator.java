@@ -1,18 +1,27 @@
 package rts;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 import rts.units.Unit;
 import util.Pair;
 
 /**
  * Enumerates the PlayerActions for a given game state
+ * 
+ * PlayerActions are numbered in mixed radix: the choice of the first unit is
+ * the least significant digit. {@link #getAction(long)} decodes any index 
+ * directly, so the joint action space can be accessed randomly. When the 
+ * number of PlayerActions does not fit in a long, {@link #getSize()} is 
+ * capped at Long.MAX_VALUE, and the BigInteger versions of the methods
+ * must be used.
  * @author santi
  */
 public class PlayerActionGenerator {
-    static Random r = new Random();
     
     GameState gameState;
     PhysicalGameState physicalGameState;
@@ -24,6 +33,9 @@ public class PlayerActionGenerator {
     int choiceSizes[];
     int currentChoice[];
     boolean moreActions = true;
+    IdentityHashMap<Unit,Integer> choiceIndex = null;   // unit -> index in "choices" (built lazily)
+    int permutation[] = null;   // scratch buffer for sampling without replacement
+    double weightBuffer[] = null;
     
     /**
      * 
@@ -33,10 +45,38 @@ public class PlayerActionGenerator {
         return generated;
     }
     
+    /**
+     * Returns the number of PlayerActions (including those that are not 
+     * consistent), capped at Long.MAX_VALUE
+     * @return
+     */
     public long getSize() {
         return size;
     }
     
+    /**
+     * Returns whether the number of PlayerActions does not fit in a long
+     * (in which case indexes must be handled as BigIntegers)
+     * @return
+     */
+    public boolean sizeOverflows() {
+        return size == Long.MAX_VALUE;
+    }
+    
+    /**
+     * Returns the exact number of PlayerActions (including those that are not
+     * consistent)
+     * @return
+     */
+    public BigInteger getBigSize() {
+        if (!sizeOverflows()) return BigInteger.valueOf(size);
+        BigInteger bigSize = BigInteger.ONE;
+        for(int choiceSize:choiceSizes) {
+            bigSize = bigSize.multiply(BigInteger.valueOf(choiceSize));
+        }
+        return bigSize;
+    }
+    
     public PlayerAction getLastAction() {
         return lastAction;
     }
@@ -115,14 +155,24 @@ public class PlayerActionGenerator {
      * Shuffles the list of choices
      */
     public void randomizeOrder() {
+		RandomGenerator r = random();
 		for (Pair<Unit, List<UnitAction>> choice : choices) {
-            List<UnitAction> tmp = new LinkedList<>(choice.m_b);
-			choice.m_b.clear();
-			while (!tmp.isEmpty())
-				choice.m_b.add(tmp.remove(r.nextInt(tmp.size())));
+			// (same algorithm as Collections.shuffle, which only takes a java.util.Random):
+			List<UnitAction> l = choice.m_b;
+			for (int i = l.size(); i > 1; i--) {
+				Collections.swap(l, i - 1, r.nextInt(i));
+			}
 		}
 	}
     
+    /**
+     * @return the generator of the game state (see GameState.setRandomGenerator), or the
+     * one of the current thread, so that concurrent searches do not contend for a shared one
+     */
+    RandomGenerator random() {
+		return gameState.random != null ? gameState.random : ThreadLocalRandom.current();
+	}
+    
     /**
      * Increases the index that tracks the next action to be returned
      * by {@link #getNextAction(long)}
@@ -194,55 +244,142 @@ public class PlayerActionGenerator {
         return null;
     }
     
+    /**
+     * Returns the PlayerAction with a given index (see {@link #getActionIndex(PlayerAction)}),
+     * or null if the actions of the units are not consistent with each other
+     * (e.g., two units moving to the same cell)
+     * @param index between 0 and getSize()-1
+     * @return
+     */
+    public PlayerAction getAction(long index) {
+        int choice[] = new int[choices.size()];
+        for (int i = 0; i < choice.length; i++) {
+            choice[i] = (int)(index % choiceSizes[i]);
+            index /= choiceSizes[i];
+        }
+        return getAction(choice);
+    }
+    
+    /**
+     * BigInteger version of {@link #getAction(long)}, for when the number of 
+     * PlayerActions does not fit in a long
+     * @param index
+     * @return
+     */
+    public PlayerAction getAction(BigInteger index) {
+        if (index.bitLength() < 64) return getAction(index.longValue());
+        int choice[] = new int[choices.size()];
+        for (int i = 0; i < choice.length; i++) {
+            BigInteger qr[] = index.divideAndRemainder(BigInteger.valueOf(choiceSizes[i]));
+            choice[i] = qr[1].intValue();
+            index = qr[0];
+        }
+        return getAction(choice);
+    }
+    
+    /**
+     * Builds the PlayerAction with a given choice for each unit, in the 
+     * same order as {@link #getNextAction(long)}
+     * @param choice
+     * @return null if the actions are not consistent
+     */
+    PlayerAction getAction(int choice[]) {
+        PlayerAction pa = new PlayerAction();
+        pa.setResourceUsage(base_ru.clone());
+        for (int i = choices.size() - 1; i >= 0; i--) {
+            Pair<Unit, List<UnitAction>> unitChoices = choices.get(i);
+            Unit u = unitChoices.m_a;
+            UnitAction ua = unitChoices.m_b.get(choice[i]);
+            ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
+            if (!pa.getResourceUsage().consistentWith(r2, gameState)) return null;
+            pa.getResourceUsage().merge(r2);
+            pa.addUnitAction(u, ua);
+        }
+        return pa;
+    }
+    
     /**
      * Returns a random player action for the game state in this object
      * @return
      */
     public PlayerAction getRandom() {
-		Random r = new Random();
+        return getRandom(null);
+    }
+    
+    /**
+     * Returns a random player action, where the action of each unit is sampled
+     * proportionally to 'weights' (one array per choice, with one weight per 
+     * action, or null for uniform sampling). Actions that are not consistent 
+     * with those of the previous units are discarded, and another one is sampled.
+     * @param weights
+     * @return
+     */
+    public PlayerAction getRandom(double weights[][]) {
+		RandomGenerator r = random();
 		PlayerAction pa = new PlayerAction();
 		pa.setResourceUsage(base_ru.clone());
-		for (Pair<Unit, List<UnitAction>> unitChoices : choices) {
-            List<UnitAction> l = new LinkedList<>(unitChoices.m_b);
+		for (int i = 0; i < choices.size(); i++) {
+			Pair<Unit, List<UnitAction>> unitChoices = choices.get(i);
+			List<UnitAction> l = unitChoices.m_b;
 			Unit u = unitChoices.m_a;
+			int n = l.size();
 
-			boolean consistent = false;
-			do {
-				UnitAction ua = l.remove(r.nextInt(l.size()));
+			// sample without replacement, by moving the discarded actions past the end of the 
+			// "remaining" part of a permutation, rather than removing them from a copy of the list:
+			if (permutation == null || permutation.length < n) {
+				permutation = new int[n];
+				weightBuffer = new double[n];
+			}
+			double totalWeight = 0;
+			for (int j = 0; j < n; j++) {
+				permutation[j] = j;
+				if (weights != null) {
+					weightBuffer[j] = weights[i][j];
+					totalWeight += weights[i][j];
+				}
+			}
+			
+			int remaining = n;
+			while (remaining > 0) {
+				int k;
+				if (weights == null || totalWeight <= 0) {
+					k = r.nextInt(remaining);
+				} else {
+					double v = r.nextDouble() * totalWeight;
+					for (k = 0; k < remaining - 1; k++) {
+						v -= weightBuffer[k];
+						if (v < 0) break;
+					}
+				}
+				UnitAction ua = l.get(permutation[k]);
 				ResourceUsage r2 = ua.resourceUsage(u, physicalGameState);
 
 				if (pa.getResourceUsage().consistentWith(r2, gameState)) {
 					pa.getResourceUsage().merge(r2);
 					pa.addUnitAction(u, ua);
-					consistent = true;
+					break;
 				}
-			} while (!consistent);
+				remaining--;
+				totalWeight -= weightBuffer[k];
+				permutation[k] = permutation[remaining];
+				weightBuffer[k] = weightBuffer[remaining];
+			}
 		}
 		return pa;
     }
     
     /**
-     * Finds the index of a given PlayerAction within the list of PlayerActions
+     * Finds the index of a given PlayerAction within the list of PlayerActions.
+     * If the number of PlayerActions does not fit in a long, use 
+     * {@link #getBigActionIndex(PlayerAction)} instead.
      * @param a
-     * @return
+     * @return the index, or -1 if the PlayerAction has an action for a unit 
+     * that is not in the list of choices
      */
 	public long getActionIndex(PlayerAction a) {
-		int choice[] = new int[choices.size()];
-		for (Pair<Unit, UnitAction> ua : a.actions) {
-			int idx = 0;
-			Pair<Unit, List<UnitAction>> ua_choice = null;
-			for (Pair<Unit, List<UnitAction>> c : choices) {
-				if (ua.m_a == c.m_a) {
-					ua_choice = c;
-					break;
-				}
-				idx++;
-			}
-			if (ua_choice == null)
-				return -1;
-			choice[idx] = ua_choice.m_b.indexOf(ua.m_b);
-
-		}
+		int choice[] = getChoices(a);
+		if (choice == null)
+			return -1;
 		long index = 0;
 		long multiplier = 1;
 		for (int i = 0; i < choice.length; i++) {
@@ -251,6 +388,46 @@ public class PlayerActionGenerator {
 		}
 		return index;
 	}
+	
+	/**
+	 * BigInteger version of {@link #getActionIndex(PlayerAction)}
+	 * @param a
+	 * @return
+	 */
+	public BigInteger getBigActionIndex(PlayerAction a) {
+		if (!sizeOverflows()) return BigInteger.valueOf(getActionIndex(a));
+		int choice[] = getChoices(a);
+		if (choice == null)
+			return BigInteger.valueOf(-1);
+		BigInteger index = BigInteger.ZERO;
+		for (int i = choice.length - 1; i >= 0; i--) {
+			index = index.multiply(BigInteger.valueOf(choiceSizes[i])).add(BigInteger.valueOf(choice[i]));
+		}
+		return index;
+	}
+	
+	/**
+	 * Returns the choice made for each unit in a PlayerAction, or null if 
+	 * it has an action for a unit that is not in the list of choices
+	 * @param a
+	 * @return
+	 */
+	int[] getChoices(PlayerAction a) {
+		if (choiceIndex == null) {
+			choiceIndex = new IdentityHashMap<>(choices.size());
+			for (int i = 0; i < choices.size(); i++) {
+				choiceIndex.put(choices.get(i).m_a, i);
+			}
+		}
+		int choice[] = new int[choices.size()];
+		for (Pair<Unit, UnitAction> ua : a.actions) {
+			Integer idx = choiceIndex.get(ua.m_a);
+			if (idx == null)
+				return null;
+			choice[idx] = choices.get(idx).m_b.indexOf(ua.m_b);
+		}
+		return choice;
+	}
     
     
     public String toString() {
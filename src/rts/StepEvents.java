@@ -0,0 +1,150 @@
+package rts;
+
+import rts.units.Unit;
+
+/**
+ * Records what happened in a {@link GameState} during {@link GameState#issue(PlayerAction)}
+ * and {@link GameState#cycle()} (actions issued, units moved, damaged, killed or spawned,
+ * resources harvested and returned), so that rewards can be computed from the
+ * changes made in a step, instead of comparing against a clone of the state taken
+ * before it (see {@link TraceEntry}). Enabled with {@link GameState#setEventRecording(boolean)}.
+ *
+ * Like {@link UndoLog}, entries are stored in flat arrays (a unit ID and six integers
+ * per entry) to avoid allocating an object per event. Each event describes a unit,
+ * by its ID, owner, type ID and position, plus two event-specific values:
+ * <ul>
+ * <li>ISSUED: the unit was issued an action. Value: action type. Parameter: for
+ *     produce actions, the type ID of the unit to produce; for attack actions, the owner
+ *     of the unit at the target location (-1 if neutral, NO_UNIT if there is none); -1 otherwise.</li>
+ * <li>MOVED: the unit moved (its position is the new one). Value and parameter: previous x and y.</li>
+ * <li>DAMAGED: the unit was attacked. Value: damage. Parameter: owner of the attacker.</li>
+ * <li>DIED: the unit was removed, after being killed or (for resources) depleted. Value: 0.
+ *     Parameter: owner of the attacker, or -1 for depleted resources.</li>
+ * <li>SPAWNED: the unit was produced. Value: its cost. Parameter: -1.</li>
+ * <li>HARVESTED: the unit harvested resources. Value: amount harvested. Parameter:
+ *     resources left in the resource unit.</li>
+ * <li>RETURNED: the unit returned resources to a stockpile. Value: amount returned.
+ *     Parameter: resources of its owner after returning them.</li>
+ * </ul>
+ * Events accumulate until {@link #clear()} is called (typically at the beginning of each step).
+ */
+public class StepEvents {
+
+    public static final int ISSUED = 0;
+    public static final int MOVED = 1;
+    public static final int DAMAGED = 2;
+    public static final int DIED = 3;
+    public static final int SPAWNED = 4;
+    public static final int HARVESTED = 5;
+    public static final int RETURNED = 6;
+
+    public static final int NO_UNIT = -2;
+
+    static final int INTS_PER_EVENT = 6;
+
+    int events[] = new int[64];
+    long unitIDs[] = new long[64];
+    int values[] = new int[64 * INTS_PER_EVENT];
+    int size = 0;
+
+    /**
+     * Returns the number of events recorded
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards all the events
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @param i
+     * @return the kind of event 'i' (ISSUED, MOVED, ...)
+     */
+    public int getEvent(int i) {
+        return events[i];
+    }
+
+    public long getUnitID(int i) {
+        return unitIDs[i];
+    }
+
+    public int getPlayer(int i) {
+        return values[i * INTS_PER_EVENT];
+    }
+
+    public int getUnitTypeID(int i) {
+        return values[i * INTS_PER_EVENT + 1];
+    }
+
+    public int getX(int i) {
+        return values[i * INTS_PER_EVENT + 2];
+    }
+
+    public int getY(int i) {
+        return values[i * INTS_PER_EVENT + 3];
+    }
+
+    public int getValue(int i) {
+        return values[i * INTS_PER_EVENT + 4];
+    }
+
+    public int getParameter(int i) {
+        return values[i * INTS_PER_EVENT + 5];
+    }
+
+    void add(int event, Unit u, int value, int parameter) {
+        if (size == events.length) {
+            int newLength = events.length * 2;
+            int events2[] = new int[newLength];
+            long unitIDs2[] = new long[newLength];
+            int values2[] = new int[newLength * INTS_PER_EVENT];
+            System.arraycopy(events, 0, events2, 0, size);
+            System.arraycopy(unitIDs, 0, unitIDs2, 0, size);
+            System.arraycopy(values, 0, values2, 0, size * INTS_PER_EVENT);
+            events = events2;
+            unitIDs = unitIDs2;
+            values = values2;
+        }
+        int base = size * INTS_PER_EVENT;
+        events[size] = event;
+        unitIDs[size] = u.getID();
+        values[base] = u.getPlayer();
+        values[base + 1] = u.getType().ID;
+        values[base + 2] = u.getX();
+        values[base + 3] = u.getY();
+        values[base + 4] = value;
+        values[base + 5] = parameter;
+        size++;
+    }
+
+    void actionIssued(Unit u, UnitAction ua, PhysicalGameState pgs) {
+        int parameter = -1;
+        if (ua.type == UnitAction.TYPE_PRODUCE && ua.unitType != null) {
+            parameter = ua.unitType.ID;
+        } else if (ua.type == UnitAction.TYPE_ATTACK_LOCATION) {
+            Unit other = pgs.getUnitAt(ua.x, ua.y);
+            parameter = other == null ? NO_UNIT : other.getPlayer();
+        }
+        add(ISSUED, u, ua.type, parameter);
+    }
+
+    /**
+     * Returns the index of the first event of kind 'event' about the unit with the
+     * given ID, or -1 if there is none
+     * @param event
+     * @param unitID
+     * @return
+     */
+    public int firstIndexOf(int event, long unitID) {
+        for (int i = 0; i < size; i++) {
+            if (events[i] == event && unitIDs[i] == unitID) return i;
+        }
+        return -1;
+    }
+}
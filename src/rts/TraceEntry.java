@@ -49,14 +49,15 @@ public class TraceEntry {
      * @param a
      */
     public void addPlayerAction(PlayerAction a) {
-        for (Pair<Unit, UnitAction> ua : a.actions) {
+        for (int i = 0; i < a.actions.size(); i++) {
+            Pair<Unit, UnitAction> ua = a.actions.get(i);
             if (pgs.getUnit(ua.m_a.getID()) == null) {
                 boolean found = false;
                 for(Unit u:pgs.units) {
                     if (u.getClass()==ua.m_a.getClass() &&
                         u.getX()==ua.m_a.getX() &&
                         u.getY()==ua.m_a.getY()) {
-                        ua.m_a = u;
+                        a.setUnit(i, u);
                         found = true;
                         break;
                     }
@@ -0,0 +1,159 @@
+package rts;
+
+import rts.units.Unit;
+
+/**
+ * Records the reversible changes made to a {@link GameState} by
+ * {@link GameState#issue(PlayerAction)} and {@link GameState#cycle()}, so that
+ * they can be rolled back with {@link GameState#undo(int)} instead of cloning the
+ * state before each simulation step.
+ *
+ * Entries are stored in flat arrays (two object references and four integers per
+ * entry) to avoid allocating an object per change.
+ */
+public class UndoLog {
+
+    static final int UNIT_STATE = 0;            // unit, x, y, hitpoints, resources
+    static final int UNIT_ADDED = 1;            // unit
+    static final int UNIT_REMOVED = 2;          // unit, index in the unit list
+    static final int PLAYER_RESOURCES = 3;      // player, resources
+    static final int ASSIGNMENT = 4;            // unit, previous assignment (or null)
+    static final int TIME = 5;                  // time
+    static final int CANCELATION_COUNTER = 6;   // unitCancelationCounter
+
+    static final int INTS_PER_ENTRY = 4;
+
+    int ops[] = new int[256];
+    Object refs[] = new Object[256 * 2];
+    int values[] = new int[256 * INTS_PER_ENTRY];
+    int size = 0;
+
+    /**
+     * Returns the number of entries in the log
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Discards all the entries in the log
+     */
+    public void clear() {
+        for(int i = 0;i<size * 2;i++) refs[i] = null;
+        size = 0;
+    }
+
+    /**
+     * Appends an entry, and returns its index. Notice that this might reallocate
+     * the arrays, so they must not be dereferenced before calling it
+     */
+    private int add(int op, Object ref1, Object ref2) {
+        if (size == ops.length) {
+            int newLength = ops.length * 2;
+            int ops2[] = new int[newLength];
+            Object refs2[] = new Object[newLength * 2];
+            int values2[] = new int[newLength * INTS_PER_ENTRY];
+            System.arraycopy(ops, 0, ops2, 0, size);
+            System.arraycopy(refs, 0, refs2, 0, size * 2);
+            System.arraycopy(values, 0, values2, 0, size * INTS_PER_ENTRY);
+            ops = ops2;
+            refs = refs2;
+            values = values2;
+        }
+        ops[size] = op;
+        refs[size * 2] = ref1;
+        refs[size * 2 + 1] = ref2;
+        return size++;
+    }
+
+    void unitChanged(Unit u) {
+        int base = add(UNIT_STATE, u, null) * INTS_PER_ENTRY;
+        values[base] = u.getX();
+        values[base + 1] = u.getY();
+        values[base + 2] = u.getHitPoints();
+        values[base + 3] = u.getResources();
+    }
+
+    void unitAdded(Unit u) {
+        add(UNIT_ADDED, u, null);
+    }
+
+    void unitRemoved(Unit u, int index) {
+        int base = add(UNIT_REMOVED, u, null) * INTS_PER_ENTRY;
+        values[base] = index;
+    }
+
+    void playerChanged(Player p) {
+        int base = add(PLAYER_RESOURCES, p, null) * INTS_PER_ENTRY;
+        values[base] = p.getResources();
+    }
+
+    void assignmentChanged(Unit u, UnitActionAssignment previous) {
+        add(ASSIGNMENT, u, previous);
+    }
+
+    void timeChanged(int time) {
+        int base = add(TIME, null, null) * INTS_PER_ENTRY;
+        values[base] = time;
+    }
+
+    void cancelationCounterChanged(int counter) {
+        int base = add(CANCELATION_COUNTER, null, null) * INTS_PER_ENTRY;
+        values[base] = counter;
+    }
+
+    /**
+     * Reverts, in reverse order, all the entries recorded after 'mark'
+     * @param gs
+     * @param mark
+     */
+    void undo(GameState gs, int mark) {
+        PhysicalGameState pgs = gs.pgs;
+        while(size > mark) {
+            size--;
+            Object ref1 = refs[size * 2];
+            Object ref2 = refs[size * 2 + 1];
+            int base = size * INTS_PER_ENTRY;
+            refs[size * 2] = null;
+            refs[size * 2 + 1] = null;
+            switch(ops[size]) {
+                case UNIT_STATE: {
+                    Unit u = (Unit)ref1;
+                    if (u.getX() != values[base] || u.getY() != values[base + 1]) {
+                        pgs.moveUnit(u, values[base], values[base + 1]);
+                    }
+                    if (u.getHitPoints() != values[base + 2]) {
+                        pgs.setUnitHitPoints(u, values[base + 2]);
+                    }
+                    if (u.getResources() != values[base + 3]) {
+                        pgs.setUnitResources(u, values[base + 3]);
+                    }
+                    break;
+                }
+                case UNIT_ADDED:
+                    pgs.removeUnit((Unit)ref1);
+                    break;
+                case UNIT_REMOVED:
+                    pgs.addUnit(values[base], (Unit)ref1);
+                    break;
+                case PLAYER_RESOURCES:
+                    pgs.setPlayerResources((Player)ref1, values[base]);
+                    break;
+                case ASSIGNMENT:
+                    if (ref2 == null) {
+                        gs.removeAssignment((Unit)ref1);
+                    } else {
+                        gs.putAssignment((Unit)ref1, (UnitActionAssignment)ref2);
+                    }
+                    break;
+                case TIME:
+                    gs.time = values[base];
+                    break;
+                case CANCELATION_COUNTER:
+                    gs.unitCancelationCounter = values[base];
+                    break;
+            }
+        }
+    }
+}
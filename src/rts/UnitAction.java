@@ -1,9 +1,11 @@
 package rts;
 
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.jdom.Element;
 
@@ -125,9 +127,45 @@ public class UnitAction {
     UnitType unitType;
 
     /**
-     * Amount of resources associated with this action
+     * Amount of resources associated with this action, together with the 
+     * position and player it was computed for (see {@link #resourceUsage(Unit, PhysicalGameState)})
      */
-    ResourceUsage r_cache;
+    volatile ResourceUsageCache r_cache;
+
+    /**
+     * Cached resource usage. Immutable, so that shared instances can be used
+     * from several threads
+     */
+    static final class ResourceUsageCache {
+        final int position;
+        final int player;
+        final ResourceUsage usage;
+
+        ResourceUsageCache(int a_position, int a_player, ResourceUsage a_usage) {
+            position = a_position;
+            player = a_player;
+            usage = a_usage;
+        }
+    }
+
+    /**
+     * Shared instances returned by the "of" methods. NONE actions are interned
+     * up to this duration, and ATTACK_LOCATION actions up to these coordinates:
+     */
+    static final int MAX_INTERNED_DURATION = 255;
+    static final int MAX_INTERNED_COORDINATE = 127;
+    static final UnitAction DIRECTIONAL_ACTIONS[][] = new UnitAction[NUMBER_OF_ACTION_TYPES][];
+    static final AtomicReferenceArray<UnitAction> NONE_ACTIONS = new AtomicReferenceArray<>(MAX_INTERNED_DURATION + 1);
+    static final AtomicReferenceArray<UnitAction> ATTACK_ACTIONS = new AtomicReferenceArray<>((MAX_INTERNED_COORDINATE + 1) * (MAX_INTERNED_COORDINATE + 1));
+
+    static {
+        for (int type : new int[]{TYPE_MOVE, TYPE_HARVEST, TYPE_RETURN}) {
+            DIRECTIONAL_ACTIONS[type] = new UnitAction[DIRECTION_NAMES.length];
+            for (int direction = DIRECTION_UP; direction <= DIRECTION_LEFT; direction++) {
+                DIRECTIONAL_ACTIONS[type][direction] = new UnitAction(type, direction);
+            }
+        }
+    }
 
     /**
      * Creates an action with specified type
@@ -175,6 +213,75 @@ public class UnitAction {
         y = a_y;
     }
 
+    /**
+     * Returns a shared instance equal to new UnitAction(a_type, a_parameter),
+     * where the parameter is the duration of {@link #TYPE_NONE} actions, and 
+     * the direction of {@link #TYPE_MOVE}, {@link #TYPE_HARVEST} and 
+     * {@link #TYPE_RETURN} actions. This lets action generation run without 
+     * allocating new actions. Shared instances must not be modified.
+     *
+     * @param a_type
+     * @param a_parameter
+     * @return
+     */
+    public static UnitAction of(int a_type, int a_parameter) {
+        if (a_type == TYPE_NONE) {
+            if (a_parameter < 0 || a_parameter > MAX_INTERNED_DURATION) {
+                return new UnitAction(a_type, a_parameter);
+            }
+            UnitAction ua = NONE_ACTIONS.get(a_parameter);
+            if (ua == null) {
+                NONE_ACTIONS.compareAndSet(a_parameter, null, new UnitAction(a_type, a_parameter));
+                ua = NONE_ACTIONS.get(a_parameter);
+            }
+            return ua;
+        }
+        if (a_type > 0 && a_type < NUMBER_OF_ACTION_TYPES && DIRECTIONAL_ACTIONS[a_type] != null
+            && a_parameter >= DIRECTION_UP && a_parameter <= DIRECTION_LEFT) {
+            return DIRECTIONAL_ACTIONS[a_type][a_parameter];
+        }
+        return new UnitAction(a_type, a_parameter);
+    }
+
+    /**
+     * Returns a shared instance equal to new UnitAction(a_type, a_direction, a_unit_type)
+     * (see {@link #of(int, int)})
+     *
+     * @param a_type
+     * @param a_direction
+     * @param a_unit_type
+     * @return
+     */
+    public static UnitAction of(int a_type, int a_direction, UnitType a_unit_type) {
+        if (a_type != TYPE_PRODUCE || a_unit_type == null || a_direction < DIRECTION_UP || a_direction > DIRECTION_LEFT) {
+            return new UnitAction(a_type, a_direction, a_unit_type);
+        }
+        return a_unit_type.getProduceActions()[a_direction];
+    }
+
+    /**
+     * Returns a shared instance equal to new UnitAction(a_type, a_x, a_y)
+     * (see {@link #of(int, int)})
+     *
+     * @param a_type
+     * @param a_x
+     * @param a_y
+     * @return
+     */
+    public static UnitAction of(int a_type, int a_x, int a_y) {
+        if (a_type != TYPE_ATTACK_LOCATION || a_x < 0 || a_y < 0 
+            || a_x > MAX_INTERNED_COORDINATE || a_y > MAX_INTERNED_COORDINATE) {
+            return new UnitAction(a_type, a_x, a_y);
+        }
+        int idx = a_x + a_y * (MAX_INTERNED_COORDINATE + 1);
+        UnitAction ua = ATTACK_ACTIONS.get(idx);
+        if (ua == null) {
+            ATTACK_ACTIONS.compareAndSet(idx, null, new UnitAction(a_type, a_x, a_y));
+            ua = ATTACK_ACTIONS.get(idx);
+        }
+        return ua;
+    }
+
     /**
      * Copies the parameters of other unit action
      *
@@ -237,62 +344,55 @@ public class UnitAction {
 
     /**
      * Returns the ResourceUsage associated with this action, given a Unit and a
-     * PhysicalGameState
+     * PhysicalGameState. The result is cached, and must not be modified. Since
+     * the same action can be shared by several units (see {@link #of(int, int)}),
+     * the cache is only reused if the unit targets the same position.
      *
      * @param u
      * @param pgs
      * @return
      */
     public ResourceUsage resourceUsage(Unit u, PhysicalGameState pgs) {
-        if (r_cache != null) {
-            return r_cache;
+        // the resource usage only depends on the targeted position (and the player, for PRODUCE):
+        int pos = -1;
+        int player = -1;
+        if (type == TYPE_MOVE || type == TYPE_PRODUCE) {
+            pos = u.getX() + u.getY() * pgs.getWidth();
+            switch (parameter) {
+                case DIRECTION_UP:
+                    pos -= pgs.getWidth();
+                    break;
+                case DIRECTION_RIGHT:
+                    pos++;
+                    break;
+                case DIRECTION_DOWN:
+                    pos += pgs.getWidth();
+                    break;
+                case DIRECTION_LEFT:
+                    pos--;
+                    break;
+            }
+            if (type == TYPE_PRODUCE) player = u.getPlayer();
         }
 
-        r_cache = new ResourceUsage();
+        ResourceUsageCache cache = r_cache;
+        if (cache != null && cache.position == pos && cache.player == player) {
+            return cache.usage;
+        }
 
+        ResourceUsage ru = new ResourceUsage();
         switch (type) {
-            case TYPE_MOVE: {
-                int pos = u.getX() + u.getY() * pgs.getWidth();
-                switch (parameter) {
-                    case DIRECTION_UP:
-                        pos -= pgs.getWidth();
-                        break;
-                    case DIRECTION_RIGHT:
-                        pos++;
-                        break;
-                    case DIRECTION_DOWN:
-                        pos += pgs.getWidth();
-                        break;
-                    case DIRECTION_LEFT:
-                        pos--;
-                        break;
-                }
-                r_cache.positionsUsed.add(pos);
-            }
-            break;
-            case TYPE_PRODUCE: {
-                r_cache.resourcesUsed[u.getPlayer()] += unitType.cost;
-                int pos = u.getX() + u.getY() * pgs.getWidth();
-                switch (parameter) {
-                    case DIRECTION_UP:
-                        pos -= pgs.getWidth();
-                        break;
-                    case DIRECTION_RIGHT:
-                        pos++;
-                        break;
-                    case DIRECTION_DOWN:
-                        pos += pgs.getWidth();
-                        break;
-                    case DIRECTION_LEFT:
-                        pos--;
-                        break;
-                }
-                r_cache.positionsUsed.add(pos);
-            }
-            break;
+            case TYPE_MOVE:
+                ru.positionsUsed.add(pos);
+                break;
+            case TYPE_PRODUCE:
+                ru.resourcesUsed[player] += unitType.cost;
+                ru.positionsUsed.add(pos);
+                break;
         }
+        r_cache = new ResourceUsageCache(pos, player, ru);
 
-        return r_cache;
+        return ru;
     }
 
     /**
@@ -337,26 +437,38 @@ public class UnitAction {
      */
     public void execute(Unit u, GameState s) {
         PhysicalGameState pgs = s.getPhysicalGameState();
+        UndoLog undoLog = s.undoLog;
+        StepEvents events = s.events;
         switch (type) {
             case TYPE_NONE:	//no-op
                 break;
 
             case TYPE_MOVE: //moves the unit in the intended direction
+            {
+                if (undoLog != null) {
+                    undoLog.unitChanged(u);
+                }
+                int oldX = u.getX();
+                int oldY = u.getY();
                 switch (parameter) {
                     case DIRECTION_UP:
-                        u.setY(u.getY() - 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() - 1);
                         break;
                     case DIRECTION_RIGHT:
-                        u.setX(u.getX() + 1);
+                        pgs.moveUnit(u, u.getX() + 1, u.getY());
                         break;
                     case DIRECTION_DOWN:
-                        u.setY(u.getY() + 1);
+                        pgs.moveUnit(u, u.getX(), u.getY() + 1);
                         break;
                     case DIRECTION_LEFT:
-                        u.setX(u.getX() - 1);
+                        pgs.moveUnit(u, u.getX() - 1, u.getY());
                         break;
                 }
-                break;
+                if (events != null) {
+                    events.add(StepEvents.MOVED, u, oldX, oldY);
+                }
+            }
+            break;
             case TYPE_ATTACK_LOCATION: //if there's a unit in the target location, damages it
             {
                 Unit other = pgs.getUnitAt(x, y);
@@ -365,11 +477,20 @@ public class UnitAction {
                     if (u.getMinDamage() == u.getMaxDamage()) {
                         damage = u.getMinDamage();
                     } else {
-                        damage = u.getMinDamage() + r.nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
+                        damage = u.getMinDamage() + (s.random != null ? s.random : r).nextInt(1 + (u.getMaxDamage() - u.getMinDamage()));
+                    }
+                    if (undoLog != null) {
+                        undoLog.unitChanged(other);
+                    }
+                    pgs.setUnitHitPoints(other, other.getHitPoints() - damage);
+                    if (events != null) {
+                        events.add(StepEvents.DAMAGED, other, damage, u.getPlayer());
                     }
-                    other.setHitPoints(other.getHitPoints() - damage);
                     if (other.getHitPoints() <= 0) {
                         s.removeUnit(other);
+                        if (events != null) {
+                            events.add(StepEvents.DIED, other, 0, u.getPlayer());
+                        }
                     }
                 }
             }
@@ -394,11 +515,21 @@ public class UnitAction {
                 }
                 if (maybeAResource != null && maybeAResource.getType().isResource && u.getType().canHarvest && u.getResources() == 0) {
                     //indeed it is a resource, harvest from it
-                    maybeAResource.setResources(maybeAResource.getResources() - u.getHarvestAmount());
+                    if (undoLog != null) {
+                        undoLog.unitChanged(maybeAResource);
+                        undoLog.unitChanged(u);
+                    }
+                    pgs.setUnitResources(maybeAResource, maybeAResource.getResources() - u.getHarvestAmount());
                     if (maybeAResource.getResources() <= 0) {
                         s.removeUnit(maybeAResource);
+                        if (events != null) {
+                            events.add(StepEvents.DIED, maybeAResource, 0, -1);
+                        }
+                    }
+                    pgs.setUnitResources(u, u.getHarvestAmount());
+                    if (events != null) {
+                        events.add(StepEvents.HARVESTED, u, u.getHarvestAmount(), maybeAResource.getResources());
                     }
-                    u.setResources(u.getHarvestAmount());
                 }
             }
             break;
@@ -423,8 +554,16 @@ public class UnitAction {
 
                 if (base != null && base.getType().isStockpile && u.getResources() > 0) {
                     Player p = pgs.getPlayer(u.getPlayer());
-                    p.setResources(p.getResources() + u.getResources());
-                    u.setResources(0);
+                    if (undoLog != null) {
+                        undoLog.playerChanged(p);
+                        undoLog.unitChanged(u);
+                    }
+                    int amount = u.getResources();
+                    pgs.setPlayerResources(p, p.getResources() + amount);
+                    pgs.setUnitResources(u, 0);
+                    if (events != null) {
+                        events.add(StepEvents.RETURNED, u, amount, p.getResources());
+                    }
                 } else {// base is not there
 
                 }
@@ -453,7 +592,14 @@ public class UnitAction {
                 Player p = pgs.getPlayer(u.getPlayer());
                 if((p.getResources() - newUnit.getCost())>=0){
                     pgs.addUnit(newUnit);
-                    p.setResources(p.getResources() - newUnit.getCost());
+                    if (undoLog != null) {
+                        undoLog.unitAdded(newUnit);
+                        undoLog.playerChanged(p);
+                    }
+                    pgs.setPlayerResources(p, p.getResources() - newUnit.getCost());
+                    if (events != null) {
+                        events.add(StepEvents.SPAWNED, newUnit, newUnit.getCost(), -1);
+                    }
                 } else {
                     System.err.print("Illegal action attempted ("+this+")! "+
                                      "Resources of player " + p.ID + " would have been negative!\n");
@@ -709,7 +855,18 @@ public class UnitAction {
     }
 
     public static void getValidActionArray(Unit u, GameState gs, UnitTypeTable utt, int[] mask, int maxAttackRange, int idxOffset) {
-        final List<UnitAction> uas = u.getUnitActions(gs);
+        getValidActionArray(u, gs, utt, mask, maxAttackRange, idxOffset, new ArrayList<>());
+    }
+
+    /**
+     * Same as {@link #getValidActionArray(Unit, GameState, UnitTypeTable, int[], int, int)},
+     * but enumerating the actions of the unit into 'actionBuffer' (which is cleared first),
+     * so that it can be reused across calls
+     */
+    public static void getValidActionArray(Unit u, GameState gs, UnitTypeTable utt, int[] mask, int maxAttackRange, int idxOffset, List<UnitAction> actionBuffer) {
+        final List<UnitAction> uas = actionBuffer;
+        uas.clear();
+        u.getUnitActions(gs, 10, uas);
         int centerCoordinate = maxAttackRange / 2;
         int numUnitTypes = utt.getUnitTypes().size();
         for (UnitAction ua:uas) {
@@ -0,0 +1,81 @@
+package rts;
+
+import rts.units.Unit;
+
+/**
+ * Zobrist-style keys for the components of a game state. The key of a state is
+ * the XOR of the keys of its units, players, action assignments and time, so it
+ * can be updated incrementally when a single component changes (XOR-ing out its
+ * old key and XOR-ing in the new one).
+ *
+ * Since unit hit points, resources and coordinates are not bounded in advance,
+ * instead of a table of random numbers each component is hashed with a 64-bit
+ * mixing function (the SplitMix64 finalizer), which plays the role of an
+ * implicit random table. Keys are thus the same across runs, and can be stored
+ * in traces.
+ *
+ * Unit IDs are not part of the key, consistently with {@link GameState#equals(Object)}.
+ */
+public class ZobristHash {
+
+    static final long UNIT_SALT = 0x9E3779B97F4A7C15L;
+    static final long PLAYER_SALT = 0xC2B2AE3D27D4EB4FL;
+    static final long ASSIGNMENT_SALT = 0x165667B19E3779F9L;
+    static final long TIME_SALT = 0xD6E8FEB86659FD93L;
+
+    /**
+     * SplitMix64 finalizer
+     * @param z
+     * @return
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Key of a unit, given its type, owner, position, hit points and carried resources
+     * @param u
+     * @return
+     */
+    public static long unitKey(Unit u) {
+        long a = ((long)u.getType().ID << 48) | ((long)(u.getPlayer() + 1) << 40) |
+                 ((long)(u.getX() & 0xfffff) << 20) | (u.getY() & 0xfffff);
+        long b = ((long)u.getHitPoints() << 32) | (u.getResources() & 0xffffffffL);
+        return mix(mix(a ^ UNIT_SALT) ^ b);
+    }
+
+    /**
+     * Key of a player, given its ID and resources
+     * @param p
+     * @return
+     */
+    public static long playerKey(Player p) {
+        return mix(((long)p.getID() << 32 | (p.getResources() & 0xffffffffL)) ^ PLAYER_SALT);
+    }
+
+    /**
+     * Key of an action assignment. The unit is identified by its position,
+     * which does not change while it has an action assigned
+     * @param uaa
+     * @return
+     */
+    public static long assignmentKey(UnitActionAssignment uaa) {
+        UnitAction ua = uaa.action;
+        long a = ((long)ua.type << 48) | ((long)(ua.unitType == null ? 0 : ua.unitType.ID + 1) << 40) |
+                 ((long)(uaa.unit.getX() & 0xfffff) << 20) | (uaa.unit.getY() & 0xfffff);
+        long b = ((long)ua.x << 32) | (ua.y & 0xffffffffL);
+        long c = ((long)ua.parameter << 32) | (uaa.time & 0xffffffffL);
+        return mix(mix(mix(a ^ ASSIGNMENT_SALT) ^ b) ^ c);
+    }
+
+    /**
+     * Key of the game time
+     * @param time
+     * @return
+     */
+    public static long timeKey(int time) {
+        return mix(time ^ TIME_SALT);
+    }
+}
@@ -58,6 +58,36 @@ public class Unit implements Serializable {
      */
     int hitpoints = 0;
 
+    /**
+     * Counts the position changes of the units of the first map this unit was
+     * added to, so that its occupancy index notices when the unit is relocated
+     * directly (other maps the unit is added to check its position instead, see
+     * {@link PhysicalGameState#getUnitAt(int, int)})
+     */
+    transient PhysicalGameState.PositionCounter positionCounter;
+
+    /**
+     * Returns a fresh ID, incrementing {@link #next_ID}. Synchronized, since units
+     * can be created concurrently by different games (e.g. the environments of
+     * a {@link tests.JNIGridnetVecClient}), and IDs must be unique within each game
+     *
+     * @return
+     */
+    private static synchronized long newID() {
+        return next_ID++;
+    }
+
+    /**
+     * Makes sure IDs returned later by {@link #newID()} are greater than 'ID'
+     *
+     * @param ID
+     */
+    private static synchronized void reserveID(long ID) {
+        if (ID >= next_ID) {
+            next_ID = ID + 1;
+        }
+    }
+
     /**
      * Constructs a unit, specifying with all parameters, including the ID.
      * {@link #next_ID} gets ID+1 if ID >= {@link #next_ID}
@@ -77,9 +107,7 @@ public class Unit implements Serializable {
         resources = a_resources;
         hitpoints = a_type.hp;
         ID = a_ID;
-        if (ID >= next_ID) {
-            next_ID = ID + 1;
-        }
+        reserveID(ID);
     }
 
     /**
@@ -99,7 +127,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = a_resources;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -117,7 +145,7 @@ public class Unit implements Serializable {
         y = a_y;
         resources = 0;
         hitpoints = a_type.hp;
-        ID = next_ID++;
+        ID = newID();
     }
 
     /**
@@ -220,6 +248,7 @@ public class Unit implements Serializable {
      */
     public void setX(int a_x) {
         x = a_x;
+        if (positionCounter != null) positionCounter.positionChanged();
     }
 
     /**
@@ -229,6 +258,26 @@ public class Unit implements Serializable {
      */
     public void setY(int a_y) {
         y = a_y;
+        if (positionCounter != null) positionCounter.positionChanged();
+    }
+
+    /**
+     * Sets the counter notified when the position of this unit changes (used
+     * by {@link PhysicalGameState} when the unit is added to its first map)
+     *
+     * @param a_positionCounter
+     */
+    public void setPositionCounter(PhysicalGameState.PositionCounter a_positionCounter) {
+        positionCounter = a_positionCounter;
+    }
+
+    /**
+     * Returns the counter notified when the position of this unit changes
+     *
+     * @return
+     */
+    public PhysicalGameState.PositionCounter getPositionCounter() {
+        return positionCounter;
     }
 
     /**
@@ -381,44 +430,45 @@ public class Unit implements Serializable {
      */
     public List<UnitAction> getUnitActions(GameState s, int noneDuration) {
         List<UnitAction> l = new ArrayList<>();
+        getUnitActions(s, noneDuration, l);
+        return l;
+    }
 
+    /**
+     * Adds to 'l' the actions this unit can perform in a given state (see 
+     * {@link #getUnitActions(GameState, int)}), so that callers can reuse the 
+     * same list. The actions are shared instances (see {@link UnitAction#of(int, int)}),
+     * so generating them does not allocate memory.
+     *
+     * @param s
+     * @param noneDuration the amount of cycles for the idle action that is
+     * always generated
+     * @param l the list where to add the actions
+     */
+    public void getUnitActions(GameState s, int noneDuration, List<UnitAction> l) {
         PhysicalGameState pgs = s.getPhysicalGameState();
         Player p = pgs.getPlayer(player);
 
         // retrieves units around me
-        Unit uup = null, uright = null, udown = null, uleft = null;
-        for (Unit u : pgs.getUnits()) {
-            if (u.x == x) {
-                if (u.y == y - 1) {
-                    uup = u;
-                } else if (u.y == y + 1) {
-                    udown = u;
-                }
-            } else {
-                if (u.y == y) {
-                    if (u.x == x - 1) {
-                        uleft = u;
-                    } else if (u.x == x + 1) {
-                        uright = u;
-                    }
-                }
-            }
-        }
+        Unit uup = pgs.getUnitAt(x, y - 1);
+        Unit uright = pgs.getUnitAt(x + 1, y);
+        Unit udown = pgs.getUnitAt(x, y + 1);
+        Unit uleft = pgs.getUnitAt(x - 1, y);
 
         // if this unit can attack, adds an attack action for each unit around it
         if (type.canAttack) {
             if (type.attackRange == 1) {
                 if (y > 0 && uup != null && uup.player != player && uup.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uup.x, uup.y));
+                    l.add(UnitAction.of(UnitAction.TYPE_ATTACK_LOCATION, uup.x, uup.y));
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.player != player && uright.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uright.x, uright.y));
+                    l.add(UnitAction.of(UnitAction.TYPE_ATTACK_LOCATION, uright.x, uright.y));
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.player != player && udown.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, udown.x, udown.y));
+                    l.add(UnitAction.of(UnitAction.TYPE_ATTACK_LOCATION, udown.x, udown.y));
                 }
                 if (x > 0 && uleft != null && uleft.player != player && uleft.player >= 0) {
-                    l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, uleft.x, uleft.y));
+                    l.add(UnitAction.of(UnitAction.TYPE_ATTACK_LOCATION, uleft.x, uleft.y));
                 }
             } else {
                 int sqrange = type.attackRange * type.attackRange;
@@ -429,7 +479,7 @@ public class Unit implements Serializable {
                     int sq_dx = (u.x - x) * (u.x - x);
                     int sq_dy = (u.y - y) * (u.y - y);
                     if (sq_dx + sq_dy <= sqrange) {
-                        l.add(new UnitAction(UnitAction.TYPE_ATTACK_LOCATION, u.x, u.y));
+                        l.add(UnitAction.of(UnitAction.TYPE_ATTACK_LOCATION, u.x, u.y));
                     }
                 }
             }
@@ -441,31 +491,31 @@ public class Unit implements Serializable {
             // harvest:
             if (resources == 0) {
                 if (y > 0 && uup != null && uup.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_UP));
+                    l.add(UnitAction.of(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_UP));
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_RIGHT));
+                    l.add(UnitAction.of(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_RIGHT));
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_DOWN));
+                    l.add(UnitAction.of(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_DOWN));
                 }
                 if (x > 0 && uleft != null && uleft.type.isResource) {
-                    l.add(new UnitAction(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_LEFT));
+                    l.add(UnitAction.of(UnitAction.TYPE_HARVEST, UnitAction.DIRECTION_LEFT));
                 }
             }
             // return:
             if (resources > 0) {
                 if (y > 0 && uup != null && uup.type.isStockpile && uup.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_UP));
+                    l.add(UnitAction.of(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_UP));
                 }
                 if (x < pgs.getWidth() - 1 && uright != null && uright.type.isStockpile && uright.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_RIGHT));
+                    l.add(UnitAction.of(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_RIGHT));
                 }
                 if (y < pgs.getHeight() - 1 && udown != null && udown.type.isStockpile && udown.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_DOWN));
+                    l.add(UnitAction.of(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_DOWN));
                 }
                 if (x > 0 && uleft != null && uleft.type.isStockpile && uleft.player == player) {
-                    l.add(new UnitAction(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_LEFT));
+                    l.add(UnitAction.of(UnitAction.TYPE_RETURN, UnitAction.DIRECTION_LEFT));
                 }
             }
         }
@@ -480,16 +530,16 @@ public class Unit implements Serializable {
                 int tleft = (x > 0 ? pgs.getTerrain(x - 1, y) : PhysicalGameState.TERRAIN_WALL);
 
                 if (tup == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y - 1) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_UP, ut));
+                    l.add(UnitAction.of(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_UP, ut));
                 }
                 if (tright == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x + 1, y) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_RIGHT, ut));
+                    l.add(UnitAction.of(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_RIGHT, ut));
                 }
                 if (tdown == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x, y + 1) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_DOWN, ut));
+                    l.add(UnitAction.of(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_DOWN, ut));
                 }
                 if (tleft == PhysicalGameState.TERRAIN_NONE && pgs.getUnitAt(x - 1, y) == null) {
-                    l.add(new UnitAction(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_LEFT, ut));
+                    l.add(UnitAction.of(UnitAction.TYPE_PRODUCE, UnitAction.DIRECTION_LEFT, ut));
                 }
             }
         }
@@ -502,23 +552,21 @@ public class Unit implements Serializable {
             int tleft = (x > 0 ? pgs.getTerrain(x - 1, y) : PhysicalGameState.TERRAIN_WALL);
 
             if (tup == PhysicalGameState.TERRAIN_NONE && uup == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP));
+                l.add(UnitAction.of(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP));
             }
             if (tright == PhysicalGameState.TERRAIN_NONE && uright == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT));
+                l.add(UnitAction.of(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT));
             }
             if (tdown == PhysicalGameState.TERRAIN_NONE && udown == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN));
+                l.add(UnitAction.of(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN));
             }
             if (tleft == PhysicalGameState.TERRAIN_NONE && uleft == null) {
-                l.add(new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT));
+                l.add(UnitAction.of(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT));
             }
         }
 
         // units can always stay idle:
-        l.add(new UnitAction(UnitAction.TYPE_NONE, noneDuration));
-
-        return l;
+        l.add(UnitAction.of(UnitAction.TYPE_NONE, noneDuration));
     }
 
     /**
@@ -604,9 +652,7 @@ public class Unit implements Serializable {
         String hitpointsStr = e.getAttributeValue("hitpoints");
 
         long ID = Long.parseLong(IDStr);
-        if (ID >= next_ID) {
-            next_ID = ID + 1;
-        }
+        reserveID(ID);
         UnitType type = utt.getUnitType(typeName);
         int player = Integer.parseInt(playerStr);
         int x = Integer.parseInt(xStr);
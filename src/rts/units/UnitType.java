@@ -8,6 +8,8 @@ import java.io.Writer;
 import java.util.ArrayList;
 
 import org.jdom.Element;
+
+import rts.UnitAction;
 import util.XMLWriter;
 
 /**
@@ -108,6 +110,12 @@ public class UnitType {
      * Which unit types produce a unit of this type
      */
     public ArrayList<UnitType> producedBy = new ArrayList<>();
+
+    /**
+     * Shared produce actions of this type, one per direction (built lazily,
+     * see {@link #getProduceActions()})
+     */
+    private volatile UnitAction produceActions[];
     
     /**
      * Returns the hash code of the name
@@ -135,6 +143,30 @@ public class UnitType {
         ut.producedBy.add(this);
     }
 
+    /**
+     * Returns the shared actions that produce a unit of this type, indexed by
+     * direction (see {@link UnitAction#of(int, int, UnitType)}). They live in
+     * the unit type, so that they are discarded with its {@link UnitTypeTable}.
+     * Shared instances must not be modified
+     * @return
+     */
+    public UnitAction[] getProduceActions() {
+        UnitAction actions[] = produceActions;
+        if (actions == null) {
+            synchronized (this) {
+                actions = produceActions;
+                if (actions == null) {
+                    actions = new UnitAction[UnitAction.DIRECTION_NAMES.length];
+                    for (int direction = UnitAction.DIRECTION_UP; direction <= UnitAction.DIRECTION_LEFT; direction++) {
+                        actions[direction] = new UnitAction(UnitAction.TYPE_PRODUCE, direction, this);
+                    }
+                    produceActions = actions;
+                }
+            }
+        }
+        return actions;
+    }
+
     /**
      * Creates a temporary instance with just the name and ID from a XML element
      * @param unittype_e
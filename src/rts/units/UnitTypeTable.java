@@ -338,6 +338,20 @@ public class UnitTypeTable  {
         return moveConflictResolutionStrategy;
     }
     
+    /**
+     * Returns whether games with these unit types are deterministic (no random damage,
+     * and no random move conflict resolution), i.e., whether cycling a state always
+     * leads to the same state
+     * @return
+     */
+    public boolean isDeterministic() {
+        if (moveConflictResolutionStrategy == MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM) return false;
+        for (UnitType ut : unitTypes) {
+            if (ut.minDamage != ut.maxDamage) return false;
+        }
+        return true;
+    }
+    
     /**
      * Loop through the list of unit types and return the largest attack range
      * @return
@@ -1,21 +1,19 @@
 package tests;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Paths;
+import java.util.SplittableRandom;
 
 import ai.core.AI;
 import ai.jni.Response;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
+import gui.RasterRenderer;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
-import rts.TraceEntry;
 import rts.units.UnitTypeTable;
 
 /**
@@ -43,7 +41,12 @@ public class JNIBotClient {
     String micrortsPath;
     boolean gameover = false;
     boolean layerJSON = true;
+    // when not null, the game states are seeded from here (see setSeed()):
+    SplittableRandom random;
     public int renderTheme = PhysicalGameStatePanel.COLORSCHEME_WHITE;
+    public int renderWidth = 640;
+    public int renderHeight = 640;
+    RasterRenderer renderer;
 
     // storage
     double[] rewards;
@@ -86,34 +89,36 @@ public class JNIBotClient {
         response = new Response(null, null, null, null);
     }
 
+    /**
+     * @param returnPixels if true, draws the game with a headless RasterRenderer (of
+     * 	renderWidth x renderHeight pixels) and returns the image; otherwise, shows it in a window
+     * @return the image, as 3 bytes (blue, green, red) per pixel, or null
+     * @throws Exception
+     */
     public byte[] render(boolean returnPixels) throws Exception {
+        if (returnPixels) {
+            if (renderer==null || renderer.getWidth()!=renderWidth || renderer.getHeight()!=renderHeight) {
+                renderer = new RasterRenderer(renderWidth, renderHeight, renderTheme);
+                renderer.setShowVisibility(false);
+            }
+            renderer.setColorScheme(renderTheme);
+            return renderer.renderBGR(gs);
+        }
         if (w==null) {
             w = PhysicalGameStatePanel.newVisualizer(gs, 640, 640, false, null, renderTheme);
         }
         w.setStateCloning(gs);
         w.repaint();
-
-        if (!returnPixels) {
-            return null;
-        }
-        BufferedImage image = new BufferedImage(w.getWidth(),
-        w.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        w.paint(image.getGraphics());
-
-        WritableRaster raster = image .getRaster();
-        DataBufferByte data = (DataBufferByte) raster.getDataBuffer();
-        return data.getData();
+        return null;
     }
 
     public Response gameStep(int player) throws Exception {
         pa1 = ai1.getAction(player, gs);
         pa2 = ai2.getAction(1 - player, gs);
 
+        gs.getEvents().clear();
         gs.issueSafe(pa1);
         gs.issueSafe(pa2);
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-        te.addPlayerAction(pa1.clone());
-        te.addPlayerAction(pa2.clone());
 
         // simulate:
         gameover = gs.cycle();
@@ -122,7 +127,7 @@ public class JNIBotClient {
             ai2.gameOver(gs.winner());
         }
         for (int i = 0; i < rewards.length; i++) {
-            rfs[i].computeReward(player, 1 - player, te, gs);
+            rfs[i].computeReward(player, 1 - player, gs.getEvents(), gs);
             dones[i] = rfs[i].isDone();
             rewards[i] = rfs[i].getReward();
         }
@@ -140,6 +145,17 @@ public class JNIBotClient {
         return w.toString(); // now it works fine
     }
 
+    /**
+     * Seeds the game states of this environment (see GameState.setRandomGenerator()),
+     * so that its episodes can be replayed: each reset gets a generator split from
+     * one seeded with 'seed'
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+        if (gs != null) gs.setRandomGenerator(random.split());
+    }
+
     /**
      * Resets the environment.
      * @param player This parameter is unused.
@@ -153,6 +169,8 @@ public class JNIBotClient {
         ai2.reset();
         pgs = PhysicalGameState.load(mapPath, utt);
         gs = new GameState(pgs, utt);
+        gs.setEventRecording(true);
+        if (random != null) gs.setRandomGenerator(random.split());
 
         for (int i = 0; i < rewards.length; i++) {
             rewards[i] = 0;
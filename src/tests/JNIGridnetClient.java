@@ -1,25 +1,26 @@
 package tests;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.SplittableRandom;
 
 import ai.core.AI;
+import ai.jni.ActionMaskGenerator;
 import ai.jni.JNIAI;
 import ai.jni.JNIInterface;
 import ai.jni.Response;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
+import gui.RasterRenderer;
 import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
-import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
 import rts.units.UnitTypeTable;
@@ -51,10 +52,17 @@ public class JNIGridnetClient {
     public GameState player1gs, player2gs;
     boolean gameover = false;
     boolean layerJSON = true;
+    // when not null, the game states are seeded from here (see setSeed()):
+    SplittableRandom random;
     public int renderTheme = PhysicalGameStatePanel.COLORSCHEME_WHITE;
+    public int renderWidth = 640;
+    public int renderHeight = 640;
+    RasterRenderer renderer;
     public int maxAttackRadius;
     PhysicalGameStateJFrame w;
     public JNIInterface ai1;
+    /** If false, responses carry no nested observation, which is instead written with writeObservation() */
+    public boolean nestedObservation = true;
 
     // Storage
     
@@ -98,6 +106,9 @@ public class JNIGridnetClient {
     //		...: ...													|
     // ]
     int[][][] masks;
+    // one generator for int masks and one for bit-packed masks, since they write incrementally
+    // (a generator given a different buffer than in its last call rewrites its whole region):
+    ActionMaskGenerator maskGenerators[] = new ActionMaskGenerator[2];
     
     double[] rewards;
     boolean[] dones;
@@ -141,23 +152,27 @@ public class JNIGridnetClient {
         response = new Response(null, null, null, null);
     }
 
+    /**
+     * @param returnPixels if true, draws the game with a headless RasterRenderer (of
+     * 	renderWidth x renderHeight pixels) and returns the image; otherwise, shows it in a window
+     * @return the image, as 3 bytes (blue, green, red) per pixel, or null
+     * @throws Exception
+     */
     public byte[] render(boolean returnPixels) throws Exception {
+        if (returnPixels) {
+            if (renderer==null || renderer.getWidth()!=renderWidth || renderer.getHeight()!=renderHeight) {
+                renderer = new RasterRenderer(renderWidth, renderHeight, renderTheme);
+                renderer.setShowVisibility(partialObs);
+            }
+            renderer.setColorScheme(renderTheme);
+            return renderer.renderBGR(gs);
+        }
         if (w==null) {
             w = PhysicalGameStatePanel.newVisualizer(gs, 640, 640, partialObs, null, renderTheme);
         }
         w.setStateCloning(gs);
         w.repaint();
-
-        if (!returnPixels) {
-            return null;
-        }
-        BufferedImage image = new BufferedImage(w.getWidth(),
-        w.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        w.paint(image.getGraphics());
-
-        WritableRaster raster = image .getRaster();
-        DataBufferByte data = (DataBufferByte) raster.getDataBuffer();
-        return data.getData();
+        return null;
     }
 
     public Response gameStep(int[][] action, int player) throws Exception {
@@ -177,11 +192,9 @@ public class JNIGridnetClient {
         	e.printStackTrace(System.out);
         	throw e;
         }
+        gs.getEvents().clear();
         gs.issueSafe(pa1);
         gs.issueSafe(pa2);
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-        te.addPlayerAction(pa1.clone());
-        te.addPlayerAction(pa2.clone());
 
         // simulate:
         gameover = gs.cycle();
@@ -190,12 +203,12 @@ public class JNIGridnetClient {
             ai2.gameOver(gs.winner());
         }
         for (int i = 0; i < rewards.length; i++) {
-            rfs[i].computeReward(player, 1 - player, te, gs);
+            rfs[i].computeReward(player, 1 - player, gs.getEvents(), gs);
             dones[i] = rfs[i].isDone();
             rewards[i] = rfs[i].getReward();
         }
         response.set(
-            ai1.getObservation(player, player1gs),
+            nestedObservation ? ai1.getObservation(player, player1gs) : null,
             rewards,
             dones,
             ai1.computeInfo(player, player2gs));
@@ -222,6 +235,49 @@ public class JNIGridnetClient {
         return masks;
     }
 
+    /**
+     * Writes the observation of the player controlled by this client (see 
+     * {@link GameState#writeVectorObservation(int, IntBuffer, int, boolean)})
+     * @param player
+     * @param buffer
+     * @param offset
+     * @param channelsLast
+     */
+    public void writeObservation(int player, IntBuffer buffer, int offset, boolean channelsLast) {
+        player1gs.writeVectorObservation(player, buffer, offset, channelsLast);
+    }
+
+    /**
+     * Writes the legal actions mask for given player (in the same [Y][X][mask]
+     * layout as getMasks()) into a flat buffer
+     * @param player
+     * @param buffer receives height*width*(mask size) ints
+     * @param offset index in the buffer of the first int to write
+     */
+    public void writeMasks(int player, IntBuffer buffer, int offset) {
+        maskGenerator(0).writeMasks(gs, player, buffer, offset);
+    }
+
+    /**
+     * Same as writeMasks(), but bit-packed (see {@link ActionMaskGenerator#writePackedMasks(GameState, int, ByteBuffer, int)})
+     * @param player
+     * @param buffer
+     * @param offset index in the buffer of the first byte to write
+     */
+    public void writePackedMasks(int player, ByteBuffer buffer, int offset) {
+        maskGenerator(1).writePackedMasks(gs, player, buffer, offset);
+    }
+
+    /**
+     * @param packed 0 for int masks, 1 for bit-packed masks
+     */
+    ActionMaskGenerator maskGenerator(int packed) {
+        if (maskGenerators[packed] == null) {
+            maskGenerators[packed] = new ActionMaskGenerator(utt, maxAttackRadius);
+        }
+        return maskGenerators[packed];
+    }
+
     /**
      * @return String representation (in JSON format) of the Unit Type Table
      * @throws Exception
@@ -232,6 +288,17 @@ public class JNIGridnetClient {
         return w.toString(); // now it works fine
     }
 
+    /**
+     * Seeds the game states of this environment (see GameState.setRandomGenerator()),
+     * so that its episodes can be replayed: each reset gets a generator split from
+     * one seeded with 'seed'
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+        if (gs != null) gs.setRandomGenerator(random.split());
+    }
+
     public Response reset(int player) throws Exception {
         ai1.reset();
         ai2 = ai2.clone();
@@ -239,6 +306,8 @@ public class JNIGridnetClient {
         pgs = PhysicalGameState.load(mapPath, utt);
         masks = new int[pgs.getHeight()][pgs.getWidth()][1+6+4+4+4+4+utt.getUnitTypes().size()+maxAttackRadius*maxAttackRadius];
         gs = new GameState(pgs, utt);
+        gs.setEventRecording(true);
+        if (random != null) gs.setRandomGenerator(random.split());
         if (partialObs) {
             player1gs = new PartiallyObservableGameState(gs, player);
         } else {
@@ -250,7 +319,7 @@ public class JNIGridnetClient {
             dones[i] = false;
         }
         response.set(
-            ai1.getObservation(player, player1gs),
+            nestedObservation ? ai1.getObservation(player, player1gs) : null,
             rewards,
             dones,
             "{}");
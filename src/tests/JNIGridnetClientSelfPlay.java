@@ -1,25 +1,26 @@
 package tests;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
-import java.awt.image.WritableRaster;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.SplittableRandom;
 
 import ai.core.AI;
+import ai.jni.ActionMaskGenerator;
 import ai.jni.JNIAI;
 import ai.jni.JNIInterface;
 import ai.jni.Response;
 import ai.reward.RewardFunctionInterface;
 import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
+import gui.RasterRenderer;
 import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
-import rts.TraceEntry;
 import rts.UnitAction;
 import rts.units.Unit;
 import rts.units.UnitTypeTable;
@@ -53,9 +54,16 @@ public class JNIGridnetClientSelfPlay {
     public GameState[] playergs = new GameState[2];
     boolean gameover = false;
     boolean layerJSON = true;
+    // when not null, the game states are seeded from here (see setSeed()):
+    SplittableRandom random;
     public int renderTheme = PhysicalGameStatePanel.COLORSCHEME_WHITE;
+    public int renderWidth = 640;
+    public int renderHeight = 640;
+    RasterRenderer renderer;
     public int maxAttackRadius;
     public int numPlayers = 2;
+    /** If false, responses carry no nested observation, which is instead written with writeObservation() */
+    public boolean nestedObservation = true;
 
     // Storage
     
@@ -99,6 +107,10 @@ public class JNIGridnetClientSelfPlay {
     //		...: ...													|
     // ]
     int[][][][] masks = new int[2][][][];
+    // per player, one generator for int masks and one for bit-packed masks, since they write
+    // incrementally (a generator given a different buffer than in its last call rewrites its
+    // whole region):
+    ActionMaskGenerator maskGenerators[][] = new ActionMaskGenerator[2][];
     
     double[][] rewards = new double[2][];
     boolean[][] dones = new boolean[2][];
@@ -137,27 +149,31 @@ public class JNIGridnetClientSelfPlay {
         }
     }
 
+    /**
+     * @param returnPixels if true, draws the game with a headless RasterRenderer (of
+     * 	renderWidth x renderHeight pixels) and returns the image; otherwise, shows it in a window
+     * @return the image, as 3 bytes (blue, green, red) per pixel, or null
+     * @throws Exception
+     */
     public byte[] render(boolean returnPixels) throws Exception {
+        if (returnPixels) {
+            if (renderer==null || renderer.getWidth()!=renderWidth || renderer.getHeight()!=renderHeight) {
+                renderer = new RasterRenderer(renderWidth, renderHeight, renderTheme);
+                renderer.setShowVisibility(partialObs);
+            }
+            renderer.setColorScheme(renderTheme);
+            return renderer.renderBGR(gs);
+        }
         if (w==null) {
             w = PhysicalGameStatePanel.newVisualizer(gs, 640, 640, partialObs, null, renderTheme);
         }
         w.setStateCloning(gs);
         w.repaint();
-
-        if (!returnPixels) {
-            return null;
-        }
-        BufferedImage image = new BufferedImage(w.getWidth(),
-        w.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        w.paint(image.getGraphics());
-
-        WritableRaster raster = image .getRaster();
-        DataBufferByte data = (DataBufferByte) raster.getDataBuffer();
-        return data.getData();
+        return null;
     }
 
     public void gameStep(int[][] action1, int[][] action2) throws Exception {
-        TraceEntry te  = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+        gs.getEvents().clear();
         for (int i = 0; i < numPlayers; i++) {
             playergs[i] = gs;
             if (partialObs) {
@@ -165,7 +181,6 @@ public class JNIGridnetClientSelfPlay {
             }
             pas[i] = i == 0 ? ais[i].getAction(i, playergs[0], action1) : ais[i].getAction(i, playergs[1], action2);
             gs.issueSafe(pas[i]);
-            te.addPlayerAction(pas[i].clone());
         }
         // simulate:
         gameover = gs.cycle();
@@ -176,12 +191,12 @@ public class JNIGridnetClientSelfPlay {
 
         for (int i = 0; i < numPlayers; i++) {
             for (int j = 0; j < rfs.length; j++) {
-                rfs[j].computeReward(i, 1 - i, te, gs);
+                rfs[j].computeReward(i, 1 - i, gs.getEvents(), gs);
                 rewards[i][j] = rfs[j].getReward();
                 dones[i][j] = rfs[j].isDone();
             }
             response[i].set(
-                ais[i].getObservation(i, playergs[i]),
+                nestedObservation ? ais[i].getObservation(i, playergs[i]) : null,
                 rewards[i],
                 dones[i],
                 "{}");
@@ -208,6 +223,53 @@ public class JNIGridnetClientSelfPlay {
         return masks[player];
     }
 
+    /**
+     * Writes the observation of a player (see 
+     * {@link GameState#writeVectorObservation(int, IntBuffer, int, boolean)})
+     * @param player
+     * @param buffer
+     * @param offset
+     * @param channelsLast
+     */
+    public void writeObservation(int player, IntBuffer buffer, int offset, boolean channelsLast) {
+        playergs[player].writeVectorObservation(player, buffer, offset, channelsLast);
+    }
+
+    /**
+     * Writes the legal actions mask for given player (in the same [Y][X][mask]
+     * layout as getMasks()) into a flat buffer
+     * @param player
+     * @param buffer receives height*width*(mask size) ints
+     * @param offset index in the buffer of the first int to write
+     */
+    public void writeMasks(int player, IntBuffer buffer, int offset) {
+        maskGenerator(0, player).writeMasks(gs, player, buffer, offset);
+    }
+
+    /**
+     * Same as writeMasks(), but bit-packed (see {@link ActionMaskGenerator#writePackedMasks(GameState, int, ByteBuffer, int)})
+     * @param player
+     * @param buffer
+     * @param offset index in the buffer of the first byte to write
+     */
+    public void writePackedMasks(int player, ByteBuffer buffer, int offset) {
+        maskGenerator(1, player).writePackedMasks(gs, player, buffer, offset);
+    }
+
+    /**
+     * @param packed 0 for int masks, 1 for bit-packed masks
+     * @param player
+     */
+    ActionMaskGenerator maskGenerator(int packed, int player) {
+        if (maskGenerators[packed] == null) {
+            maskGenerators[packed] = new ActionMaskGenerator[numPlayers];
+        }
+        if (maskGenerators[packed][player] == null) {
+            maskGenerators[packed][player] = new ActionMaskGenerator(utt, maxAttackRadius);
+        }
+        return maskGenerators[packed][player];
+    }
+
     /**
      * @return String representation (in JSON format) of the Unit Type Table
      * @throws Exception
@@ -218,6 +280,17 @@ public class JNIGridnetClientSelfPlay {
         return w.toString(); // now it works fine
     }
 
+    /**
+     * Seeds the game states of this environment (see GameState.setRandomGenerator()),
+     * so that its episodes can be replayed: each reset gets a generator split from
+     * one seeded with 'seed'
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+        if (gs != null) gs.setRandomGenerator(random.split());
+    }
+
     public void reset() throws Exception {
         pgs = PhysicalGameState.load(mapPath, utt);
         
@@ -226,6 +299,8 @@ public class JNIGridnetClientSelfPlay {
         }
         
         gs = new GameState(pgs, utt);
+        gs.setEventRecording(true);
+        if (random != null) gs.setRandomGenerator(random.split());
         for (int i = 0; i < numPlayers; i++) {
             playergs[i] = gs;
             if (partialObs) {
@@ -237,7 +312,7 @@ public class JNIGridnetClientSelfPlay {
                 dones[i][j] = false;
             }
             response[i].set(
-                ais[i].getObservation(i, playergs[i]),
+                nestedObservation ? ais[i].getObservation(i, playergs[i]) : null,
                 rewards[i],
                 dones[i],
                 "{}");
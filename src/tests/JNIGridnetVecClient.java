@@ -1,7 +1,20 @@
 package tests;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import ai.PassiveAI;
 import ai.core.AI;
+import ai.jni.ActionMaskGenerator;
 import ai.jni.Response;
 import ai.jni.Responses;
 import ai.reward.RewardFunctionInterface;
@@ -9,8 +22,9 @@ import rts.units.UnitTypeTable;
 
 /**
  * A vectorized client which lets us run multiple difference environments in
- * parallel (although, on the Java-side of the implementation, there is no
- * actual parallelization and input actions are simply processed sequentially).
+ * parallel. By default, input actions are simply processed sequentially on the
+ * calling thread, but environments can also be stepped concurrently on a pool
+ * of worker threads (see setNumThreads()).
  *
  * @author santi and costa
  */
@@ -74,15 +88,38 @@ public class JNIGridnetVecClient {
     int[][][][] masks;
     
     int[][][][] observation;
+    
+    // Optional flat buffers (typically direct buffers shared with the Python side),
+    // which, when set, replace the nested observation/mask arrays. There are two of
+    // each, which stepAsync() alternates between (they are the same buffer unless two
+    // are set). bufferIndex is the one holding the results of the last completed step,
+    // and writeIndex the one being written (they differ only while a step is pending):
+    IntBuffer[] observationBuffers = new IntBuffer[2];
+    boolean channelsLast;
+    IntBuffer[] maskBuffers = new IntBuffer[2];
+    ByteBuffer[] packedMaskBuffers = new ByteBuffer[2];
+    int bufferIndex = 0;
+    int writeIndex = 0;
+    int observationSize;
+    int maskSize;
+    int packedMaskSize;
+    
     double[][] reward;
     boolean[][] done;
     Response[] rs;
     Responses responses;
 
-    double[] terminalReward1;
-    boolean[] terminalDone1;
-    double[] terminalReward2;
-    boolean[] terminalDone2;
+    double[][] terminalReward;
+    boolean[][] terminalDone;
+
+    ExecutorService executor;
+
+    // stepAsync() runs steps on this thread, and stepWait() returns copies of their results:
+    ExecutorService asyncExecutor;
+    Future<Responses> pendingStep;
+    double[][][] asyncReward;
+    boolean[][][] asyncDone;
+    Responses[] asyncResponses = new Responses[2];
 
     /**
      * 
@@ -116,11 +153,11 @@ public class JNIGridnetVecClient {
         envSteps = new int[a_num_selfplayenvs + a_num_envs];
         selfPlayClients = new JNIGridnetClientSelfPlay[a_num_selfplayenvs/2];
         for (int i = 0; i < selfPlayClients.length; i++) {
-            selfPlayClients[i] = new JNIGridnetClientSelfPlay(a_rfs, a_micrortsPath, mapPaths[i*2], a_utt, partialObs);
+            selfPlayClients[i] = new JNIGridnetClientSelfPlay(cloneRewardFunctions(a_rfs), a_micrortsPath, mapPaths[i*2], a_utt, partialObs);
         }
         clients = new JNIGridnetClient[a_num_envs];
         for (int i = 0; i < clients.length; i++) {
-            clients[i] = new JNIGridnetClient(a_rfs, a_micrortsPath, mapPaths[a_num_selfplayenvs+i], a_ai2s[i], a_utt, partialObs);
+            clients[i] = new JNIGridnetClient(cloneRewardFunctions(a_rfs), a_micrortsPath, mapPaths[a_num_selfplayenvs+i], a_ai2s[i], a_utt, partialObs);
         }
 
         // initialize storage
@@ -131,16 +168,32 @@ public class JNIGridnetVecClient {
         int s4 = r.observation[0][0].length;
         masks = new int[s1][][][];
         observation = new int[s1][s2][s3][s4];
+        observationSize = s2 * s3 * s4;
+        ActionMaskGenerator maskGenerator = new ActionMaskGenerator(utt, utt.getMaxAttackRange()*2+1);
+        maskSize = s3 * s4 * maskGenerator.getMaskSize();
+        packedMaskSize = s3 * s4 * maskGenerator.getPackedMaskSize();
         reward = new double[s1][rfs.length];
         done = new boolean[s1][rfs.length];
-        terminalReward1 = new double[rfs.length];
-        terminalDone1 = new boolean[rfs.length];
-        terminalReward2 = new double[rfs.length];
-        terminalDone2 = new boolean[rfs.length];
+        terminalReward = new double[s1][rfs.length];
+        terminalDone = new boolean[s1][rfs.length];
         responses = new Responses(null, null, null);
         rs = new Response[s1];
     }
 
+    /**
+     * Each client gets its own copy of the reward functions, since they keep the reward of
+     * the last step, and clients might be stepped concurrently (see setNumThreads)
+     * @param a_rfs
+     * @return
+     */
+    static RewardFunctionInterface[] cloneRewardFunctions(RewardFunctionInterface[] a_rfs) {
+        RewardFunctionInterface[] copies = new RewardFunctionInterface[a_rfs.length];
+        for (int i = 0; i < a_rfs.length; i++) {
+            copies[i] = a_rfs[i].clone();
+        }
+        return copies;
+    }
+
     /**
      * Constructor for Java-bot-only environments.
      * 
@@ -165,22 +218,59 @@ public class JNIGridnetVecClient {
         // initialize clients
         botClients = new JNIBotClient[a_ai2s.length];
         for (int i = 0; i < botClients.length; i++) {
-            botClients[i] = new JNIBotClient(a_rfs, a_micrortsPath, mapPaths[i], a_ai1s[i], a_ai2s[i], a_utt, partialObs);
+            botClients[i] = new JNIBotClient(cloneRewardFunctions(a_rfs), a_micrortsPath, mapPaths[i], a_ai1s[i], a_ai2s[i], a_utt, partialObs);
         }
         responses = new Responses(null, null, null);
         rs = new Response[a_ai2s.length];
         reward = new double[a_ai2s.length][rfs.length];
         done = new boolean[a_ai2s.length][rfs.length];
         envSteps = new int[a_ai2s.length];
-        terminalReward1 = new double[rfs.length];
-        terminalDone1 = new boolean[rfs.length];
+        terminalReward = new double[a_ai2s.length][rfs.length];
+        terminalDone = new boolean[a_ai2s.length][rfs.length];
+    }
+
+    /**
+     * Makes reset(), gameStep(), getMasks() and writeMasks() process the environments
+     * concurrently on a pool of 'n' worker threads (n <= 1 processes them sequentially on
+     * the calling thread, which is the default). Results are always stored by environment
+     * index, so they are returned in the same order regardless of the number of threads.
+     * Each environment has its own copy of the reward functions, but notice that the AIs
+     * of different environments must then not share any state.
+     * @param n
+     */
+    public void setNumThreads(int n) {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (n > 1) {
+            executor = Executors.newFixedThreadPool(n, r -> {
+                Thread t = new Thread(r, "JNIGridnetVecClient worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Seeds every environment (see JNIGridnetClient.setSeed()) with a seed derived from
+     * 'seed' and its index, so that runs can be replayed regardless of the number of threads
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        if (botClients != null) {
+            for (JNIBotClient client : botClients) client.setSeed(seeds.nextLong());
+            return;
+        }
+        for (JNIGridnetClientSelfPlay client : selfPlayClients) client.setSeed(seeds.nextLong());
+        for (JNIGridnetClient client : clients) client.setSeed(seeds.nextLong());
     }
 
     public Responses reset(int[] players) throws Exception {
+        checkNoPendingStep();
         if (botClients != null) {
-            for (int i = 0; i < botClients.length; i++) {
-                rs[i] = botClients[i].reset(players[i]);
-            }
+            forEachEnv(botClients.length, i -> rs[i] = botClients[i].reset(players[i]));
             for (int i = 0; i < rs.length; i++) {
                 // observation[i] = rs[i].observation;
                 reward[i] = rs[i].reward;
@@ -190,45 +280,126 @@ public class JNIGridnetVecClient {
             return responses;
         }
         
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            selfPlayClients[i].reset();
-            rs[i*2] = selfPlayClients[i].getResponse(0);
-            rs[i*2+1] = selfPlayClients[i].getResponse(1);
+        forEachEnv(selfPlayClients.length + clients.length, k -> {
+            if (k < selfPlayClients.length) {
+                selfPlayClients[k].reset();
+                rs[k*2] = selfPlayClients[k].getResponse(0);
+                rs[k*2+1] = selfPlayClients[k].getResponse(1);
+                writeObservation(k*2, 0);
+                writeObservation(k*2+1, 1);
+            } else {
+                int i = k + selfPlayClients.length;
+                rs[i] = clients[k-selfPlayClients.length].reset(players[i]);
+                writeObservation(i, players[i]);
+            }
+        });
+
+        return collectResponses();
+    }
+
+    public Responses gameStep(int[][][] action, int[] players) throws Exception {
+        checkNoPendingStep();
+        return step(action, players);
+    }
+
+    /**
+     * Starts simulating a step (same as gameStep()) in the background, so that the caller
+     * can do something else (e.g., computing the actions of the next step) in the meantime.
+     * The results, including the masks for the players in 'players' (if mask buffers were
+     * set), are retrieved with stepWait(). If two buffers were set for observations or masks,
+     * they are written alternately, so the ones of the previous step can still be read
+     * during the step (see getBufferIndex()). Nested observations and masks (i.e., when no
+     * buffers are set) are overwritten by the step.
+     * The step reads 'action' and 'players' while it runs, without copying them, so the
+     * caller must not modify these arrays until stepWait() returns.
+     * @param action
+     * @param players
+     */
+    public void stepAsync(int[][][] action, int[] players) {
+        checkNoPendingStep();
+        if (asyncExecutor == null) {
+            asyncExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "JNIGridnetVecClient stepper");
+                t.setDaemon(true);
+                return t;
+            });
+            asyncReward = new double[2][reward.length][rfs.length];
+            asyncDone = new boolean[2][done.length][rfs.length];
         }
-        
-        for (int i = selfPlayClients.length*2; i < players.length; i++) {
-            rs[i] = clients[i-selfPlayClients.length*2].reset(players[i]);
+        writeIndex = 1 - bufferIndex;
+        final int index = writeIndex;
+        pendingStep = asyncExecutor.submit(() -> {
+            Responses r = step(action, players);
+            if (maskBuffers[index] != null || packedMaskBuffers[index] != null) {
+                writeMasks(players);
+            }
+            // copy the rewards, since clients reuse their arrays in the next step:
+            for (int i = 0; i < reward.length; i++) {
+                System.arraycopy(r.reward[i], 0, asyncReward[index][i], 0, rfs.length);
+                System.arraycopy(r.done[i], 0, asyncDone[index][i], 0, rfs.length);
+            }
+            if (asyncResponses[index] == null) {
+                asyncResponses[index] = new Responses(null, null, null);
+            }
+            asyncResponses[index].set(r.observation, asyncReward[index], asyncDone[index]);
+            return asyncResponses[index];
+        });
+    }
+
+    /**
+     * Waits for the step started by stepAsync() to finish
+     * @return the results of the step
+     * @throws Exception
+     */
+    public Responses stepWait() throws Exception {
+        if (pendingStep == null) {
+            throw new IllegalStateException("no step in progress (see stepAsync())");
+        }
+        try {
+            Responses r = pendingStep.get();
+            bufferIndex = writeIndex;
+            return r;
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw (Exception) t;
+        } finally {
+            writeIndex = bufferIndex;
+            pendingStep = null;
         }
+    }
 
-        for (int i = 0; i < rs.length; i++) {
-            observation[i] = rs[i].observation;
-            reward[i] = rs[i].reward;
-            done[i] = rs[i].done;
+    /**
+     * @return Which of the two buffers set with setObservationBuffers(), setMaskBuffers()
+     * 	or setPackedMaskBuffers() holds the results of the last completed step (0 for the
+     * 	first one). This only changes when stepWait() returns, so while a step started by
+     * 	stepAsync() is running it still designates the buffers of the previous step, which
+     * 	can be read safely (the running step writes the other ones).
+     */
+    public int getBufferIndex() {
+        return bufferIndex;
+    }
+
+    private void checkNoPendingStep() {
+        if (pendingStep != null) {
+            throw new IllegalStateException("stepWait() must be called first");
         }
-        
-        responses.set(observation, reward, done);
-        return responses;
     }
 
-    public Responses gameStep(int[][][] action, int[] players) throws Exception {
+    private Responses step(int[][][] action, int[] players) throws Exception {
         if (botClients != null) {
-            for (int i = 0; i < botClients.length; i++) {
+            forEachEnv(botClients.length, i -> {
                 rs[i] = botClients[i].gameStep(players[i]);
                 envSteps[i] += 1;
                 if (rs[i].done[0] || envSteps[i] >= maxSteps) {
-                    for (int j = 0; j < terminalReward1.length; j++) {
-                        terminalReward1[j] = rs[i].reward[j];
-                        terminalDone1[j] = rs[i].done[j];
-                    }
+                    saveTerminal(i);
                     botClients[i].reset(players[i]);
-                    for (int j = 0; j < terminalReward1.length; j++) {
-                        rs[i].reward[j] = terminalReward1[j];
-                        rs[i].done[j] = terminalDone1[j];
-                    }
-                    rs[i].done[0] = true;
+                    restoreTerminal(i);
                     envSteps[i] =0;
                 }
-            }
+            });
             for (int i = 0; i < rs.length; i++) {
                 // observation[i] = rs[i].observation;
                 reward[i] = rs[i].reward;
@@ -238,64 +409,127 @@ public class JNIGridnetVecClient {
             return responses;
         }
         
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            selfPlayClients[i].gameStep(action[i*2], action[i*2+1]);
-            rs[i*2] = selfPlayClients[i].getResponse(0);
-            rs[i*2+1] = selfPlayClients[i].getResponse(1);
-            envSteps[i*2] += 1;
-            envSteps[i*2+1] += 1;
-            if (rs[i*2].done[0] || envSteps[i*2] >= maxSteps) {
-                for (int j = 0; j < terminalReward1.length; j++) {
-                    terminalReward1[j] = rs[i*2].reward[j];
-                    terminalDone1[j] = rs[i*2].done[j];
-                    terminalReward2[j] = rs[i*2+1].reward[j];
-                    terminalDone2[j] = rs[i*2+1].done[j];
-                }
-
-                selfPlayClients[i].reset();
-                for (int j = 0; j < terminalReward1.length; j++) {
-                    rs[i*2].reward[j] = terminalReward1[j];
-                    rs[i*2].done[j] = terminalDone1[j];
-                    rs[i*2+1].reward[j] = terminalReward2[j];
-                    rs[i*2+1].done[j] = terminalDone2[j];
-                }
-                rs[i*2].done[0] = true;
-                rs[i*2+1].done[0] = true;
-                envSteps[i*2] =0;
-                envSteps[i*2+1] =0;
+        forEachEnv(selfPlayClients.length + clients.length, k -> {
+            if (k < selfPlayClients.length) {
+                stepSelfPlay(k, action);
+            } else {
+                stepClient(k + selfPlayClients.length, action, players);
             }
+        });
+
+        return collectResponses();
+    }
+
+    private void stepSelfPlay(int k, int[][][] action) throws Exception {
+        int i = k*2;
+        selfPlayClients[k].gameStep(action[i], action[i+1]);
+        rs[i] = selfPlayClients[k].getResponse(0);
+        rs[i+1] = selfPlayClients[k].getResponse(1);
+        envSteps[i] += 1;
+        envSteps[i+1] += 1;
+        if (rs[i].done[0] || envSteps[i] >= maxSteps) {
+            saveTerminal(i);
+            saveTerminal(i+1);
+            selfPlayClients[k].reset();
+            restoreTerminal(i);
+            restoreTerminal(i+1);
+            envSteps[i] =0;
+            envSteps[i+1] =0;
         }
+        writeObservation(i, 0);
+        writeObservation(i+1, 1);
+    }
 
-        for (int i = selfPlayClients.length*2; i < players.length; i++) {
-            envSteps[i] += 1;
-            rs[i] = clients[i-selfPlayClients.length*2].gameStep(action[i], players[i]);
-            if (rs[i].done[0] || envSteps[i] >= maxSteps) {
-                // TRICKY: note that `clients` already resets the shared `observation`
-                // so we need to set the old reward and done to this response
-                for (int j = 0; j < rs[i].reward.length; j++) {
-                    terminalReward1[j] = rs[i].reward[j];
-                    terminalDone1[j] = rs[i].done[j];
-                }
-                clients[i-selfPlayClients.length*2].reset(players[i]);
-                for (int j = 0; j < rs[i].reward.length; j++) {
-                    rs[i].reward[j] = terminalReward1[j];
-                    rs[i].done[j] = terminalDone1[j];
-                }
-                rs[i].done[0] = true;
-                envSteps[i] = 0;
-            }
+    private void stepClient(int i, int[][][] action, int[] players) throws Exception {
+        JNIGridnetClient client = clients[i-selfPlayClients.length*2];
+        envSteps[i] += 1;
+        rs[i] = client.gameStep(action[i], players[i]);
+        if (rs[i].done[0] || envSteps[i] >= maxSteps) {
+            // TRICKY: note that `clients` already resets the shared `observation`
+            // so we need to set the old reward and done to this response
+            saveTerminal(i);
+            client.reset(players[i]);
+            restoreTerminal(i);
+            envSteps[i] = 0;
         }
-        
+        writeObservation(i, players[i]);
+    }
+
+    /**
+     * Saves the reward and done flags of an environment that is about to be reset
+     * (since clients reuse the arrays of their responses)
+     * @param i
+     */
+    private void saveTerminal(int i) {
+        System.arraycopy(rs[i].reward, 0, terminalReward[i], 0, terminalReward[i].length);
+        System.arraycopy(rs[i].done, 0, terminalDone[i], 0, terminalDone[i].length);
+    }
+
+    private void restoreTerminal(int i) {
+        System.arraycopy(terminalReward[i], 0, rs[i].reward, 0, terminalReward[i].length);
+        System.arraycopy(terminalDone[i], 0, rs[i].done, 0, terminalDone[i].length);
+        rs[i].done[0] = true;
+    }
+
+    private Responses collectResponses() {
         for (int i = 0; i < rs.length; i++) {
             observation[i] = rs[i].observation;
             reward[i] = rs[i].reward;
             done[i] = rs[i].done;
         }
         
-        responses.set(observation, reward, done);
+        if (observationBuffers[writeIndex] != null) {
+            responses.set(null, reward, done);
+        } else {
+            responses.set(observation, reward, done);
+        }
         return responses;
     }
 
+    private interface EnvTask {
+        void run(int i) throws Exception;
+    }
+
+    /**
+     * Runs task.run(0), ..., task.run(n-1), concurrently if setNumThreads() was 
+     * called, and waits for all of them to finish
+     * @param n
+     * @param task
+     * @throws Exception the first exception (in environment order) thrown by a task
+     */
+    private void forEachEnv(int n, EnvTask task) throws Exception {
+        if (executor == null || n <= 1) {
+            for (int i = 0; i < n; i++) {
+                task.run(i);
+            }
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            final int env = i;
+            futures.add(executor.submit(() -> {
+                task.run(env);
+                return null;
+            }));
+        }
+        Exception exception = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    Throwable t = e.getCause();
+                    if (t instanceof Error) {
+                        throw (Error) t;
+                    }
+                    exception = (Exception) t;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
 
     /**
      * @param player
@@ -305,17 +539,236 @@ public class JNIGridnetVecClient {
      * @throws Exception
      */
     public int[][][][] getMasks(int player) throws Exception {
-        for (int i = 0; i < selfPlayClients.length; i++) {
-            masks[i*2] = selfPlayClients[i].getMasks(0);
-            masks[i*2+1] = selfPlayClients[i].getMasks(1);
+        checkNoPendingStep();
+        forEachEnv(selfPlayClients.length + clients.length, k -> {
+            if (k < selfPlayClients.length) {
+                masks[k*2] = selfPlayClients[k].getMasks(0);
+                masks[k*2+1] = selfPlayClients[k].getMasks(1);
+            } else {
+                masks[k+selfPlayClients.length] = clients[k-selfPlayClients.length].getMasks(player);
+            }
+        });
+        return masks;
+    }
+
+    /**
+     * @return Number of ints taken by the observation of each environment in the
+     * 	buffer set with setObservationBuffer() (height * width * feature maps)
+     */
+    public int getObservationSize() {
+        return observationSize;
+    }
+
+    /**
+     * @return Number of ints taken by the masks of each environment in the
+     * 	buffer set with setMaskBuffer() (height * width * mask size)
+     */
+    public int getMaskSize() {
+        return maskSize;
+    }
+
+    /**
+     * @return Number of bytes taken by the masks of each environment in the
+     * 	buffer set with setPackedMaskBuffer() (height * width * packed mask size)
+     */
+    public int getPackedMaskSize() {
+        return packedMaskSize;
+    }
+
+    /**
+     * Makes reset() and gameStep() write the observations of all the environments
+     * into the given buffer (environment i starting at i*getObservationSize()), 
+     * instead of returning them as nested arrays (the observation of the returned 
+     * Responses is then null). This avoids copying the observations across JNI
+     * when the buffer is a direct buffer shared with the caller.
+     * All the maps must have the same size.
+     * @param buffer a buffer of ints in native byte order
+     * @param a_channelsLast if true, observations are laid out as [Y][X][feature map],
+     * 	otherwise as [feature map][Y][X]
+     */
+    public void setObservationBuffer(ByteBuffer buffer, boolean a_channelsLast) {
+        setObservationBuffer(buffer.order(ByteOrder.nativeOrder()).asIntBuffer(), a_channelsLast);
+    }
+
+    /**
+     * See setObservationBuffer(ByteBuffer, boolean)
+     * @param buffer
+     * @param a_channelsLast
+     */
+    public void setObservationBuffer(IntBuffer buffer, boolean a_channelsLast) {
+        setObservationBuffers(buffer, buffer, a_channelsLast);
+    }
+
+    /**
+     * Sets two observation buffers, which stepAsync() writes alternately (see 
+     * setObservationBuffer(ByteBuffer, boolean))
+     * @param first
+     * @param second
+     * @param a_channelsLast
+     */
+    public void setObservationBuffers(ByteBuffer first, ByteBuffer second, boolean a_channelsLast) {
+        setObservationBuffers(first.order(ByteOrder.nativeOrder()).asIntBuffer(), 
+                              second.order(ByteOrder.nativeOrder()).asIntBuffer(), a_channelsLast);
+    }
+
+    private void setObservationBuffers(IntBuffer first, IntBuffer second, boolean a_channelsLast) {
+        checkNoPendingStep();
+        checkBuffer(first.capacity(), observationSize);
+        checkBuffer(second.capacity(), observationSize);
+        observationBuffers[0] = first;
+        observationBuffers[1] = second;
+        channelsLast = a_channelsLast;
+        for (JNIGridnetClientSelfPlay client : selfPlayClients) {
+            client.nestedObservation = false;
         }
-        for (int i = selfPlayClients.length*2; i < masks.length; i++) {
-            masks[i] = clients[i-selfPlayClients.length*2].getMasks(player);
+        for (JNIGridnetClient client : clients) {
+            client.nestedObservation = false;
+        }
+    }
+
+    /**
+     * Sets the buffer written by writeMasks() (environment i starting at 
+     * i*getMaskSize()). All the maps must have the same size.
+     * @param buffer a buffer of ints in native byte order
+     */
+    public void setMaskBuffer(ByteBuffer buffer) {
+        setMaskBuffer(buffer.order(ByteOrder.nativeOrder()).asIntBuffer());
+    }
+
+    /**
+     * See setMaskBuffer(ByteBuffer)
+     * @param buffer
+     */
+    public void setMaskBuffer(IntBuffer buffer) {
+        setMaskBuffers(buffer, buffer);
+    }
+
+    /**
+     * Sets two mask buffers, which stepAsync() writes alternately (see setMaskBuffer(ByteBuffer))
+     * @param first
+     * @param second
+     */
+    public void setMaskBuffers(ByteBuffer first, ByteBuffer second) {
+        setMaskBuffers(first.order(ByteOrder.nativeOrder()).asIntBuffer(), second.order(ByteOrder.nativeOrder()).asIntBuffer());
+    }
+
+    private void setMaskBuffers(IntBuffer first, IntBuffer second) {
+        checkNoPendingStep();
+        checkBuffer(first.capacity(), maskSize);
+        checkBuffer(second.capacity(), maskSize);
+        maskBuffers[0] = first;
+        maskBuffers[1] = second;
+    }
+
+    /**
+     * Sets the buffer written by writeMasks() with bit-packed masks (environment i 
+     * starting at byte i*getPackedMaskSize(), see ActionMaskGenerator.writePackedMasks()).
+     * This takes 32 times less memory than setMaskBuffer(). All the maps must have the same size.
+     * @param buffer
+     */
+    public void setPackedMaskBuffer(ByteBuffer buffer) {
+        setPackedMaskBuffers(buffer, buffer);
+    }
+
+    /**
+     * Sets two packed mask buffers, which stepAsync() writes alternately (see setPackedMaskBuffer(ByteBuffer))
+     * @param first
+     * @param second
+     */
+    public void setPackedMaskBuffers(ByteBuffer first, ByteBuffer second) {
+        checkNoPendingStep();
+        checkBuffer(first.capacity(), packedMaskSize);
+        checkBuffer(second.capacity(), packedMaskSize);
+        packedMaskBuffers[0] = first;
+        packedMaskBuffers[1] = second;
+    }
+
+    /**
+     * Same as getMasks(), but writes the masks into the buffers set with setMaskBuffer()
+     * and/or setPackedMaskBuffer(). Masks are generated incrementally, so these buffers
+     * must not be modified by the caller.
+     * @param player
+     * @throws Exception
+     */
+    public void writeMasks(int player) throws Exception {
+        checkNoPendingStep();
+        if (maskBuffers[bufferIndex] == null && packedMaskBuffers[bufferIndex] == null) {
+            throw new IllegalStateException("no mask buffer was set");
+        }
+        int[] players = new int[envSteps.length];
+        Arrays.fill(players, player);
+        writeMasks(players);
+    }
+
+    /**
+     * Writes the masks of each environment for players[i] (both players for self-play
+     * environments) into the current mask buffers
+     * @param players
+     * @throws Exception
+     */
+    void writeMasks(int[] players) throws Exception {
+        IntBuffer maskBuffer = maskBuffers[writeIndex];
+        ByteBuffer packedMaskBuffer = packedMaskBuffers[writeIndex];
+        forEachEnv(selfPlayClients.length + clients.length, k -> {
+            if (k < selfPlayClients.length) {
+                for (int p = 0; p < 2; p++) {
+                    if (maskBuffer != null) selfPlayClients[k].writeMasks(p, maskBuffer, (k*2+p)*maskSize);
+                    if (packedMaskBuffer != null) selfPlayClients[k].writePackedMasks(p, packedMaskBuffer, (k*2+p)*packedMaskSize);
+                }
+            } else {
+                int i = k+selfPlayClients.length;
+                JNIGridnetClient client = clients[k-selfPlayClients.length];
+                if (maskBuffer != null) client.writeMasks(players[i], maskBuffer, i*maskSize);
+                if (packedMaskBuffer != null) client.writePackedMasks(players[i], packedMaskBuffer, i*packedMaskSize);
+            }
+        });
+    }
+
+    /**
+     * Writes the observation of environment 'i' into the observation buffer, if set
+     * @param i
+     * @param player
+     */
+    private void writeObservation(int i, int player) {
+        IntBuffer observationBuffer = observationBuffers[writeIndex];
+        if (observationBuffer == null) return;
+        if (i < selfPlayClients.length*2) {
+            selfPlayClients[i/2].writeObservation(player, observationBuffer, i*observationSize, channelsLast);
+        } else {
+            clients[i-selfPlayClients.length*2].writeObservation(player, observationBuffer, i*observationSize, channelsLast);
+        }
+    }
+
+    private void checkBuffer(int capacity, int sizePerEnv) {
+        if (botClients != null) {
+            throw new IllegalStateException("Java-bot-only environments have no observations or masks");
+        }
+        int height = clients.length > 0 ? clients[0].pgs.getHeight() : selfPlayClients[0].pgs.getHeight();
+        int width = clients.length > 0 ? clients[0].pgs.getWidth() : selfPlayClients[0].pgs.getWidth();
+        for (JNIGridnetClientSelfPlay client : selfPlayClients) {
+            if (client.pgs.getHeight() != height || client.pgs.getWidth() != width) {
+                throw new IllegalArgumentException("map " + client.mapPath + " does not have size " + width + "x" + height);
+            }
+        }
+        for (JNIGridnetClient client : clients) {
+            if (client.pgs.getHeight() != height || client.pgs.getWidth() != width) {
+                throw new IllegalArgumentException("map " + client.mapPath + " does not have size " + width + "x" + height);
+            }
+        }
+        if (capacity < sizePerEnv * envSteps.length) {
+            throw new IllegalArgumentException("buffer capacity is " + capacity + ", but " + sizePerEnv * envSteps.length + " elements are needed");
         }
-        return masks;
     }
 
     public void close() throws Exception {
+        if (pendingStep != null) {
+            stepWait();
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        setNumThreads(1);
         if (clients != null) {
             for (JNIGridnetClient client : clients) {
                 client.close();
@@ -0,0 +1,60 @@
+package tests;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.naivemcts.NaiveMCTS;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+/**
+ * Measures the cost of the tree operations of {@link NaiveMCTS} (selection, expansion and
+ * backpropagation), by running a fixed number of iterations per decision without playouts
+ * (lookahead 0), in a game against RandomBiasedAI. Unit-heavy maps (e.g., the default one,
+ * with 64 units) have large joint action spaces, so nodes have many children and long action
+ * codes. It reports the average time per iteration (over all the decisions after
+ * the first 'warmup' ones) and the average number of children of the root.
+ *
+ * Usage: NaiveMCTSSelectionBenchmark [map] [iterations per decision] [decisions] [warmup]
+ */
+public class NaiveMCTSSelectionBenchmark {
+
+    public static void main(String args[]) throws Exception {
+        String map = args.length > 0 ? args[0] : "maps/16x16/EightBasesWorkers16x16.xml";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int decisions = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        UnitTypeTable utt = new UnitTypeTable();
+
+        NaiveMCTS ai = new NaiveMCTS(-1, iterations, 0, 10, 0.3f, 0.0f, 0.4f,
+                new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true);
+        AI opponent = new RandomBiasedAI();
+        GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+        long time = 0, measured = 0, children = 0;
+
+        System.out.println(map + ", " + iterations + " iterations per decision");
+        for (int decision = 0; decision < decisions + warmup && !gs.gameover(); ) {
+            if (gs.canExecuteAnyAction(0)) {
+                long start = System.nanoTime();
+                ai.startNewComputation(0, gs);
+                ai.computeDuringOneGameFrame();
+                long end = System.nanoTime();
+                PlayerAction pa = ai.getBestActionSoFar();
+                if (decision >= warmup) {
+                    time += end - start;
+                    measured++;
+                    if (ai.getTree().children != null) children += ai.getTree().children.size();
+                }
+                gs.issueSafe(pa);
+                decision++;
+            }
+            if (gs.canExecuteAnyAction(1)) gs.issueSafe(opponent.getAction(1, gs));
+            gs.cycle();
+        }
+        System.out.println("decisions\tus/iteration\tchildren of the root");
+        System.out.println(measured + "\t" + String.format("%.2f", time / 1000.0 / Math.max(1, measured * iterations)) +
+                           "\t" + String.format("%.1f", children / (double)Math.max(1, measured)));
+    }
+}
@@ -0,0 +1,112 @@
+package tests;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.MCTSNode;
+import ai.mcts.naivemcts.NaiveMCTSNode;
+import ai.mcts.naivemcts.RootParallelNaiveMCTS;
+import ai.mcts.naivemcts.TreeParallelNaiveMCTS;
+import java.util.List;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.UnitTypeTable;
+
+/**
+ * Compares {@link TreeParallelNaiveMCTS} against {@link RootParallelNaiveMCTS} with the
+ * same number of workers and the same time budget per decision, by playing them against
+ * each other (alternating sides). For each of them, it reports the number of wins, the
+ * average number of playouts per decision and the average depth of the deepest node of
+ * the tree(s) built for each decision (the deepest node over all the trees, for the
+ * root-parallel version).
+ *
+ * Usage: ParallelNaiveMCTSBenchmark [map] [workers] [time budget (ms)] [games] [max tree depth]
+ */
+public class ParallelNaiveMCTSBenchmark {
+
+    static final int MAX_CYCLES = 3000;
+
+    public static void main(String args[]) throws Exception {
+        String map = args.length > 0 ? args[0] : "maps/16x16/basesWorkers16x16.xml";
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int timeBudget = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int games = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int maxDepth = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        UnitTypeTable utt = new UnitTypeTable();
+
+        TreeParallelNaiveMCTS tree = new TreeParallelNaiveMCTS(timeBudget, -1, 100, maxDepth, 0.3f, 0.0f, 0.4f,
+                new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true, workers);
+        RootParallelNaiveMCTS root = new RootParallelNaiveMCTS(timeBudget, -1, 100, maxDepth, 0.3f, 0.0f, 0.4f,
+                new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true, workers);
+        AI ais[] = {tree, root};
+        // per AI: wins, decisions, playouts, depth
+        long stats[][] = new long[2][4];
+        int draws = 0;
+
+        System.out.println(map + ", " + workers + " workers, " + timeBudget + "ms per decision");
+        for (int game = 0; game < games; game++) {
+            // side[p] is the index in 'ais' of the AI playing as player p:
+            int side[] = (game % 2 == 0 ? new int[]{0, 1} : new int[]{1, 0});
+            for (AI ai : ais) ai.reset();
+            GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+            boolean gameover;
+            do {
+                // both players decide on the same state, before any action is issued:
+                PlayerAction pas[] = new PlayerAction[2];
+                for (int p = 0; p < 2; p++) {
+                    AI ai = ais[side[p]];
+                    if (!gs.canExecuteAnyAction(p)) continue;
+                    pas[p] = ai.getAction(p, gs);
+                    long s[] = stats[side[p]];
+                    s[1]++;
+                    if (ai == tree) {
+                        s[2] += tree.getTree().visit_count;
+                        s[3] += maxDepth(tree.getTree());
+                    } else {
+                        List<NaiveMCTSNode> trees = root.getTrees();
+                        int depth = 0;
+                        for (NaiveMCTSNode t : trees) {
+                            s[2] += t.visit_count;
+                            depth = Math.max(depth, maxDepth(t));
+                        }
+                        s[3] += depth;
+                    }
+                }
+                for (PlayerAction pa : pas) {
+                    if (pa != null) gs.issueSafe(pa);
+                }
+                gameover = gs.cycle();
+            } while (!gameover && gs.getTime() < MAX_CYCLES);
+            int winner = gs.winner();
+            if (winner == -1) {
+                draws++;
+            } else {
+                stats[side[winner]][0]++;
+            }
+            System.out.println("game " + game + ": winner " + (winner == -1 ? "none" : ais[side[winner]].getClass().getSimpleName()) + " (" + gs.getTime() + " cycles)");
+        }
+
+        System.out.println("AI\twins\tdraws\tplayouts/decision\tdepth/decision");
+        for (int i = 0; i < 2; i++) {
+            long s[] = stats[i];
+            System.out.println(ais[i].getClass().getSimpleName() + "\t" + s[0] + "\t" + draws + "\t" +
+                               String.format("%.1f", s[2] / (double)Math.max(1, s[1])) + "\t" +
+                               String.format("%.2f", s[3] / (double)Math.max(1, s[1])));
+        }
+    }
+
+
+    /**
+     * @return the depth of the deepest node below 'node' (relative to it)
+     */
+    static int maxDepth(MCTSNode node) {
+        int depth = 0;
+        if (node.children != null) {
+            for (MCTSNode child : node.children) {
+                depth = Math.max(depth, 1 + maxDepth(child));
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,384 @@
+package tests;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import ai.core.AI;
+import ai.jni.Responses;
+import ai.reward.AttackRewardFunction;
+import ai.reward.ProduceBuildingRewardFunction;
+import ai.reward.ProduceCombatUnitRewardFunction;
+import ai.reward.ProduceWorkerRewardFunction;
+import ai.reward.ResourceGatherRewardFunction;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.WinLossRewardFunction;
+import rts.units.UnitTypeTable;
+
+/**
+ * Serves a {@link JNIGridnetVecClient} through a memory-mapped file, as an alternative
+ * to calling it through JNI: a process on the same machine (e.g., a Python learner using
+ * numpy.memmap) writes the actions into the file, and the observations, bit-packed masks,
+ * rewards and dones are written into it by the environments, so nothing is serialized
+ * or copied across the language boundary, and the environments can run in a separate
+ * process from the learner.
+ *
+ * The file starts with a header of HEADER_SIZE bytes, followed by 'numSlots' slots of
+ * 'slotSize' bytes each, all in the native byte order:
+ * <pre>
+ * header:  int magic (MAGIC), int version (VERSION), int numEnvs, int numSlots,
+ *          int height, int width, int numFeatureMaps, int packedMaskSize (bytes per env),
+ *          int numRewardFunctions, int channelsLast, int slotSize, int status,
+ *          (at REQUEST_OFFSET) long request, (at COMPLETED_OFFSET) long completed,
+ *          (at HEARTBEAT_OFFSET) long heartbeat, (at TIMEOUT_OFFSET) int requestTimeout
+ * slot:    int command, int error, int players[numEnvs], int actionCounts[numEnvs],
+ *          int actions[numEnvs][height*width][8],
+ *          int observations[numEnvs][numFeatureMaps*height*width],
+ *          double rewards[numEnvs][numRewardFunctions], byte dones[numEnvs][numRewardFunctions],
+ *          byte masks[numEnvs][packedMaskSize]
+ * </pre>
+ * Each region of a slot starts at a multiple of 8 bytes (see the *Offset() methods). For each
+ * environment, the first actionCounts[i] rows of actions[i] are used (in the format of
+ * {@link rts.PlayerAction#fromVectorAction(int[][], rts.GameState, UnitTypeTable, int, int)}),
+ * and observations and masks are written as with
+ * {@link JNIGridnetVecClient#setObservationBuffer(ByteBuffer, boolean)} and
+ * {@link JNIGridnetVecClient#setPackedMaskBuffer(ByteBuffer)}.
+ *
+ * Protocol: the n-th request (starting at 1) uses slot (n-1) % numSlots. The learner writes
+ * the command (RESET, STEP or CLOSE), players and actions of the slot, and then sets 'request'
+ * to n. The server processes it, writes the results into the same slot (with 'error' set to
+ * 1 if it failed, in which case the server stops, and serve() throws the exception, so that
+ * the process exits with a non-zero status), and then sets 'completed' to n. So, the
+ * results of the last numSlots requests stay available to the learner without copying them.
+ * 'status' is set to 1 once the server is ready, and to 2 when it stops. While the server
+ * waits, the learner must publish a request or change 'heartbeat' (e.g., increment it) at
+ * least every 'requestTimeout' milliseconds (unless it is 0), or the server assumes that
+ * the learner is gone, and stops. The whole file must fit in a single mapping (2GB).
+ */
+public class SharedMemoryVecClient {
+
+    public static final int MAGIC = 0x4d525453;   // "MRTS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 80;
+    public static final int STATUS_OFFSET = 44;
+    public static final int REQUEST_OFFSET = 48;
+    public static final int COMPLETED_OFFSET = 56;
+    public static final int HEARTBEAT_OFFSET = 64;
+    public static final int TIMEOUT_OFFSET = 72;
+    public static final int ACTION_SIZE = 8;
+
+    public static final int RESET = 1;
+    public static final int STEP = 2;
+    public static final int CLOSE = 3;
+
+    public static final int STATUS_READY = 1;
+    public static final int STATUS_CLOSED = 2;
+
+    // in milliseconds (see the constructor):
+    public static final int DEFAULT_REQUEST_TIMEOUT = 60000;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    JNIGridnetVecClient vec;
+    int numSlots;
+    int numEnvs;
+    int cells;
+    boolean channelsLast;
+    int numRfs;
+    long slotSize;
+    int requestTimeout;
+    MappedByteBuffer buffer;
+
+    // views of the regions of each slot, created once so that the incremental mask
+    // generators of the clients are reused across steps:
+    IntBuffer[] observationViews;
+    ByteBuffer[] maskViews;
+
+    int[] players;
+    int[][][] action;
+    int[][][] actionRows;
+
+    /**
+     * Creates (or overwrites) the file and writes its header
+     * @param a_vec environments to serve (only JNI agent environments, not Java-bot-only ones)
+     * @param file
+     * @param a_numSlots number of slots of the ring buffer
+     * @param a_channelsLast layout of the observations
+     * @param a_requestTimeout time the server waits for a request (or a heartbeat) before
+     * 	assuming that the learner is gone, in milliseconds (0 to wait forever)
+     * @throws Exception
+     */
+    public SharedMemoryVecClient(JNIGridnetVecClient a_vec, File file, int a_numSlots, boolean a_channelsLast, int a_requestTimeout) throws Exception {
+        if (a_vec.botClients != null) {
+            throw new IllegalArgumentException("Java-bot-only environments have no observations or masks");
+        }
+        vec = a_vec;
+        numSlots = a_numSlots;
+        channelsLast = a_channelsLast;
+        requestTimeout = a_requestTimeout;
+        numEnvs = vec.envSteps.length;
+        numRfs = vec.rfs.length;
+        int height = vec.clients.length > 0 ? vec.clients[0].pgs.getHeight() : vec.selfPlayClients[0].pgs.getHeight();
+        int width = vec.clients.length > 0 ? vec.clients[0].pgs.getWidth() : vec.selfPlayClients[0].pgs.getWidth();
+        cells = height * width;
+        slotSize = masksOffset() + align((long) numEnvs * vec.getPackedMaskSize());
+        long fileSize = HEADER_SIZE + numSlots * slotSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the file would take " + fileSize + " bytes, more than can be mapped at once");
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(fileSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        int[] header = {MAGIC, VERSION, numEnvs, numSlots, height, width, vec.getObservationSize() / cells,
+                        vec.getPackedMaskSize(), numRfs, channelsLast ? 1 : 0, (int) slotSize, 0};
+        for (int i = 0; i < header.length; i++) {
+            buffer.putInt(i * 4, header[i]);
+        }
+        buffer.putInt(TIMEOUT_OFFSET, requestTimeout);
+        LONGS.setVolatile(buffer, HEARTBEAT_OFFSET, 0L);
+        LONGS.setVolatile(buffer, REQUEST_OFFSET, 0L);
+        LONGS.setVolatile(buffer, COMPLETED_OFFSET, 0L);
+
+        observationViews = new IntBuffer[numSlots];
+        maskViews = new ByteBuffer[numSlots];
+        for (int slot = 0; slot < numSlots; slot++) {
+            observationViews[slot] = region(slot, observationsOffset(), (long) numEnvs * vec.getObservationSize() * 4).asIntBuffer();
+            maskViews[slot] = region(slot, masksOffset(), (long) numEnvs * vec.getPackedMaskSize());
+        }
+        players = new int[numEnvs];
+        action = new int[numEnvs][][];
+        actionRows = new int[numEnvs][cells][ACTION_SIZE];
+    }
+
+    public long getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * @param slot
+     * @return the offset of 'slot' in the file
+     */
+    public long slotOffset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    public long playersOffset() {
+        return 8;
+    }
+
+    public long actionCountsOffset() {
+        return playersOffset() + align(numEnvs * 4L);
+    }
+
+    public long actionsOffset() {
+        return actionCountsOffset() + align(numEnvs * 4L);
+    }
+
+    public long observationsOffset() {
+        return actionsOffset() + align((long) numEnvs * cells * ACTION_SIZE * 4);
+    }
+
+    public long rewardsOffset() {
+        return observationsOffset() + align((long) numEnvs * vec.getObservationSize() * 4);
+    }
+
+    public long donesOffset() {
+        return rewardsOffset() + align((long) numEnvs * numRfs * 8);
+    }
+
+    public long masksOffset() {
+        return donesOffset() + align((long) numEnvs * numRfs);
+    }
+
+    /**
+     * Processes requests until a CLOSE command is received
+     * @throws TimeoutException if the learner neither publishes a request nor changes the
+     * heartbeat for requestTimeout milliseconds
+     * @throws Exception the exception that made a request fail (after marking the request
+     * completed, with its 'error' set to 1)
+     */
+    public void serve() throws Exception {
+        INTS.setVolatile(buffer, STATUS_OFFSET, STATUS_READY);
+        try {
+            long completed = (long) LONGS.getVolatile(buffer, COMPLETED_OFFSET);
+            while (true) {
+                long request = waitForRequest(completed);
+                completed = request;
+                if (!process(request)) break;
+            }
+        } finally {
+            INTS.setVolatile(buffer, STATUS_OFFSET, STATUS_CLOSED);
+            vec.close();
+        }
+    }
+
+    /**
+     * Waits (spinning at first, and then parking for short periods) until the learner
+     * publishes a request after 'completed'
+     * @param completed
+     * @return the number of the new request
+     * @throws TimeoutException if the heartbeat does not change for requestTimeout milliseconds
+     */
+    private long waitForRequest(long completed) throws TimeoutException {
+        int spins = 0;
+        long heartbeat = (long) LONGS.getVolatile(buffer, HEARTBEAT_OFFSET);
+        long lastBeat = System.nanoTime();
+        while (true) {
+            long request = (long) LONGS.getVolatile(buffer, REQUEST_OFFSET);
+            if (request > completed) {
+                if (request != completed + 1) {
+                    throw new IllegalStateException("request " + request + " was published before request " + (completed + 1) + " was completed");
+                }
+                return request;
+            }
+            if (spins < 10000) {
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50000);
+                long beat = (long) LONGS.getVolatile(buffer, HEARTBEAT_OFFSET);
+                if (beat != heartbeat) {
+                    heartbeat = beat;
+                    lastBeat = System.nanoTime();
+                } else if (requestTimeout > 0 && System.nanoTime() - lastBeat > requestTimeout * 1000000L) {
+                    throw new TimeoutException("no request or heartbeat from the learner in " + requestTimeout + "ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a request, and marks it completed
+     * @param request
+     * @return whether more requests should be processed
+     * @throws Exception if the request failed (it is marked completed, with 'error' set to 1,
+     * before throwing)
+     */
+    boolean process(long request) throws Exception {
+        int slot = (int) ((request - 1) % numSlots);
+        long base = slotOffset(slot);
+        int command = buffer.getInt(index(base));
+        try {
+            if (command == RESET || command == STEP) {
+                for (int i = 0; i < numEnvs; i++) {
+                    players[i] = buffer.getInt(index(base + playersOffset() + i * 4L));
+                }
+                vec.setObservationBuffer(observationViews[slot], channelsLast);
+                vec.setPackedMaskBuffer(maskViews[slot]);
+                Responses r = command == RESET ? vec.reset(players) : vec.gameStep(readActions(base), players);
+                vec.writeMasks(players);
+                writeRewards(base, r);
+            } else if (command != CLOSE) {
+                throw new IllegalArgumentException("unknown command " + command);
+            }
+        } catch (Exception e) {
+            buffer.putInt(index(base + 4), 1);
+            LONGS.setVolatile(buffer, COMPLETED_OFFSET, request);
+            throw e;
+        }
+        buffer.putInt(index(base + 4), 0);
+        LONGS.setVolatile(buffer, COMPLETED_OFFSET, request);
+        return command != CLOSE;
+    }
+
+    private int[][][] readActions(long base) {
+        long offset = base + actionsOffset();
+        for (int i = 0; i < numEnvs; i++) {
+            int count = buffer.getInt(index(base + actionCountsOffset() + i * 4L));
+            if (count < 0 || count > cells) {
+                throw new IllegalArgumentException("invalid number of actions " + count + " for environment " + i);
+            }
+            int[][] rows = actionRows[i];
+            for (int j = 0; j < count; j++) {
+                for (int k = 0; k < ACTION_SIZE; k++) {
+                    rows[j][k] = buffer.getInt(index(offset + (((long) i * cells + j) * ACTION_SIZE + k) * 4));
+                }
+            }
+            if (action[i] == null || action[i].length != count) {
+                action[i] = Arrays.copyOf(rows, count);
+            }
+        }
+        return action;
+    }
+
+    private void writeRewards(long base, Responses r) {
+        for (int i = 0; i < numEnvs; i++) {
+            for (int j = 0; j < numRfs; j++) {
+                buffer.putDouble(index(base + rewardsOffset() + ((long) i * numRfs + j) * 8), r.reward[i][j]);
+                buffer.put(index(base + donesOffset() + (long) i * numRfs + j), (byte) (r.done[i][j] ? 1 : 0));
+            }
+        }
+    }
+
+    private ByteBuffer region(int slot, long offset, long length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(index(slotOffset(slot) + offset));
+        b.limit(index(slotOffset(slot) + offset + length));
+        return b.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return 'offset' as an index of the buffer (the constructor checks that the file fits in it)
+     */
+    private static int index(long offset) {
+        return Math.toIntExact(offset);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Usage: SharedMemoryVecClient file map numSelfPlayEnvs numBotEnvs botClass maxSteps numSlots [channelsLast] [requestTimeout]
+     * (with the reward functions WinLoss, ResourceGather, ProduceWorker, ProduceBuilding, Attack and ProduceCombatUnit)
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 7) {
+            System.err.println("Usage: SharedMemoryVecClient file map numSelfPlayEnvs numBotEnvs botClass maxSteps numSlots [channelsLast] [requestTimeout (ms, default " + DEFAULT_REQUEST_TIMEOUT + ")]");
+            System.exit(1);
+        }
+        UnitTypeTable utt = new UnitTypeTable();
+        int numSelfPlayEnvs = Integer.parseInt(args[2]);
+        int numBotEnvs = Integer.parseInt(args[3]);
+        String[] maps = new String[numSelfPlayEnvs + numBotEnvs];
+        Arrays.fill(maps, args[1]);
+        Constructor<?> cons = Class.forName(args[4]).getConstructor(UnitTypeTable.class);
+        AI[] bots = new AI[numBotEnvs];
+        for (int i = 0; i < numBotEnvs; i++) {
+            bots[i] = (AI) cons.newInstance(utt);
+        }
+        RewardFunctionInterface[] rfs = {new WinLossRewardFunction(), new ResourceGatherRewardFunction(),
+                                         new ProduceWorkerRewardFunction(), new ProduceBuildingRewardFunction(),
+                                         new AttackRewardFunction(), new ProduceCombatUnitRewardFunction()};
+        JNIGridnetVecClient vec = new JNIGridnetVecClient(numSelfPlayEnvs, numBotEnvs, Integer.parseInt(args[5]), rfs,
+                                                          "", maps, bots, utt, false);
+        SharedMemoryVecClient server = new SharedMemoryVecClient(vec, new File(args[0]), Integer.parseInt(args[6]),
+                                                                 args.length > 7 && Boolean.parseBoolean(args[7]),
+                                                                 args.length > 8 ? Integer.parseInt(args[8]) : DEFAULT_REQUEST_TIMEOUT);
+        try {
+            server.serve();
+        } catch (Exception e) {
+            // the learner sees the error flag of the failed request, or the status, and the exit code:
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,118 @@
+package tests.rts;
+
+import java.util.List;
+import java.util.Random;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/**
+ * Micro-benchmark measuring how the cost of {@link GameState#clone()} scales
+ * with the number of units in the map. Each map is populated with extra
+ * workers up to the requested unit count, and every unit is given an action,
+ * so that the unit assignments also need to be remapped when cloning.
+ *
+ * Usage: GameStateCloneBenchmark [map ...]
+ */
+public class GameStateCloneBenchmark {
+
+    static final int UNIT_COUNTS[] = {16, 64, 128, 256, 512};
+    static final int WARMUP_ITERATIONS = 5;
+    static final int MEASUREMENT_ITERATIONS = 10;
+    static final long ITERATION_TIME_NS = 100000000L;    // 100ms per iteration
+
+    public static void main(String args[]) throws Exception {
+        String maps[] = args;
+        if (maps.length == 0) {
+            maps = new String[]{"maps/basesWorkers32x32A.xml",
+                                "maps/BroodWar/(4)BloodBath.scmB.xml"};
+        }
+        UnitTypeTable utt = new UnitTypeTable();
+
+        System.out.println("map\tunits\tassignments\tns/clone");
+        for(String map:maps) {
+            for(int n:UNIT_COUNTS) {
+                GameState gs = populatedState(map, utt, n);
+                if (gs == null) break;
+                double nsPerClone = measure(gs);
+                System.out.println(map + "\t" + gs.getUnits().size() + "\t" + gs.getUnitActions().size() + "\t" + String.format("%.1f", nsPerClone));
+            }
+        }
+    }
+
+
+    /**
+     * Loads the map, and adds workers in free cells (alternating players) until
+     * there are nUnits units. Returns null if the map does not have enough space.
+     * All the units are then issued an action.
+     */
+    static GameState populatedState(String map, UnitTypeTable utt, int nUnits) throws Exception {
+        PhysicalGameState pgs = PhysicalGameState.load(map, utt);
+        UnitType workerType = utt.getUnitType("Worker");
+        Random r = new Random(0);
+        int player = 0;
+        int attempts = 0;
+        while(pgs.getUnits().size() < nUnits) {
+            if (attempts++ > pgs.getWidth() * pgs.getHeight() * 10) return null;
+            int x = r.nextInt(pgs.getWidth());
+            int y = r.nextInt(pgs.getHeight());
+            if (pgs.getTerrain(x, y) != PhysicalGameState.TERRAIN_NONE || pgs.getUnitAt(x, y) != null) continue;
+            pgs.addUnit(new Unit(player, workerType, x, y, 0));
+            player = 1 - player;
+        }
+
+        GameState gs = new GameState(pgs, utt);
+        for(int p = 0;p<2;p++) {
+            PlayerAction pa = new PlayerAction();
+            for(Unit u:pgs.getUnits()) {
+                if (u.getPlayer() != p) continue;
+                List<UnitAction> l = u.getUnitActions(gs);
+                pa.addUnitAction(u, l.get(r.nextInt(l.size())));
+            }
+            gs.issue(pa);
+        }
+        return gs;
+    }
+
+
+    /**
+     * Runs the warmup and measurement iterations, returning the average
+     * number of nanoseconds per clone over the measurement iterations.
+     */
+    static double measure(GameState gs) {
+        long sink = 0;
+        for(int i = 0;i<WARMUP_ITERATIONS;i++) {
+            sink += runIteration(gs)[1];
+        }
+        long totalTime = 0;
+        long totalClones = 0;
+        for(int i = 0;i<MEASUREMENT_ITERATIONS;i++) {
+            long result[] = runIteration(gs);
+            totalTime += result[0];
+            totalClones += result[1];
+        }
+        if (sink < 0) System.out.println(sink);    // keep the warmup from being optimized away
+        return totalTime / (double)totalClones;
+    }
+
+
+    static long[] runIteration(GameState gs) {
+        long start = System.nanoTime();
+        long end;
+        long clones = 0;
+        int size = 0;
+        do {
+            GameState gs2 = gs.clone();
+            size += gs2.getUnitActions().size();
+            clones++;
+            end = System.nanoTime();
+        } while(end - start < ITERATION_TIME_NS);
+        if (size == -1) System.out.println(size);
+        return new long[]{end - start, clones};
+    }
+}
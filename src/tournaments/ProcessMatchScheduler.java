@@ -0,0 +1,301 @@
+package tournaments;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the matches of a tournament in separate JVMs ("workers"), so that AIs relying on
+ * static state, leaking memory or crashing the JVM do not affect each other or the
+ * tournament. Each worker is started with a given command line (typically, the one of
+ * this process plus "--worker=<id>:<port>", see {@link RunTournamentCLI}), connects back
+ * to a loopback socket, and then plays the matches it is sent, one at a time, using a
+ * {@link WorkerMatchScheduler}. The protocol is line based:
+ * <ul>
+ * <li>coordinator: "MATCH iteration map_idx ai1_idx ai2_idx"</li>
+ * <li>worker: "TURN player" whenever an AI starts running (player 0 or 1) or returns (-1)</li>
+ * <li>worker: "RESULT iteration map_idx ai1_idx ai2_idx time winner crashed timedout",
+ *     or "ERROR message" if the match could not be played</li>
+ * <li>coordinator: "QUIT" when there are no more matches</li>
+ * </ul>
+ * If a worker dies, its connection breaks, or it does not reply before the match deadline
+ * (e.g., because an AI hangs), it is killed and restarted, and the match is played again
+ * (up to MAX_ATTEMPTS times). If it keeps failing, the match is recorded as crashed (or
+ * timed out) by the AI that was running when the last attempt failed, or as a tie if no AI
+ * was running. A match that could not be played ("ERROR", e.g. a map that cannot be loaded)
+ * is not a game result: it is retried in a new worker too, and if its last attempt also
+ * replies "ERROR", the tournament fails (as when matches are played in this process).
+ * Results are recorded in the order
+ * in which matches finish. Notice that the pre-analysis "first time in a map" budget is
+ * tracked per worker.
+ */
+class ProcessMatchScheduler implements Tournament.MatchScheduler {
+
+    public static int MAX_ATTEMPTS = 3;
+    // time given to a worker to start and connect back, in milliseconds:
+    public static int CONNECT_TIMEOUT = 60000;
+    // time added to the match deadline for everything but the AIs (see matchTimeout), in milliseconds:
+    public static int MATCH_TIMEOUT_SLACK = 60000;
+
+    int numProcesses;
+    List<String> command;
+    File logFolder;
+    int matchTimeout;
+
+    /**
+     * @param a_numProcesses number of workers
+     * @param a_command command line starting a worker, to which "--worker=<id>:<port>" is appended
+     * @param a_logFolder where the standard output of each worker is saved (as worker_<id>.log)
+     * @param a_matchTimeout time a worker is given to play a match before it is considered hung,
+     * 	in milliseconds (see matchTimeout()), or 0 to wait forever
+     */
+    ProcessMatchScheduler(int a_numProcesses, List<String> a_command, File a_logFolder, int a_matchTimeout) {
+        numProcesses = a_numProcesses;
+        command = a_command;
+        logFolder = a_logFolder;
+        matchTimeout = a_matchTimeout;
+    }
+
+    /**
+     * @return a deadline for matches of up to 'maxGameLength' cycles, in which each AI is given
+     * 'timeBudget' milliseconds per cycle and 'preAnalysisBudget' milliseconds of pre-analysis:
+     * twice the time both AIs may use, plus MATCH_TIMEOUT_SLACK (capped at Integer.MAX_VALUE)
+     */
+    static int matchTimeout(int maxGameLength, int timeBudget, long preAnalysisBudget) {
+        long aiTime = 2 * ((long) maxGameLength * timeBudget + preAnalysisBudget);
+        return (int) Math.min(Integer.MAX_VALUE, 2 * aiTime + MATCH_TIMEOUT_SLACK);
+    }
+
+    /**
+     * @return the command line starting a JVM like this one (same java executable,
+     * class path and JVM options, such as -X, -D, -ea, --add-opens or -javaagent) on
+     * the given main class
+     */
+    static List<String> javaCommand(Class<?> mainClass) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // (a debugger agent would try to listen on the same port in every worker):
+            if (arg.startsWith("-agentlib:jdwp") || arg.startsWith("-Xrunjdwp")) continue;
+            command.add(arg);
+        }
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass.getName());
+        return command;
+    }
+
+    public void runMatches(Tournament tournament, List<int[]> matches, Tournament.MatchRunner runner, Writer out) throws Exception {
+        AtomicInteger next = new AtomicInteger(0);
+        int n = Math.min(numProcesses, matches.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, n), r -> {
+            Thread t = new Thread(r, "Tournament worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int id = i;
+                futures.add(executor.submit(() -> {
+                    Worker worker = new Worker(id);
+                    try {
+                        int idx;
+                        while ((idx = next.getAndIncrement()) < matches.size()) {
+                            int[] m = matches.get(idx);
+                            tournament.recordResult(m, worker.play(m), out);
+                        }
+                        worker.quit();
+                    } catch (Exception e) {
+                        // stop handing out matches to the other workers:
+                        next.set(matches.size());
+                        throw e;
+                    } finally {
+                        worker.destroy();
+                    }
+                    return null;
+                }));
+            }
+            Exception exception = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        Throwable t = e.getCause();
+                        if (t instanceof Error) {
+                            throw (Error) t;
+                        }
+                        exception = (Exception) t;
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A worker process, (re)started on demand
+     */
+    class Worker {
+        int id;
+        Process process;
+        Socket socket;
+        BufferedReader in;
+        PrintWriter out;
+
+        Worker(int a_id) {
+            id = a_id;
+        }
+
+        /**
+         * Plays match 'm' in this worker (restarting it if needed)
+         * @return the result of the match, or, if it failed, a result blaming the AI that
+         * was running when it failed (or a tie, if unknown)
+         * @throws IOException if the worker could not be started in the last attempt, or
+         * could not play the match ("ERROR")
+         */
+        int[] play(int[] m) throws IOException {
+            String match = m[0] + " " + m[1] + " " + m[2] + " " + m[3];
+            int[] failed = null;
+            IOException lastError = null;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                failed = null;
+                // the player whose AI is running (-1 if none):
+                int player = -1;
+                try {
+                    if (process == null) start();
+                    failed = new int[]{0, -1, -1, -1};
+                    out.println("MATCH " + match);
+                    out.flush();
+                    long deadline = System.currentTimeMillis() + matchTimeout;
+                    String line;
+                    while (true) {
+                        if (matchTimeout > 0) {
+                            socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                        }
+                        try {
+                            line = in.readLine();
+                        } catch (SocketTimeoutException e) {
+                            failed = new int[]{0, player == -1 ? -1 : 1 - player, -1, player};
+                            throw new IOException("worker " + id + " did not finish match " + match + " in " + matchTimeout + "ms", e);
+                        }
+                        if (line == null) {
+                            failed = new int[]{0, player == -1 ? -1 : 1 - player, player, -1};
+                            throw new IOException("worker " + id + " closed the connection");
+                        }
+                        if (!line.startsWith("TURN ")) break;
+                        player = Integer.parseInt(line.substring(5).trim());
+                    }
+                    String[] tokens = line.split(" ");
+                    if (tokens[0].equals("ERROR")) {
+                        // not the fault of the AIs, so this is not a result (see below):
+                        failed = null;
+                        throw new IOException("worker " + id + " could not play match " + match + ": " + line.substring(5).trim());
+                    }
+                    if (!tokens[0].equals("RESULT") || tokens.length != 9) {
+                        throw new IOException("unexpected reply from worker " + id + ": " + line);
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        if (Integer.parseInt(tokens[1 + i]) != m[i]) {
+                            throw new IOException("unexpected reply from worker " + id + ": " + line);
+                        }
+                    }
+                    int[] result = new int[4];
+                    for (int i = 0; i < 4; i++) {
+                        result[i] = Integer.parseInt(tokens[5 + i]);
+                    }
+                    return result;
+                } catch (IOException e) {
+                    lastError = e;
+                    destroy();
+                }
+            }
+            // a worker that cannot even be started, or cannot play the match, is not the fault of the AIs:
+            if (failed == null) throw lastError;
+            System.err.println("match " + match + " failed " + MAX_ATTEMPTS + " times, recording it as " +
+                               (failed[2] != -1 ? "crashed by player " + failed[2] :
+                                failed[3] != -1 ? "timed out by player " + failed[3] : "a tie") + ": " + lastError);
+            return failed;
+        }
+
+        void start() throws IOException {
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                List<String> workerCommand = new ArrayList<>(command);
+                workerCommand.add("--worker=" + id + ":" + server.getLocalPort());
+                ProcessBuilder pb = new ProcessBuilder(workerCommand);
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(logFolder, "worker_" + id + ".log")));
+                process = pb.start();
+                // poll, so that a worker failing to start is noticed before the timeout:
+                server.setSoTimeout(500);
+                long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+                while (socket == null) {
+                    try {
+                        socket = server.accept();
+                    } catch (SocketTimeoutException e) {
+                        if (!process.isAlive()) {
+                            throw new IOException("worker " + id + " exited with code " + process.exitValue() + " (see worker_" + id + ".log)");
+                        }
+                        if (System.currentTimeMillis() > deadline) {
+                            throw new IOException("worker " + id + " did not connect in " + CONNECT_TIMEOUT + "ms");
+                        }
+                    }
+                }
+                socket.setTcpNoDelay(true);
+                // replies only come at the end of each match, so this bounds the time a match can take:
+                socket.setSoTimeout(matchTimeout);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                destroy();
+                throw e;
+            }
+        }
+
+        void quit() throws InterruptedException {
+            if (process == null) return;
+            out.println("QUIT");
+            out.flush();
+            process.waitFor(10, TimeUnit.SECONDS);
+        }
+
+        void destroy() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing left to do with it
+                }
+            }
+            if (process != null) process.destroyForcibly();
+            socket = null;
+            in = null;
+            out = null;
+            process = null;
+        }
+    }
+}
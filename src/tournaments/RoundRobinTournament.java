@@ -9,6 +9,7 @@ import ai.core.AI;
 
 import java.io.File;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
 
 import rts.PhysicalGameState;
@@ -82,9 +83,14 @@ public class RoundRobinTournament extends Tournament{
             }
         }
         
+        PhysicalGameState pgss[] = new PhysicalGameState[maps.size()];
+        for (int map_idx = 0; map_idx < maps.size(); map_idx++) {
+            pgss[map_idx] = PhysicalGameState.load(maps.get(map_idx), utt);
+        }
+
+        List<int[]> matches = new ArrayList<>();
         for (int iteration = 0; iteration < iterations; iteration++) {
             for (int map_idx = 0; map_idx < maps.size(); map_idx++) {
-                PhysicalGameState pgs = PhysicalGameState.load(maps.get(map_idx), utt);
                 for (int ai1_idx = 0; ai1_idx < AIs.size(); ai1_idx++) {
                     for (int ai2_idx = 0; ai2_idx < AIs.size(); ai2_idx++) {
                         if (!selfMatches && ai1_idx == ai2_idx) continue;
@@ -92,14 +98,16 @@ public class RoundRobinTournament extends Tournament{
                             if (ai1_idx != playOnlyGamesInvolvingThisAI &&
                                     ai2_idx != playOnlyGamesInvolvingThisAI) continue;
                         }
-                        playSingleGame(maxGameLength, timeBudget, iterationsBudget,
-                                preAnalysisBudgetFirstTimeInAMap, preAnalysisBudgetRestOfTimes, fullObservability,
-                                timeoutCheck, runGC, preAnalysis, utt, traceOutputfolder, out, progress,
-                                readWriteFolders, firstPreAnalysis, iteration, map_idx, pgs, ai1_idx, ai2_idx);
+                        matches.add(new int[]{iteration, map_idx, ai1_idx, ai2_idx});
                     }
                 }
             }
         }
+        runMatches(maps, matches, (iteration, map_idx, ai1_idx, ai2_idx) ->
+                playSingleGame(maxGameLength, timeBudget, iterationsBudget,
+                        preAnalysisBudgetFirstTimeInAMap, preAnalysisBudgetRestOfTimes, fullObservability,
+                        timeoutCheck, runGC, preAnalysis, utt, traceOutputfolder, progress,
+                        readWriteFolders, firstPreAnalysis, iteration, map_idx, pgss[map_idx], ai1_idx, ai2_idx), out);
 
         printEndSummary(maps,iterations, out, progress);
     }
@@ -22,15 +22,37 @@ import java.util.*;
  *   java -cp "bin:lib/*" tournaments.RunTournamentCLI --config tournament_config.json
  *   java -cp "bin:lib/*" tournaments.RunTournamentCLI tournament_1 maps/8x8/basesWorkers8x8.xml WorkerRush,LightRush
  *   java -cp "bin:lib/*" tournaments.RunTournamentCLI tournament_1 maps/8x8/basesWorkers8x8.xml WorkerRush,LightRush lib/bots --iterations=10 --maxGameLength=5000
+ *
+ * With "processes" > 1 (or --processes=N), matches are played in N child JVMs, started with
+ * the same arguments plus --worker=<id>:<port> (see {@link ProcessMatchScheduler}).
+ *
+ * The result of each match is appended to journal.tsv in the tournament folder as soon as it
+ * finishes. With "resume": true (or --resume), an interrupted tournament is continued from it.
  */
 public class RunTournamentCLI {
     
     private static Map<String, Class> loadedBotClasses = new HashMap<>();
     private static int totalGames = 0;
     private static int completedGames = 0;
+    // arguments of this process (without --worker), to start workers with:
+    private static List<String> arguments = new ArrayList<>();
+    // when this process is a worker: its id, and the port of the coordinator (-1 otherwise):
+    private static int workerId = -1;
+    private static int workerPort = -1;
     
     public static void main(String[] args) {
         try {
+            for (String arg : args) {
+                if (arg.startsWith("--worker=")) {
+                    String[] parts = arg.substring("--worker=".length()).split(":");
+                    workerId = Integer.parseInt(parts[0]);
+                    workerPort = Integer.parseInt(parts[1]);
+                } else {
+                    arguments.add(arg);
+                }
+            }
+            args = arguments.toArray(new String[0]);
+            
             if (args.length < 1) {
                 printUsage();
                 System.exit(1);
@@ -104,6 +126,11 @@ public class RunTournamentCLI {
         config.tournamentFolder = json.get("tournamentFolder").getAsString();
         config.botJarsFolder = json.has("botJarsFolder") ? json.get("botJarsFolder").getAsString() : null;
         config.saveGameLogs = json.has("saveGameLogs") ? json.get("saveGameLogs").getAsBoolean() : true;
+        config.threads = json.has("threads") ? json.get("threads").getAsInt() : 1;
+        config.measureCpuTime = json.has("measureCpuTime") ? json.get("measureCpuTime").getAsBoolean() : false;
+        config.processes = json.has("processes") ? json.get("processes").getAsInt() : 1;
+        config.resume = json.has("resume") ? json.get("resume").getAsBoolean() : false;
+        config.concurrentDecisions = json.has("concurrentDecisions") ? json.get("concurrentDecisions").getAsBoolean() : false;
         
         // Load and validate arrays
         json.get("maps").getAsJsonArray().forEach(e -> config.maps.add(e.getAsString()));
@@ -139,6 +166,12 @@ public class RunTournamentCLI {
         if (config.timeBudget <= 0) {
             throw new IllegalArgumentException("timeBudget must be positive (found: " + config.timeBudget + ")");
         }
+        if (config.threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive (found: " + config.threads + ")");
+        }
+        if (config.processes <= 0) {
+            throw new IllegalArgumentException("processes must be positive (found: " + config.processes + ")");
+        }
         
         System.out.println("Configuration validated successfully");
         return config;
@@ -199,6 +232,12 @@ public class RunTournamentCLI {
                 String option = arg.substring(2);
                 if (option.equals("selfMatches")) {
                     config.selfMatches = true;
+                } else if (option.equals("measureCpuTime")) {
+                    config.measureCpuTime = true;
+                } else if (option.equals("resume")) {
+                    config.resume = true;
+                } else if (option.equals("concurrentDecisions")) {
+                    config.concurrentDecisions = true;
                 } else if (option.contains("=")) {
                     String[] parts = option.split("=", 2);
                     String key = parts[0];
@@ -217,6 +256,12 @@ public class RunTournamentCLI {
                         case "iterationsBudget":
                             config.iterationsBudget = Integer.parseInt(value);
                             break;
+                        case "threads":
+                            config.threads = Integer.parseInt(value);
+                            break;
+                        case "processes":
+                            config.processes = Integer.parseInt(value);
+                            break;
                     }
                 }
             }
@@ -229,6 +274,9 @@ public class RunTournamentCLI {
         // Save original streams
         PrintStream originalOut = System.out;
         PrintStream originalErr = System.err;
+        // workers share the tournament folder with the coordinator, so they use their own log files:
+        boolean worker = workerPort >= 0;
+        String logPrefix = worker ? config.tournamentFolder + "/worker_" + workerId + "_" : config.tournamentFolder + "/";
         
         // Load JARs if specified
         if (config.botJarsFolder != null && !config.botJarsFolder.isEmpty()) {
@@ -245,7 +293,7 @@ public class RunTournamentCLI {
             // Create temp file for JAR loading logs
             File tempDir = new File(config.tournamentFolder);
             tempDir.mkdirs();
-            PrintStream jarLoadLog = new PrintStream(new FileOutputStream(config.tournamentFolder + "/jar_loading.log"));
+            PrintStream jarLoadLog = new PrintStream(new FileOutputStream(logPrefix + "jar_loading.log"));
             System.setOut(jarLoadLog);
             System.setErr(jarLoadLog);
             
@@ -291,7 +339,7 @@ public class RunTournamentCLI {
         }
         
         // Redirect output during AI loading
-        PrintStream aiLoadLog = new PrintStream(new FileOutputStream(config.tournamentFolder + "/ai_loading.log"));
+        PrintStream aiLoadLog = new PrintStream(new FileOutputStream(logPrefix + "ai_loading.log"));
         System.setOut(aiLoadLog);
         System.setErr(aiLoadLog);
         
@@ -333,12 +381,23 @@ public class RunTournamentCLI {
         
         // Create writers
         String csvFile = config.tournamentFolder + "/tournament.csv";
-        Writer writer = new CSVTrackingWriter(
-            new BufferedWriter(new FileWriter(csvFile)),
-            originalOut,  // Pass original output for progress tracking
-            totalGames
-        );
-        Writer progress = new BufferedWriter(new FileWriter(config.tournamentFolder + "/progress.log"));
+        Writer writer;
+        if (worker) {
+            // results are recorded by the coordinator:
+            writer = new Writer() {
+                public void write(char[] cbuf, int off, int len) {}
+                public void flush() {}
+                public void close() {}
+            };
+        } else {
+            writer = new CSVTrackingWriter(
+                new BufferedWriter(new FileWriter(csvFile)),
+                originalOut,  // Pass original output for progress tracking
+                totalGames
+            );
+        }
+        // a worker restarted after a crash appends to the logs of the previous one:
+        Writer progress = new BufferedWriter(new FileWriter(logPrefix + "progress.log", worker));
 
         System.out.println("\nTournament Configuration:");
         System.out.println("  Iterations per matchup: " + config.iterations);
@@ -351,6 +410,11 @@ public class RunTournamentCLI {
         System.out.println("  Timeout check: " + config.timeoutCheck);
         System.out.println("  Run GC: " + config.runGC);
         System.out.println("  Save traces: " + config.saveTraces);
+        System.out.println("  Threads: " + config.threads);
+        System.out.println("  Measure CPU time: " + config.measureCpuTime);
+        System.out.println("  Processes: " + config.processes);
+        System.out.println("  Resume: " + config.resume);
+        System.out.println("  Concurrent decisions: " + config.concurrentDecisions);
         System.out.println("\nTotal games to play: " + totalGames);
         System.out.println("\nStarting tournament...\n");
         
@@ -359,8 +423,8 @@ public class RunTournamentCLI {
         PrintStream errorLogStream = null;
         
         if (config.saveGameLogs) {
-            gameLogStream = new PrintStream(new FileOutputStream(config.tournamentFolder + "/game_logs.txt"));
-            errorLogStream = new PrintStream(new FileOutputStream(config.tournamentFolder + "/error_logs.txt"));
+            gameLogStream = new PrintStream(new FileOutputStream(logPrefix + "game_logs.txt", worker));
+            errorLogStream = new PrintStream(new FileOutputStream(logPrefix + "error_logs.txt", worker));
         } else {
             // Redirect to null stream (discard all output)
             gameLogStream = new PrintStream(new OutputStream() {
@@ -375,7 +439,22 @@ public class RunTournamentCLI {
         
         // Run tournament
         try {
-            new RoundRobinTournament(ais).runTournament(
+            RoundRobinTournament tournament = new RoundRobinTournament(ais);
+            tournament.setNumThreads(config.threads);
+            tournament.setMeasureCpuTime(config.measureCpuTime);
+            tournament.setConcurrentDecisions(config.concurrentDecisions);
+            if (worker) {
+                tournament.setMatchScheduler(new WorkerMatchScheduler(workerPort));
+            } else {
+                tournament.setJournal(config.tournamentFolder + "/journal.tsv", config.resume);
+                if (config.processes > 1) {
+                    List<String> command = ProcessMatchScheduler.javaCommand(RunTournamentCLI.class);
+                    command.addAll(arguments);
+                    tournament.setMatchScheduler(new ProcessMatchScheduler(config.processes, command, tournamentDir,
+                            ProcessMatchScheduler.matchTimeout(config.maxGameLength, config.timeBudget, config.preAnalysisBudget)));
+                }
+            }
+            tournament.runTournament(
                 -1,
                 config.maps,
                 config.iterations,
@@ -398,7 +477,7 @@ public class RunTournamentCLI {
         } finally {
             // Restore System.out and System.err
             System.setOut(originalOut);
-            System.setErr(System.err);
+            System.setErr(originalErr);
             gameLogStream.close();
             errorLogStream.close();
         }
@@ -470,6 +549,12 @@ public class RunTournamentCLI {
         System.err.println("Examples:");
         System.err.println("  java -cp \"bin:lib/*\" tournaments.RunTournamentCLI --config tournament_example.json");
         System.err.println("  java -cp \"bin:lib/*\" tournaments.RunTournamentCLI tournament_1 maps/8x8/basesWorkers8x8.xml WorkerRush,LightRush --iterations=10");
+        System.err.println();
+        System.err.println("Options: --iterations=N --maxGameLength=N --timeBudget=N --iterationsBudget=N --selfMatches");
+        System.err.println("         --threads=N (matches played concurrently) --measureCpuTime (time AIs by thread CPU time, single-threaded AIs only)");
+        System.err.println("         --processes=N (matches played in N separate JVMs, restarted if they crash)");
+        System.err.println("         --resume (skip the matches already in the journal of the tournament folder)");
+        System.err.println("         --concurrentDecisions (both AIs of a match decide at the same time, on separate threads)");
     }
     
     /**
@@ -629,5 +714,10 @@ public class RunTournamentCLI {
         boolean runGC = false;
         boolean saveTraces = false;
         boolean saveGameLogs = true;
+        int threads = 1;
+        boolean measureCpuTime = false;
+        int processes = 1;
+        boolean resume = false;
+        boolean concurrentDecisions = false;
     }
 }
\ No newline at end of file
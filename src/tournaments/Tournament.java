@@ -4,6 +4,8 @@ import ai.core.AI;
 import ai.core.AIWithComputationBudget;
 import ai.core.ContinuingAI;
 import ai.core.InterruptibleAI;
+import ai.core.ParameterSpecification;
+import rts.ConcurrentDecisions;
 import rts.GameState;
 import rts.PartiallyObservableGameState;
 import rts.PhysicalGameState;
@@ -13,13 +15,28 @@ import rts.TraceEntry;
 import rts.units.UnitTypeTable;
 import util.XMLWriter;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -41,6 +58,50 @@ class Tournament {
     private int[][] opponentAItimeout;
     private double[][] accumTime;
 
+    // number of matches played concurrently (see setNumThreads):
+    private int numThreads = 1;
+    // whether the time used by the AIs is measured as CPU time (see setMeasureCpuTime):
+    private boolean measureCpuTime = false;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    // one lock per read/write folder, so that AIs sharing one analyze the game one at a time:
+    private final Map<String, Object> folderLocks = new ConcurrentHashMap<>();
+
+    // whether the actions of both AIs are computed concurrently (see setConcurrentDecisions):
+    private boolean concurrentDecisions = false;
+    // when not null, decides where matches are played (see setMatchScheduler):
+    private MatchScheduler scheduler = null;
+    // when not null, told which AI is running in playSingleGame (see setDecisionListener):
+    private IntConsumer decisionListener = null;
+
+    // file where the result of each match is appended as soon as it finishes (see setJournal):
+    private String journalFileName = null;
+    private boolean resumeFromJournal = false;
+    private FileOutputStream journalStream = null;
+    private Writer journal = null;
+    private List<String> journalMaps = null;
+
+    /**
+     * Plays a match in the current process
+     */
+    interface MatchRunner {
+        /**
+         * @return the result of the match: {time, winner, crashed, timedout} (see recordResult())
+         */
+        int[] play(int iteration, int map_idx, int ai1_idx, int ai2_idx) throws Exception;
+    }
+
+    /**
+     * Alternative way of playing the matches of a tournament (e.g., in other processes)
+     */
+    interface MatchScheduler {
+        /**
+         * Plays the given matches ({iteration, map_idx, ai1_idx, ai2_idx}), calling
+         * tournament.recordResult() with the result of each one that should be part
+         * of the results of the tournament
+         */
+        void runMatches(Tournament tournament, List<int[]> matches, MatchRunner runner, Writer out) throws Exception;
+    }
+
     Tournament(List<AI> AIs, List<AI> opponentAIs){
         this.AIs = AIs;
         this.opponentAIs = opponentAIs;
@@ -57,15 +118,201 @@ class Tournament {
      this(AIs, AIs);
     }
 
-    void playSingleGame(int maxGameLength, int timeBudget,
+    /**
+     * Plays up to 'n' matches concurrently, each on its own thread and with its own
+     * clones of the AIs. Results are aggregated as matches finish, so the lines of the
+     * results file follow the order in which matches finish, and the progress log of
+     * each match is written in one piece when it finishes. Notice that only AIs whose
+     * clone() shares no mutable state with the original are safe to run this way: e.g.,
+     * the scripted AIs (WorkerRush, LightRush, ...) clone their path finders, and the
+     * NaiveMCTS variants their playout policies (evaluation functions are stateless, so
+     * they are shared), but AIs relying on static state, or sharing other helpers between
+     * clones, are not. Also, 'n' should not exceed the
+     * number of cores, since AIs stop searching based on wall-clock time.
+     * @param n
+     */
+    public void setNumThreads(int n) {
+        numThreads = Math.max(1, n);
+    }
+
+    /**
+     * Measures the time used by the AIs in each call to getAction() as the CPU time of
+     * the thread playing the match, instead of as wall-clock time, so that the time
+     * budget checks (timeouts and time usage statistics) are not distorted by other
+     * matches running concurrently. Since the CPU time of other threads is not counted,
+     * this is only valid for AIs that compute their actions in the thread calling them:
+     * matches are not played if any AI reports using more threads (see
+     * {@link AI#getNumThreads()}), although AIs that use other threads without reporting
+     * it cannot be detected. Notice that AIs still decide when to stop searching using
+     * wall-clock time, so, on a loaded machine, they just use less CPU time than their budget.
+     * @param cpuTime
+     */
+    public void setMeasureCpuTime(boolean cpuTime) {
+        if (cpuTime && !THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            throw new UnsupportedOperationException("thread CPU time is not supported by this JVM");
+        }
+        measureCpuTime = cpuTime;
+    }
+
+    /**
+     * Computes the actions of both AIs of each match concurrently, each on its own thread
+     * and view of the game state (see {@link ConcurrentDecisions}). The time used by each
+     * AI is measured in its own thread, so, to keep timeout checks accurate, there should be
+     * two cores per match played concurrently (or see setMeasureCpuTime()).
+     * @param concurrent
+     */
+    public void setConcurrentDecisions(boolean concurrent) {
+        concurrentDecisions = concurrent;
+    }
+
+    /**
+     * Replaces the default way of playing matches (in this process, see setNumThreads())
+     * @param a_scheduler
+     */
+    void setMatchScheduler(MatchScheduler a_scheduler) {
+        scheduler = a_scheduler;
+    }
+
+    /**
+     * Tells 'listener' the player whose AI is about to run (its pre-game analysis or its
+     * getAction()) in playSingleGame(), and -1 when it returns, so that the AI to blame can
+     * be determined if the process playing the match hangs or dies (see
+     * {@link ProcessMatchScheduler}). When the AIs decide concurrently, it is only told -1.
+     * @param listener
+     */
+    void setDecisionListener(IntConsumer listener) {
+        decisionListener = listener;
+    }
+
+    private void deciding(int player) {
+        if (decisionListener != null) decisionListener.accept(player);
+    }
+
+    /**
+     * Appends the result of each match to 'fileName' as soon as it finishes (one line per
+     * match, flushed to disk), so that a tournament that is interrupted can be resumed.
+     * When resuming, the matches already in the journal are not played again: their
+     * results are recorded (and written to the results file) from the journal instead.
+     * Otherwise, the journal is overwritten.
+     * The journal starts with a header (lines starting with '#') listing the maps and the
+     * AIs of the tournament, each AI by its index, class and parameters (see describe()),
+     * since the names of AIs with different parameters are often the same. Resuming fails
+     * if the header does not match the tournament. Each match is then a line with its
+     * iteration, map, AI indexes, result (see recordResult()), map and AI descriptions.
+     * @param fileName
+     * @param resume
+     */
+    public void setJournal(String fileName, boolean resume) {
+        journalFileName = fileName;
+        resumeFromJournal = resume;
+    }
+
+    /**
+     * @return the current time, in milliseconds, as used to measure the time used by the AIs
+     */
+    private long currentTimeMillis() {
+        if (measureCpuTime) return THREAD_MX_BEAN.getCurrentThreadCpuTime() / 1000000;
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Plays the given matches ({iteration, map_idx, ai1_idx, ai2_idx}), in order, or
+     * concurrently if setNumThreads() was called (or as decided by the scheduler set
+     * with setMatchScheduler()), and records their results
+     * @param maps names of the maps (to identify matches in the journal, see setJournal())
+     * @param matches
+     * @param runner
+     * @param out where results are written
+     * @throws Exception the first exception (in match order) thrown by a match
+     */
+    void runMatches(List<String> maps, List<int[]> matches, MatchRunner runner, Writer out) throws Exception {
+        if (measureCpuTime) {
+            for (AI ai : AIs) checkSingleThreaded(ai);
+            for (AI ai : opponentAIs) checkSingleThreaded(ai);
+        }
+        if (journalFileName == null) {
+            playMatches(matches, runner, out);
+            return;
+        }
+        try {
+            matches = openJournal(maps, matches, out);
+            playMatches(matches, runner, out);
+        } finally {
+            closeJournal();
+        }
+    }
+
+    private static void checkSingleThreaded(AI ai) {
+        if (ai.getNumThreads() > 1) {
+            throw new IllegalArgumentException("measuring CPU time requires single-threaded AIs, but " + ai + " uses " + ai.getNumThreads() + " threads");
+        }
+    }
+
+    private void playMatches(List<int[]> matches, MatchRunner runner, Writer out) throws Exception {
+        if (scheduler != null) {
+            scheduler.runMatches(this, matches, runner, out);
+            return;
+        }
+        if (numThreads <= 1) {
+            for (int[] m : matches) {
+                recordResult(m, runner.play(m[0], m[1], m[2], m[3]), out);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "Tournament match");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>(matches.size());
+            for (int[] m : matches) {
+                futures.add(executor.submit(() -> {
+                    recordResult(m, runner.play(m[0], m[1], m[2], m[3]), out);
+                    return null;
+                }));
+            }
+            Exception exception = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (exception == null) {
+                        Throwable t = e.getCause();
+                        if (t instanceof Error) {
+                            throw (Error) t;
+                        }
+                        exception = (Exception) t;
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Plays a match in the current thread
+     * @return the result of the match: {time, winner, crashed, timedout} (see recordResult())
+     */
+    int[] playSingleGame(int maxGameLength, int timeBudget,
                                int iterationsBudget, long preAnalysisBudgetFirstTimeInAMap,
                                long preAnalysisBudgetRestOfTimes, boolean fullObservability,
                                boolean timeoutCheck, boolean runGC, boolean preAnalysis,
-                               UnitTypeTable utt, String traceOutputfolder, Writer out,
+                               UnitTypeTable utt, String traceOutputfolder,
                                Writer progress,
                                String[] readWriteFolders,
                                boolean[][] firstPreAnalysis, int iteration, int map_idx, PhysicalGameState pgs,
                                int ai1_idx, int ai2_idx) throws Exception {
+        // when matches are played concurrently, the progress log of each one is written at the end:
+        Writer matchProgress = progress;
+        if (progress != null && numThreads > 1) {
+            progress = new StringWriter();
+        }
+
         // variables to keep track of time ussage amongst the AIs:
         int numTimes1 = 0;
         int numTimes2 = 0;
@@ -105,8 +352,11 @@ class Tournament {
         if (progress != null) progress.write("MATCH UP: " + ai1 + " vs " + ai2 + "\n");
 
         if (preAnalysis && firstPreAnalysis != null) {
+            deciding(0);
             preAnalysisSingleAI(preAnalysisBudgetFirstTimeInAMap, preAnalysisBudgetRestOfTimes, progress, readWriteFolders[ai1_idx], firstPreAnalysis[ai1_idx], map_idx, ai1, gs);
+            deciding(1);
             preAnalysisSingleAI(preAnalysisBudgetFirstTimeInAMap, preAnalysisBudgetRestOfTimes, progress, readWriteFolders[ai2_idx], firstPreAnalysis[ai2_idx], map_idx, ai2, gs);
+            deciding(-1);
         }
 
         boolean gameover = false;
@@ -119,84 +369,113 @@ class Tournament {
             te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
             trace.addEntry(te);
         }
-        do {
-            PlayerAction pa1 = null;
-            PlayerAction pa2 = null;
-            long AI1start = 0, AI2start = 0, AI1end = 0, AI2end = 0;
-            if (runGC) System.gc();
-            try {
-                AI1start = System.currentTimeMillis();
-                pa1 = ai1.getAction(0, fullObservability ? gs : new PartiallyObservableGameState(gs, 0));
-                AI1end = System.currentTimeMillis();
-            } catch (Exception e) {
-                if (progress != null) {
-                    progress.write(e + "\n");
-                    progress.write(Arrays.toString(e.getStackTrace()) + "\n");
-                }
-                crashed = 0;
-                break;
-            }
-            if (runGC) System.gc();
-            try {
-                AI2start = System.currentTimeMillis();
-                pa2 = ai2.getAction(1, fullObservability ? gs : new PartiallyObservableGameState(gs, 1));
-                AI2end = System.currentTimeMillis();
-            } catch (Exception e) {
-                if (progress != null) {
-                    progress.write(e + "\n");
-                    progress.write(Arrays.toString(e.getStackTrace()) + "\n");
-                }
-                crashed = 1;
-                break;
-            }
-
-            {
-                long AI1time = AI1end - AI1start;
-                long AI2time = AI2end - AI2start;
-                numTimes1++;
-                numTimes2++;
-                averageTime1 += AI1time;
-                averageTime2 += AI2time;
-                if (AI1time > timeBudget) {
-                    numberOfTimeOverBudget1++;
-                    averageTimeOverBudget1 += AI1time;
-                    if (AI1time > timeBudget * 2) {
-                        numberOfTimeOverTwiceBudget1++;
-                        averageTimeOverTwiceBudget1 += AI1time;
+        // when not null, the AIs decide concurrently:
+        ConcurrentDecisions decisions = concurrentDecisions ? new ConcurrentDecisions(this::currentTimeMillis) : null;
+        try {
+            do {
+                PlayerAction pa1 = null;
+                PlayerAction pa2 = null;
+                long AI1time = 0, AI2time = 0;
+                if (decisions != null) {
+                    if (runGC) System.gc();
+                    decisions.getActions(ai1, fullObservability ? gs : new PartiallyObservableGameState(gs, 0),
+                                         ai2, fullObservability ? gs : new PartiallyObservableGameState(gs, 1));
+                    for (int player = 0; player < 2 && crashed == -1; player++) {
+                        Exception e = decisions.getException(player);
+                        if (e != null) {
+                            if (progress != null) {
+                                progress.write(e + "\n");
+                                progress.write(Arrays.toString(e.getStackTrace()) + "\n");
+                            }
+                            crashed = player;
+                        }
                     }
-                }
-                if (AI2time > timeBudget) {
-                    numberOfTimeOverBudget2++;
-                    averageTimeOverBudget2 += AI2time;
-                    if (AI2time > timeBudget * 2) {
-                        numberOfTimeOverTwiceBudget2++;
-                        averageTimeOverTwiceBudget2 += AI2time;
-                    }
-                }
-                if (timeoutCheck) {
-                    if (AI1time > timeBudget + TIMEOUT_CHECK_TOLERANCE) {
-                        timedout = 0;
+                    if (crashed != -1) break;
+                    pa1 = decisions.getAction(0);
+                    pa2 = decisions.getAction(1);
+                    AI1time = decisions.getTime(0);
+                    AI2time = decisions.getTime(1);
+                } else {
+                    if (runGC) System.gc();
+                    try {
+                        deciding(0);
+                        long AI1start = currentTimeMillis();
+                        pa1 = ai1.getAction(0, fullObservability ? gs : new PartiallyObservableGameState(gs, 0));
+                        AI1time = currentTimeMillis() - AI1start;
+                    } catch (Exception e) {
+                        if (progress != null) {
+                            progress.write(e + "\n");
+                            progress.write(Arrays.toString(e.getStackTrace()) + "\n");
+                        }
+                        crashed = 0;
                         break;
                     }
-                    if (AI2time > timeBudget + TIMEOUT_CHECK_TOLERANCE) {
-                        timedout = 1;
+                    if (runGC) System.gc();
+                    try {
+                        deciding(1);
+                        long AI2start = currentTimeMillis();
+                        pa2 = ai2.getAction(1, fullObservability ? gs : new PartiallyObservableGameState(gs, 1));
+                        AI2time = currentTimeMillis() - AI2start;
+                    } catch (Exception e) {
+                        if (progress != null) {
+                            progress.write(e + "\n");
+                            progress.write(Arrays.toString(e.getStackTrace()) + "\n");
+                        }
+                        crashed = 1;
                         break;
                     }
+                    deciding(-1);
                 }
-            }
 
-            if (traceOutputfolder != null && (!pa1.isEmpty() || !pa2.isEmpty())) {
-                te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
-                te.addPlayerAction(pa1.clone());
-                te.addPlayerAction(pa2.clone());
-                trace.addEntry(te);
-            }
+                {
+                    numTimes1++;
+                    numTimes2++;
+                    averageTime1 += AI1time;
+                    averageTime2 += AI2time;
+                    if (AI1time > timeBudget) {
+                        numberOfTimeOverBudget1++;
+                        averageTimeOverBudget1 += AI1time;
+                        if (AI1time > timeBudget * 2) {
+                            numberOfTimeOverTwiceBudget1++;
+                            averageTimeOverTwiceBudget1 += AI1time;
+                        }
+                    }
+                    if (AI2time > timeBudget) {
+                        numberOfTimeOverBudget2++;
+                        averageTimeOverBudget2 += AI2time;
+                        if (AI2time > timeBudget * 2) {
+                            numberOfTimeOverTwiceBudget2++;
+                            averageTimeOverTwiceBudget2 += AI2time;
+                        }
+                    }
+                    if (timeoutCheck) {
+                        if (AI1time > timeBudget + TIMEOUT_CHECK_TOLERANCE) {
+                            timedout = 0;
+                            break;
+                        }
+                        if (AI2time > timeBudget + TIMEOUT_CHECK_TOLERANCE) {
+                            timedout = 1;
+                            break;
+                        }
+                    }
+                }
+
+                if (traceOutputfolder != null && (!pa1.isEmpty() || !pa2.isEmpty())) {
+                    te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+                    te.addPlayerAction(pa1.clone());
+                    te.addPlayerAction(pa2.clone());
+                    trace.addEntry(te);
+                }
 
-            gs.issueSafe(pa1);
-            gs.issueSafe(pa2);
-            gameover = gs.cycle();
-        } while (!gameover &&
-                (gs.getTime() < maxGameLength));
+                gs.issueSafe(pa1);
+                gs.issueSafe(pa2);
+                gameover = gs.cycle();
+            } while (!gameover &&
+                    (gs.getTime() < maxGameLength));
+        } finally {
+            if (decisions != null) decisions.close();
+            deciding(-1);
+        }
 
         if (traceOutputfolder != null) {
             File folder = new File(traceOutputfolder);
@@ -222,29 +501,14 @@ class Tournament {
         int winner = -1;
         if (crashed != -1) {
             winner = 1 - crashed;
-            if (crashed == 0) {
-                this.AIcrashes[ai1_idx][ai2_idx]++;
-            }
-            if (crashed == 1) {
-                opponentAIcrashes[ai1_idx][ai2_idx]++;
-            }
         } else if (timedout != -1) {
             winner = 1 - timedout;
-            if (timedout == 0) {
-                this.AItimeout[ai1_idx][ai2_idx]++;
-            }
-            if (timedout == 1) {
-                this.opponentAItimeout[ai1_idx][ai2_idx]++;
-            }
         } else {
             winner = gs.winner();
         }
         ai1.gameOver(winner);
         ai2.gameOver(winner);
 
-        out.write(iteration + "\t" + map_idx + "\t" + ai1_idx + "\t" + ai2_idx + "\t"
-                + gs.getTime() + "\t" + winner + "\t" + crashed + "\t" + timedout + "\n");
-        out.flush();
         if (progress != null) {
             progress.write("Winner: " + winner + "  in " + gs.getTime() + " cycles\n");
             progress.write(ai1 + " : " + ai1.statisticsString() + "\n");
@@ -258,24 +522,197 @@ class Tournament {
             progress.flush();
         }
 
+        if (progress != matchProgress) {
+            synchronized (this) {
+                matchProgress.write(progress.toString());
+                matchProgress.flush();
+            }
+        }
+        return new int[]{gs.getTime(), winner, crashed, timedout};
+    }
+
+    /**
+     * Adds the result of a match to the summary tables, and writes it to 'out'
+     * @param match {iteration, map_idx, ai1_idx, ai2_idx}
+     * @param result {time (length of the game, in cycles), winner, crashed (the player
+     * 	whose AI crashed, or -1), timedout (the player whose AI timed out, or -1)}
+     * @param out
+     * @throws IOException
+     */
+    synchronized void recordResult(int[] match, int[] result, Writer out) throws IOException {
+        int iteration = match[0], map_idx = match[1], ai1_idx = match[2], ai2_idx = match[3];
+        int time = result[0], winner = result[1], crashed = result[2], timedout = result[3];
+        if (crashed == 0) {
+            this.AIcrashes[ai1_idx][ai2_idx]++;
+        } else if (crashed == 1) {
+            opponentAIcrashes[ai1_idx][ai2_idx]++;
+        } else if (timedout == 0) {
+            this.AItimeout[ai1_idx][ai2_idx]++;
+        } else if (timedout == 1) {
+            this.opponentAItimeout[ai1_idx][ai2_idx]++;
+        }
+
+        out.write(iteration + "\t" + map_idx + "\t" + ai1_idx + "\t" + ai2_idx + "\t"
+                + time + "\t" + winner + "\t" + crashed + "\t" + timedout + "\n");
+        out.flush();
+
         if (winner == -1) {
             this.ties[ai1_idx][ai2_idx]++;
         } else if (winner == 0) {
             this.wins[ai1_idx][ai2_idx]++;
         } else if (winner == 1) {
         }
-        accumTime[ai1_idx][ai2_idx] += gs.getTime();
+        accumTime[ai1_idx][ai2_idx] += time;
+
+        if (journal != null) {
+            journal.write(iteration + "\t" + map_idx + "\t" + ai1_idx + "\t" + ai2_idx + "\t"
+                    + time + "\t" + winner + "\t" + crashed + "\t" + timedout + "\t"
+                    + journalMaps.get(map_idx) + "\t" + describe(AIs.get(ai1_idx)) + "\t" + describe(opponentAIs.get(ai2_idx)) + "\n");
+            journal.flush();
+            journalStream.getFD().sync();
+        }
     }
 
-    private static void preAnalysisSingleAI(long preAnalysisBudgetFirstTimeInAMap, long preAnalysisBudgetRestOfTimes, Writer progress, String readWriteFolder, boolean[] firstPreAnalysis, int map_idx, AI ai1, GameState gs) throws Exception {
+    /**
+     * Opens the journal, recording the results of the matches already in it if resuming
+     * @return the matches that are not in the journal
+     */
+    private List<int[]> openJournal(List<String> maps, List<int[]> matches, Writer out) throws IOException {
+        File file = new File(journalFileName);
+        List<String> header = journalHeader(maps);
+        List<int[]> pending = matches;
+        long length = 0;
+        if (resumeFromJournal && file.exists()) {
+            Map<String, int[]> toPlay = new HashMap<>();
+            for (int[] m : matches) {
+                toPlay.put(m[0] + "\t" + m[1] + "\t" + m[2] + "\t" + m[3], m);
+            }
+            byte[] data = Files.readAllBytes(file.toPath());
+            int start = 0;
+            int headerLines = 0;
+            for (int end = 0; end < data.length; end++) {
+                if (data[end] != '\n') continue;
+                // only complete lines count: the last one might have been cut by a crash
+                String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+                start = end + 1;
+                if (headerLines < header.size()) {
+                    if (!line.equals(header.get(headerLines))) {
+                        throw new IOException("journal " + journalFileName + " is from a different tournament: " + line);
+                    }
+                    headerLines++;
+                    continue;
+                }
+                String[] tokens = line.split("\t");
+                if (tokens.length != 11) {
+                    throw new IOException("malformed line in journal " + journalFileName + ": " + line);
+                }
+                int[] m = toPlay.remove(tokens[0] + "\t" + tokens[1] + "\t" + tokens[2] + "\t" + tokens[3]);
+                if (m == null) continue;
+                if (!tokens[8].equals(maps.get(m[1])) || !tokens[9].equals(describe(AIs.get(m[2]))) ||
+                    !tokens[10].equals(describe(opponentAIs.get(m[3])))) {
+                    throw new IOException("journal " + journalFileName + " is from a different tournament: " + line);
+                }
+                int[] result = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    result[i] = Integer.parseInt(tokens[4 + i]);
+                }
+                recordResult(m, result, out);
+            }
+            // (a crash while writing the header leaves no results, so it is just written again):
+            length = headerLines < header.size() ? 0 : start;
+            pending = new ArrayList<>();
+            for (int[] m : matches) {
+                if (toPlay.containsKey(m[0] + "\t" + m[1] + "\t" + m[2] + "\t" + m[3])) pending.add(m);
+            }
+        }
+        journalStream = new FileOutputStream(file, length > 0);
+        // drop an incomplete last line, if any:
+        journalStream.getChannel().truncate(length);
+        journal = new BufferedWriter(new OutputStreamWriter(journalStream, StandardCharsets.UTF_8));
+        journalMaps = maps;
+        if (length == 0) {
+            for (String line : header) {
+                journal.write(line + "\n");
+            }
+            journal.flush();
+            journalStream.getFD().sync();
+        }
+        return pending;
+    }
+
+    /**
+     * @return the header lines of the journal of this tournament (see setJournal())
+     */
+    private List<String> journalHeader(List<String> maps) {
+        List<String> header = new ArrayList<>();
+        header.add("#\tjournal\t1");
+        for (int i = 0; i < maps.size(); i++) {
+            header.add("#\tmap\t" + i + "\t" + maps.get(i));
+        }
+        for (int i = 0; i < AIs.size(); i++) {
+            header.add("#\tAI\t" + i + "\t" + describe(AIs.get(i)));
+        }
+        for (int i = 0; i < opponentAIs.size(); i++) {
+            header.add("#\topponent\t" + i + "\t" + describe(opponentAIs.get(i)));
+        }
+        return header;
+    }
+
+    /**
+     * @return the class of 'ai' and the current values of its parameters (read with their
+     * getters), e.g. "ai.mcts.naivemcts.NaiveMCTS(TimeBudget=100,...)". Parameters that are
+     * AIs are described in the same way, and other objects by their class, since their
+     * toString() might differ between runs
+     */
+    static String describe(AI ai) {
+        StringBuilder description = new StringBuilder(ai.getClass().getName()).append("(");
+        List<ParameterSpecification> parameters = ai.getParameters();
+        for (int i = 0; parameters != null && i < parameters.size(); i++) {
+            ParameterSpecification p = parameters.get(i);
+            Object value;
+            try {
+                value = ai.getClass().getMethod("get" + p.name).invoke(ai);
+            } catch (ReflectiveOperationException e) {
+                value = "?";
+            }
+            if (i > 0) description.append(",");
+            description.append(p.name).append("=");
+            if (value == null || value instanceof Number || value instanceof Boolean ||
+                value instanceof String || value instanceof Enum) {
+                description.append(value);
+            } else if (value instanceof AI) {
+                description.append(describe((AI) value));
+            } else {
+                description.append(value.getClass().getName());
+            }
+        }
+        // (tabs and line breaks would break the journal):
+        return description.append(")").toString().replaceAll("[\t\r\n]", " ");
+    }
+
+    private synchronized void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalStream = null;
+        }
+    }
+
+    private void preAnalysisSingleAI(long preAnalysisBudgetFirstTimeInAMap, long preAnalysisBudgetRestOfTimes, Writer progress, String readWriteFolder, boolean[] firstPreAnalysis, int map_idx, AI ai1, GameState gs) throws Exception {
         long preTime1 = preAnalysisBudgetRestOfTimes;
-        if (firstPreAnalysis[map_idx]) {
-            preTime1 = preAnalysisBudgetFirstTimeInAMap;
-            firstPreAnalysis[map_idx] = false;
+        synchronized (firstPreAnalysis) {
+            if (firstPreAnalysis[map_idx]) {
+                preTime1 = preAnalysisBudgetFirstTimeInAMap;
+                firstPreAnalysis[map_idx] = false;
+            }
+        }
+        long pre_start1, pre_end1;
+        // the same AI might be analyzing the game in concurrent matches:
+        synchronized (folderLocks.computeIfAbsent(String.valueOf(readWriteFolder), f -> new Object())) {
+            pre_start1 = currentTimeMillis();
+            ai1.preGameAnalysis(gs, preTime1, readWriteFolder);
+            pre_end1 = currentTimeMillis();
         }
-        long pre_start1 = System.currentTimeMillis();
-        ai1.preGameAnalysis(gs, preTime1, readWriteFolder);
-        long pre_end1 = System.currentTimeMillis();
         if (progress != null) {
             progress.write("preGameAnalysis player 1 took " + (pre_end1 - pre_start1) + "\n");
             if ((pre_end1 - pre_start1) > preTime1) progress.write("TIMEOUT PLAYER 1!\n");
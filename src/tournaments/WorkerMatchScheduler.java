@@ -0,0 +1,64 @@
+package tournaments;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Worker side of {@link ProcessMatchScheduler}: instead of playing the matches of the
+ * tournament, connects to the coordinator and plays the matches it is sent, replying
+ * with their results, until it is told to quit (or the connection is closed). While a
+ * match is played, the coordinator is told which AI is running (see
+ * {@link Tournament#setDecisionListener}). Results are not recorded in this process.
+ */
+class WorkerMatchScheduler implements Tournament.MatchScheduler {
+
+    int port;
+
+    /**
+     * @param a_port loopback port the coordinator is listening on
+     */
+    WorkerMatchScheduler(int a_port) {
+        port = a_port;
+    }
+
+    public void runMatches(Tournament tournament, List<int[]> matches, Tournament.MatchRunner runner, Writer out) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter reply = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            tournament.setDecisionListener(player -> {
+                reply.println("TURN " + player);
+                reply.flush();
+            });
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+                String[] tokens = line.split(" ");
+                if (!tokens[0].equals("MATCH") || tokens.length != 5) {
+                    throw new IllegalArgumentException("unexpected request: " + line);
+                }
+                int[] m = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    m[i] = Integer.parseInt(tokens[1 + i]);
+                }
+                String answer;
+                try {
+                    int[] result = runner.play(m[0], m[1], m[2], m[3]);
+                    answer = "RESULT " + m[0] + " " + m[1] + " " + m[2] + " " + m[3] + " " +
+                             result[0] + " " + result[1] + " " + result[2] + " " + result[3];
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    answer = "ERROR " + String.valueOf(e).replace('\n', ' ');
+                }
+                reply.println(answer);
+                reply.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package util;
+
+/**
+ * Hash map from primitive long keys to non-null values, using open addressing with linear
+ * probing, so that looking up a key neither boxes it nor follows chains of entries.
+ * Entries cannot be removed. The tables are only allocated when the first entry is added.
+ *
+ * @param <V>
+ */
+public class LongHashMap<V> {
+
+    long keys[];
+    Object values[];
+    int size = 0;
+    // 64 - log2(capacity), see slot:
+    int shift;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key
+     * @return the value associated with 'key', or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (keys == null) return null;
+        int mask = keys.length - 1;
+        for (int i = slot(key, shift); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V)values[i];
+        }
+        return null;
+    }
+
+    /**
+     * Associates 'value' (which must not be null) with 'key', replacing the previous value
+     * associated with it, if any
+     * @param key
+     * @param value
+     */
+    public void put(long key, V value) {
+        if (value == null) throw new IllegalArgumentException("null values are not supported");
+        if (keys == null) {
+            keys = new long[4];
+            values = new Object[4];
+            shift = 62;
+        } else if (2 * (size + 1) > keys.length) {
+            resize(2 * keys.length);
+        }
+        if (insert(key, value)) size++;
+    }
+
+    boolean insert(long key, Object value) {
+        int mask = keys.length - 1;
+        int i = slot(key, shift);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        return true;
+    }
+
+    void resize(int capacity) {
+        long oldKeys[] = keys;
+        Object oldValues[] = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        shift = Long.numberOfLeadingZeros(capacity - 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    /**
+     * Fibonacci hashing: the highest bits of the product depend on all the bits of the key,
+     * so keys that are consecutive, or that only differ in their highest bits (e.g., mixed-
+     * radix codes differing in their last digits), are spread over the table
+     * @param key
+     * @param shift 64 - log2(capacity of the table)
+     * @return
+     */
+    static int slot(long key, int shift) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -114,6 +114,13 @@ public class Sampler {
      * Returns an element in the distribution, using the weights as their relative probabilities
      */
     public static int weighted(double[] distribution) throws Exception {
+        return weighted(distribution, generator);
+    }
+
+    /*
+     * Same as weighted(distribution), but using the given random number generator
+     */
+    public static int weighted(double[] distribution, Random r) throws Exception {
         double total = 0, accum = 0, tmp;
 
         for(double f : distribution) {
@@ -121,9 +128,9 @@ public class Sampler {
         }
 
         if(total == 0)
-            return random(distribution);
+            return r.nextInt(distribution.length);
 
-        tmp = generator.nextDouble() * total;
+        tmp = r.nextDouble() * total;
 
         for(int i = 0; i < distribution.length; i++) {
             accum += distribution[i];
@@ -140,6 +147,13 @@ public class Sampler {
      * Returns an element in the distribution, using the weights as their relative probabilities
      */
     public static Object weighted(List<Double> distribution, List<?> outputs) throws Exception {
+        return weighted(distribution, outputs, generator);
+    }
+
+    /*
+     * Same as weighted(distribution, outputs), but using the given random number generator
+     */
+    public static Object weighted(List<Double> distribution, List<?> outputs, Random r) throws Exception {
         double total = 0, accum = 0, tmp;
 
         for(double f : distribution) {
@@ -147,9 +161,9 @@ public class Sampler {
         }
 
         if(total == 0)
-            return outputs.get(generator.nextInt(outputs.size()));
+            return outputs.get(r.nextInt(outputs.size()));
 
-        tmp = generator.nextDouble() * total;
+        tmp = r.nextDouble() * total;
 
         for(int i = 0; i < distribution.size(); i++) {
             accum += distribution.get(i);
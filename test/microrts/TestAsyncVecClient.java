@@ -0,0 +1,102 @@
+package microrts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.jni.Responses;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.ResourceGatherRewardFunction;
+import ai.reward.WinLossRewardFunction;
+import rts.units.UnitTypeTable;
+import tests.JNIGridnetVecClient;
+
+/**
+ * Unit test to verify the double-buffer handoff of
+ * {@link JNIGridnetVecClient#stepAsync(int[][][], int[])}: the results of each step
+ * are written into the buffer that does not hold the previous ones, which stays
+ * untouched while the step runs, and they match those of the same steps run
+ * with {@link JNIGridnetVecClient#gameStep(int[][][], int[])}.
+ */
+public class TestAsyncVecClient {
+
+	private static final int ENVS = 2;
+	private static final int STEPS = 60;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDoubleBuffering() throws Exception {
+		final JNIGridnetVecClient sync = vec();
+		final JNIGridnetVecClient async = vec();
+		final int size = sync.getObservationSize() * ENVS;
+		final IntBuffer syncObservations = buffer(size);
+		sync.setObservationBuffer(syncObservations, false);
+		final ByteBuffer first = ByteBuffer.allocateDirect(size * 4);
+		final ByteBuffer second = ByteBuffer.allocateDirect(size * 4);
+		final IntBuffer[] asyncObservations = {
+				first.order(ByteOrder.nativeOrder()).asIntBuffer(),
+				second.order(ByteOrder.nativeOrder()).asIntBuffer()};
+		async.setObservationBuffers(first, second, false);
+
+		final int[] players = new int[ENVS];
+		final int[][][] actions = new int[ENVS][0][];
+		sync.reset(players);
+		async.reset(players);
+		assertEquals(0, async.getBufferIndex());
+		assertArrayEquals(ints(syncObservations), ints(asyncObservations[0]));
+
+		Responses previous = null;
+		for (int step = 0; step < STEPS; step++) {
+			final int current = async.getBufferIndex();
+			final int[] before = ints(asyncObservations[current]);
+			async.stepAsync(actions, players);
+			// the results of the previous step can be read while the step runs:
+			assertArrayEquals(before, ints(asyncObservations[current]));
+			final Responses expected = sync.gameStep(actions, players);
+			final Responses r = async.stepWait();
+
+			assertEquals(1 - current, async.getBufferIndex());
+			assertArrayEquals(before, ints(asyncObservations[current]));
+			assertArrayEquals(ints(syncObservations), ints(asyncObservations[1 - current]));
+			for (int i = 0; i < ENVS; i++) {
+				assertArrayEquals(expected.reward[i], r.reward[i], 0.0);
+				assertArrayEquals(expected.done[i], r.done[i]);
+			}
+			if (previous != null) {
+				// the rewards of the previous step are not overwritten by this one:
+				assertNotSame(previous.reward, r.reward);
+			}
+			previous = r;
+		}
+		sync.close();
+		async.close();
+	}
+
+	private static JNIGridnetVecClient vec() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final RewardFunctionInterface[] rfs = {new WinLossRewardFunction(), new ResourceGatherRewardFunction()};
+		final JNIGridnetVecClient vec = new JNIGridnetVecClient(0, ENVS, 1000, rfs, "",
+				new String[]{"maps/8x8/basesWorkers8x8.xml", "maps/8x8/basesWorkers8x8.xml"},
+				new AI[]{new WorkerRush(utt), new WorkerRush(utt)}, utt, false);
+		vec.setSeed(1);
+		return vec;
+	}
+
+	private static IntBuffer buffer(final int size) {
+		return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	private static int[] ints(final IntBuffer buffer) {
+		final int[] values = new int[buffer.capacity()];
+		buffer.duplicate().get(values);
+		return values;
+	}
+}
@@ -0,0 +1,69 @@
+package microrts;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+import ai.abstraction.WorkerRush;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.WinLossRewardFunction;
+import rts.units.UnitTypeTable;
+import tests.JNIGridnetClient;
+
+/**
+ * Unit test to verify that the masks written by {@link JNIGridnetClient#writeMasks(int, IntBuffer, int)}
+ * and {@link JNIGridnetClient#writePackedMasks(int, ByteBuffer, int)} are the same whether
+ * the caller passes the same buffer in every step or a new view of its memory each time.
+ */
+public class TestJNIGridnetClientMasks {
+
+	private static final int STEPS = 60;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testBufferViews() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final JNIGridnetClient client = new JNIGridnetClient(new RewardFunctionInterface[]{new WinLossRewardFunction()},
+				"", "maps/8x8/basesWorkers8x8.xml", new WorkerRush(utt), utt, false);
+		client.setSeed(1);
+		client.reset(0);
+		final int[] expected = flatten(client.getMasks(0));
+		final int[] masks = new int[expected.length];
+		final IntBuffer sameMasks = IntBuffer.allocate(expected.length);
+		final byte[] packed = new byte[expected.length];
+		final ByteBuffer samePacked = ByteBuffer.allocate(expected.length);
+
+		for (int step = 0; step < STEPS; step++) {
+			client.writeMasks(0, sameMasks, 0);
+			client.writeMasks(0, IntBuffer.wrap(masks), 0);
+			assertArrayEquals(flatten(client.getMasks(0)), masks);
+			assertArrayEquals(sameMasks.array(), masks);
+
+			client.writePackedMasks(0, samePacked, 0);
+			client.writePackedMasks(0, ByteBuffer.wrap(packed), 0);
+			assertArrayEquals(samePacked.array(), packed);
+
+			client.gameStep(new int[0][], 0);
+		}
+		client.close();
+	}
+
+	private static int[] flatten(final int[][][] masks) {
+		int size = 0;
+		for (final int[][] row : masks) {
+			for (final int[] cell : row) size += cell.length;
+		}
+		final int[] values = new int[size];
+		int i = 0;
+		for (final int[][] row : masks) {
+			for (final int[] cell : row) {
+				System.arraycopy(cell, 0, values, i, cell.length);
+				i += cell.length;
+			}
+		}
+		return values;
+	}
+}
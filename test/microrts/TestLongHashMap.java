@@ -0,0 +1,113 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import util.LongHashMap;
+
+/**
+ * Unit test to verify that {@link LongHashMap} behaves like a map from longs, including when
+ * it grows and when keys collide.
+ */
+public class TestLongHashMap {
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testPutGet() {
+		final LongHashMap<String> map = new LongHashMap<>();
+		assertEquals(0, map.size());
+		assertNull(map.get(0));
+
+		map.put(0, "zero");
+		map.put(-1, "minus one");
+		map.put(Long.MIN_VALUE, "min");
+		map.put(Long.MAX_VALUE, "max");
+		assertEquals(4, map.size());
+		assertEquals("zero", map.get(0));
+		assertEquals("minus one", map.get(-1));
+		assertEquals("min", map.get(Long.MIN_VALUE));
+		assertEquals("max", map.get(Long.MAX_VALUE));
+		assertNull(map.get(1));
+
+		// replacing a value does not add an entry:
+		map.put(-1, "replaced");
+		assertEquals(4, map.size());
+		assertEquals("replaced", map.get(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	@SuppressWarnings("static-method")
+	public void testNullValue() {
+		new LongHashMap<String>().put(1, null);
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testResize() {
+		final LongHashMap<Long> map = new LongHashMap<>();
+		final Map<Long, Long> expected = new HashMap<>();
+		final Random r = new Random(1);
+		// consecutive keys (like mixed-radix codes) and random ones:
+		for (long key = 0; key < 1000; key++) {
+			map.put(key, key * 2);
+			expected.put(key, key * 2);
+		}
+		for (int i = 0; i < 1000; i++) {
+			final long key = r.nextLong();
+			map.put(key, key + 1);
+			expected.put(key, key + 1);
+		}
+		check(map, expected);
+		for (long key = 1000; key < 1100; key++) assertNull(map.get(key));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testCollisions() {
+		// multiples of the inverse of the hashing multiplier (whose products by it are the
+		// small numbers 0..63) end up in the same slot of tables of up to 2^58 entries, so
+		// they are all found by probing:
+		final long inverse = 0xF1DE83E19937733DL;
+		final LongHashMap<Long> map = new LongHashMap<>();
+		final Map<Long, Long> expected = new HashMap<>();
+		for (long j = 0; j < 64; j++) {
+			map.put(j * inverse, j);
+			expected.put(j * inverse, j);
+			check(map, expected);
+		}
+		for (long j = 0; j < 64; j++) {
+			map.put(j * inverse, -j);
+			expected.put(j * inverse, -j);
+		}
+		check(map, expected);
+		assertNull(map.get(64 * inverse));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testHighBits() {
+		// keys that only differ in their highest bits (like the action codes of children that
+		// only differ in the actions of the last units):
+		final LongHashMap<Long> map = new LongHashMap<>();
+		final Map<Long, Long> expected = new HashMap<>();
+		for (long j = 0; j < 64; j++) {
+			map.put(j << 58, j);
+			expected.put(j << 58, j);
+			check(map, expected);
+		}
+		assertNull(map.get(1L << 57));
+	}
+
+	private static void check(final LongHashMap<Long> map, final Map<Long, Long> expected) {
+		assertEquals(expected.size(), map.size());
+		for (final Map.Entry<Long, Long> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+}
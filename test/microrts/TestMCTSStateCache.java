@@ -0,0 +1,129 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.GameStateCache;
+import ai.mcts.MCTSNode;
+import ai.mcts.naivemcts.NaiveMCTS;
+import ai.mcts.naivemcts.NaiveMCTSNode;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that NaiveMCTS can search with a state cache (see
+ * {@link NaiveMCTS#setStateCacheSize(int)}) in seeded games, including
+ * non-deterministic ones (where the cache is not used), and that the states
+ * rebuilt after being evicted from the cache are the original ones.
+ */
+public class TestMCTSStateCache {
+
+	private static final int CAPACITY = 8;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDeterministic() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		assertTrue(utt.isDeterministic());
+		play(utt);
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testNonDeterministic() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_NON_DETERMINISTIC,
+				UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+		assertTrue(!utt.isDeterministic());
+		play(utt);
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testRebuild() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt), utt);
+		final NaiveMCTS ai = new NaiveMCTS(-1, 200, 50, 10, 0.3f, 0.0f, 0.4f, new RandomBiasedAI(),
+				new SimpleSqrtEvaluationFunction3(), true);
+		ai.startNewComputation(0, gs);
+		final RecordingCache cache = new RecordingCache(CAPACITY);
+		ai.getTree().setStateCache(cache);
+		ai.computeDuringOneGameFrame();
+		assertTrue(cache.originals.size() > CAPACITY);
+		int rebuilt = 0;
+		for (final Map.Entry<NaiveMCTSNode, GameState> entry : cache.originals.entrySet()) {
+			final NaiveMCTSNode node = entry.getKey();
+			assertNull(node.gs);
+			if (cache.get(node) == null) rebuilt++;
+			assertTrue(MCTSNode.sameState(entry.getValue(), node.getGameState()));
+			assertTrue(cache.size() <= CAPACITY);
+		}
+		assertTrue(rebuilt > 0);
+	}
+
+	private static void play(final UnitTypeTable utt) throws Exception {
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt), utt);
+		gs.setSeed(11);
+		final NaiveMCTS ai1 = new NaiveMCTS(-1, 100, 50, 10, 0.3f, 0.0f, 0.4f, new RandomBiasedAI(),
+				new SimpleSqrtEvaluationFunction3(), true);
+		ai1.setStateCacheSize(CAPACITY);
+		ai1.setTreeReuse(true);
+		final AI ai2 = new WorkerRush(utt);
+		boolean gameover = false;
+		while (!gameover && gs.getTime() < 300) {
+			gs.issueSafe(ai1.getAction(0, gs));
+			checkStates(ai1.getTree(), utt.isDeterministic());
+			// (reused roots from the cache have released their move generators):
+			if (ai1.getTree().type != -1) assertFalse(ai1.statisticsString().endsWith("max branching factor: 0"));
+			gs.issueSafe(ai2.getAction(1, gs));
+			gameover = gs.cycle();
+		}
+	}
+
+	/**
+	 * Checks that only the root keeps its state when the cache is used
+	 */
+	private static void checkStates(final MCTSNode node, final boolean cached) {
+		if (node.parent == null || !cached) {
+			assertNotNull(node.gs);
+		} else {
+			assertNull(node.gs);
+		}
+		if (node.children == null) return;
+		for (final MCTSNode child : node.children) {
+			assertEquals(node, child.parent);
+			checkStates(child, cached);
+		}
+	}
+
+	/**
+	 * State cache that also keeps (a copy of) the state each node was created with, and
+	 * checks that it never exceeds its capacity
+	 */
+	private static class RecordingCache extends GameStateCache<NaiveMCTSNode> {
+		final Map<NaiveMCTSNode, GameState> originals = new IdentityHashMap<>();
+
+		RecordingCache(final int capacity) {
+			super(capacity);
+		}
+
+		@Override
+		public void put(final NaiveMCTSNode key, final GameState state) {
+			if (!originals.containsKey(key)) originals.put(key, state.clone());
+			super.put(key, state);
+			assertTrue(size() <= getCapacity());
+		}
+	}
+}
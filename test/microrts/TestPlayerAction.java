@@ -0,0 +1,104 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/**
+ * Unit test to verify that the unit lookups of {@link PlayerAction} stay
+ * consistent with its list of actions as it is modified.
+ */
+public class TestPlayerAction {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testLookups() {
+		final PhysicalGameState pgs = new PhysicalGameState(16, 16);
+		final List<Unit> units = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			final Unit u = new Unit(0, UTT.getUnitType("Worker"), i % 16, i / 16, 0);
+			pgs.addUnit(u);
+			units.add(u);
+		}
+
+		final PlayerAction pa = new PlayerAction();
+		for (int i = 0; i < units.size(); i++) {
+			pa.addUnitAction(units.get(i), new UnitAction(UnitAction.TYPE_NONE, i));
+			for (int j = 0; j < units.size(); j++) {
+				final UnitAction ua = pa.getAction(units.get(j));
+				if (j <= i) {
+					assertEquals(j, ua.getDirection());
+				} else {
+					assertNull(ua);
+				}
+			}
+		}
+
+		// removals shift the positions of the following actions:
+		for (int i = 0; i < units.size(); i += 3) {
+			final Unit u = units.get(i);
+			pa.removeUnitAction(u, pa.getAction(u));
+			assertNull(pa.getAction(u));
+		}
+		for (int i = 0; i < units.size(); i++) {
+			final UnitAction ua = pa.getAction(units.get(i));
+			if (i % 3 == 0) {
+				assertNull(ua);
+			} else {
+				assertEquals(i, ua.getDirection());
+			}
+		}
+
+		// changes through the list returned by getActions:
+		final UnitAction replacement = new UnitAction(UnitAction.TYPE_NONE, 100);
+		pa.getActions().set(0, new Pair<>(units.get(1), replacement));
+		assertSame(replacement, pa.getAction(units.get(1)));
+		final Pair<Unit, UnitAction> removed = pa.getActions().remove(pa.getActions().size() - 1);
+		assertNull(pa.getAction(removed.m_a));
+
+		// units replaced in place (which the list does not notice):
+		pa.setUnit(0, units.get(0));
+		assertSame(replacement, pa.getAction(units.get(0)));
+		pa.setUnit(0, units.get(3));
+		assertNull(pa.getAction(units.get(0)));
+		assertSame(replacement, pa.getAction(units.get(3)));
+
+		// lookups only go through the index, so a unit replaced without
+		// notifying the PlayerAction is not found until the index is rebuilt:
+		pa.getActions().get(0).m_a = units.get(6);
+		assertNull(pa.getAction(units.get(6)));
+		pa.invalidateIndex();
+		assertSame(replacement, pa.getAction(units.get(6)));
+		pa.setUnit(0, units.get(3));
+
+		// equality matches units by ID, so it holds between clones of the state:
+		final GameState gs = new GameState(pgs, UTT);
+		final GameState gs2 = gs.clone();
+		final PlayerAction pa2 = new PlayerAction();
+		for (final Pair<Unit, UnitAction> p : pa.getActions()) {
+			pa2.addUnitAction(gs2.getUnit(p.m_a.getID()), p.m_b);
+		}
+		assertTrue(pa.equals(pa2));
+		assertTrue(pa.equals(pa.clone()));
+		pa2.getActions().get(5).m_b = new UnitAction(UnitAction.TYPE_NONE, 1000);
+		assertFalse(pa.equals(pa2));
+	}
+
+}
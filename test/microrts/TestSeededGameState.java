@@ -0,0 +1,133 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import ai.RandomAI;
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.naivemcts.NaiveMCTS;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.PlayerActionGenerator;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that games whose state has its own seeded generator
+ * (see {@link GameState#setSeed(long)}) can be replayed, even when games are
+ * simulated concurrently.
+ */
+public class TestSeededGameState {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable(UnitTypeTable.VERSION_ORIGINAL_FINETUNED,
+			UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testReplay() throws Exception {
+		final List<Long> keys = play(42);
+		assertEquals(keys, play(42));
+
+		// the same games, played concurrently:
+		final List<List<Long>> results = new ArrayList<>();
+		final List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			results.add(null);
+			final int index = i;
+			final Thread t = new Thread(() -> {
+				try {
+					results.set(index, play(42));
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for (final Thread t : threads) {
+			t.join();
+		}
+		for (final List<Long> result : results) {
+			assertEquals(keys, result);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testReplayWithSearch() throws Exception {
+		// searching (i.e., cloning the state and simulating from the clones) between
+		// cycles must not change the random numbers drawn by the state itself:
+		final List<Long> keys = playScripted(7, false);
+		assertEquals(keys, playScripted(7, true));
+		assertEquals(keys, playScripted(7, true));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testRandomizedOrder() throws Exception {
+		// the order of the actions of a generator is randomized with the generator of the state:
+		assertEquals(randomizedActions(3), randomizedActions(3));
+	}
+
+	private static List<String> randomizedActions(final long seed) throws Exception {
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+		gs.setSeed(seed);
+		final PlayerActionGenerator generator = new PlayerActionGenerator(gs, 0);
+		generator.randomizeOrder();
+		final List<String> actions = new ArrayList<>();
+		PlayerAction pa;
+		while ((pa = generator.getNextAction(-1)) != null) {
+			actions.add(pa.toString());
+		}
+		return actions;
+	}
+
+	private static List<Long> playScripted(final long seed, final boolean search) throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable(UnitTypeTable.VERSION_NON_DETERMINISTIC,
+				UnitTypeTable.MOVE_CONFLICT_RESOLUTION_CANCEL_RANDOM);
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt), utt);
+		gs.setSeed(seed);
+		final AI ai1 = new WorkerRush(utt);
+		final AI ai2 = new LightRush(utt);
+		final AI searcher = new NaiveMCTS(-1, 20, 20, 10, 0.3f, 0.0f, 0.4f, new RandomBiasedAI(),
+				new SimpleSqrtEvaluationFunction3(), true);
+		final List<Long> keys = new ArrayList<>();
+		boolean gameover = false;
+		while (!gameover && gs.getTime() < 1000) {
+			if (search) {
+				searcher.getAction(0, gs);
+			}
+			gs.issueSafe(ai1.getAction(0, gs));
+			gs.issueSafe(ai2.getAction(1, gs));
+			gameover = gs.cycle();
+			keys.add(gs.getZobristKey());
+		}
+		return keys;
+	}
+
+	private static List<Long> play(final long seed) throws Exception {
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+		gs.setSeed(seed);
+		final AI ai1 = new RandomAI();
+		final AI ai2 = new RandomAI();
+		final List<Long> keys = new ArrayList<>();
+		boolean gameover = false;
+		while (!gameover && gs.getTime() < 1000) {
+			// the AIs draw their actions from clones, as search-based AIs do:
+			gs.issueSafe(ai1.getAction(0, gs.clone()));
+			gs.issueSafe(ai2.getAction(1, gs.clone()));
+			gameover = gs.cycle();
+			keys.add(gs.getZobristKey());
+		}
+		return keys;
+	}
+
+}
@@ -0,0 +1,188 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.WinLossRewardFunction;
+import rts.units.UnitTypeTable;
+import tests.JNIGridnetVecClient;
+import tests.SharedMemoryVecClient;
+
+/**
+ * Unit test to verify that {@link SharedMemoryVecClient} serves requests written into its
+ * file by a learner (played by the test itself, through its own mapping of the file), that
+ * it reports failed requests, and that it stops when the learner stops sending requests and
+ * heartbeats.
+ */
+public class TestSharedMemoryVecClient {
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testRoundTrip() throws Exception {
+		final File file = File.createTempFile("vec", ".bin");
+		file.deleteOnExit();
+		final SharedMemoryVecClient server = new SharedMemoryVecClient(vec(), file, 2, false, 10000);
+		final MappedByteBuffer buffer = map(file);
+		assertEquals(SharedMemoryVecClient.MAGIC, buffer.getInt(0));
+		assertEquals(SharedMemoryVecClient.VERSION, buffer.getInt(4));
+		assertEquals(1, buffer.getInt(8));
+		assertEquals(2, buffer.getInt(12));
+		assertEquals(10000, buffer.getInt(SharedMemoryVecClient.TIMEOUT_OFFSET));
+
+		final Exception[] failure = new Exception[1];
+		final Thread thread = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (final Exception e) {
+				failure[0] = e;
+			}
+		});
+		thread.start();
+		try {
+			// reset (slot 0):
+			final long base = request(server, buffer, 1, SharedMemoryVecClient.RESET);
+			assertEquals(SharedMemoryVecClient.STATUS_READY, buffer.getInt(SharedMemoryVecClient.STATUS_OFFSET));
+			assertTrue(anyNonZero(buffer, base + server.observationsOffset(), server.rewardsOffset() - server.observationsOffset()));
+			// the workers and the base can do something:
+			assertTrue(anyNonZero(buffer, base + server.masksOffset(), server.getSlotSize() - server.masksOffset()));
+
+			// a step with no actions (slot 1), in which the game does not end:
+			final long base2 = request(server, buffer, 2, SharedMemoryVecClient.STEP);
+			assertEquals(0, buffer.get((int) (base2 + server.donesOffset())));
+			assertTrue(anyNonZero(buffer, base2 + server.observationsOffset(), server.rewardsOffset() - server.observationsOffset()));
+
+			// close (slot 0 again):
+			request(server, buffer, 3, SharedMemoryVecClient.CLOSE);
+			thread.join(10000);
+			assertTrue(!thread.isAlive());
+			assertNull(failure[0]);
+			assertEquals(SharedMemoryVecClient.STATUS_CLOSED, buffer.getInt(SharedMemoryVecClient.STATUS_OFFSET));
+		} finally {
+			thread.interrupt();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testFailedRequest() throws Exception {
+		final File file = File.createTempFile("vec", ".bin");
+		file.deleteOnExit();
+		final SharedMemoryVecClient server = new SharedMemoryVecClient(vec(), file, 1, false, 10000);
+		final MappedByteBuffer buffer = map(file);
+		final Exception[] failure = new Exception[1];
+		final Thread thread = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (final Exception e) {
+				failure[0] = e;
+			}
+		});
+		thread.start();
+		try {
+			// an unknown command is completed with the error flag set, and the server stops
+			// throwing the exception:
+			final long base = server.slotOffset(0);
+			buffer.putInt((int) base, 42);
+			LONGS.setVolatile(buffer, SharedMemoryVecClient.REQUEST_OFFSET, 1L);
+			thread.join(10000);
+			assertTrue(!thread.isAlive());
+			assertEquals(1L, (long) LONGS.getVolatile(buffer, SharedMemoryVecClient.COMPLETED_OFFSET));
+			assertEquals(1, buffer.getInt((int) (base + 4)));
+			assertTrue(failure[0] instanceof IllegalArgumentException);
+			assertEquals(SharedMemoryVecClient.STATUS_CLOSED, (int) INTS.getVolatile(buffer, SharedMemoryVecClient.STATUS_OFFSET));
+		} finally {
+			thread.interrupt();
+		}
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testTimeout() throws Exception {
+		final File file = File.createTempFile("vec", ".bin");
+		file.deleteOnExit();
+		final SharedMemoryVecClient server = new SharedMemoryVecClient(vec(), file, 1, false, 300);
+		final MappedByteBuffer buffer = map(file);
+		// heartbeats keep the server waiting, until they stop:
+		final Thread learner = new Thread(() -> {
+			for (long beat = 1; beat <= 20; beat++) {
+				LONGS.setVolatile(buffer, SharedMemoryVecClient.HEARTBEAT_OFFSET, beat);
+				try {
+					Thread.sleep(50);
+				} catch (final InterruptedException e) {
+					return;
+				}
+			}
+		});
+		final long start = System.currentTimeMillis();
+		learner.start();
+		try {
+			server.serve();
+			fail("the server did not time out");
+		} catch (final TimeoutException e) {
+			assertTrue(System.currentTimeMillis() - start >= 1000);
+		} finally {
+			learner.interrupt();
+		}
+		assertEquals(SharedMemoryVecClient.STATUS_CLOSED, (int) INTS.getVolatile(buffer, SharedMemoryVecClient.STATUS_OFFSET));
+	}
+
+	private static JNIGridnetVecClient vec() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final RewardFunctionInterface[] rfs = {new WinLossRewardFunction()};
+		return new JNIGridnetVecClient(0, 1, 1000, rfs, "", new String[]{"maps/8x8/basesWorkers8x8.xml"},
+				new AI[]{new WorkerRush(utt)}, utt, false);
+	}
+
+	private static MappedByteBuffer map(final File file) throws Exception {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			buffer.order(ByteOrder.nativeOrder());
+			return buffer;
+		}
+	}
+
+	/**
+	 * Publishes request 'n' (with no actions, for player 0) and waits for it to be completed
+	 * @return the offset of the slot of the request
+	 */
+	private static long request(final SharedMemoryVecClient server, final MappedByteBuffer buffer, final long n, final int command) throws Exception {
+		final long base = server.slotOffset((int) ((n - 1) % buffer.getInt(12)));
+		buffer.putInt((int) base, command);
+		buffer.putInt((int) (base + server.playersOffset()), 0);
+		buffer.putInt((int) (base + server.actionCountsOffset()), 0);
+		LONGS.setVolatile(buffer, SharedMemoryVecClient.REQUEST_OFFSET, n);
+		final long deadline = System.currentTimeMillis() + 10000;
+		while ((long) LONGS.getVolatile(buffer, SharedMemoryVecClient.COMPLETED_OFFSET) != n) {
+			if (System.currentTimeMillis() > deadline) fail("request " + n + " was not completed");
+			Thread.sleep(1);
+		}
+		assertEquals(0, buffer.getInt((int) (base + 4)));
+		return base;
+	}
+
+	private static boolean anyNonZero(final MappedByteBuffer buffer, final long offset, final long length) {
+		for (long i = offset; i < offset + length; i++) {
+			if (buffer.get((int) i) != 0) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,82 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import ai.reward.AttackRewardFunction;
+import ai.reward.CloserToEnemyBaseRewardFunction;
+import ai.reward.ProduceBuildingRewardFunction;
+import ai.reward.ProduceCombatUnitRewardFunction;
+import ai.reward.ProduceWorkerRewardFunction;
+import ai.reward.ResourceGatherRewardFunction;
+import ai.reward.RewardFunctionInterface;
+import ai.reward.WinLossRewardFunction;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.TraceEntry;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that rewards computed from the events recorded by a
+ * {@link GameState} match the rewards computed from a {@link TraceEntry}.
+ */
+public class TestStepEvents {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testRewardsFromEvents() throws Exception {
+		final RewardFunctionInterface[] fromTraces = rewardFunctions();
+		final RewardFunctionInterface[] fromEvents = rewardFunctions();
+		final AI[][] matchups = {
+				{new WorkerRush(UTT), new LightRush(UTT)},
+				{new RandomBiasedAI(), new WorkerRush(UTT)},
+		};
+
+		for (final AI[] ais : matchups) {
+			final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+			gs.setEventRecording(true);
+			boolean gameover = false;
+			while (!gameover && gs.getTime() < 1500) {
+				final PlayerAction pa1 = ais[0].getAction(0, gs);
+				final PlayerAction pa2 = ais[1].getAction(1, gs);
+				gs.getEvents().clear();
+				gs.issueSafe(pa1);
+				gs.issueSafe(pa2);
+				final TraceEntry te = new TraceEntry(gs.getPhysicalGameState().clone(), gs.getTime());
+				te.addPlayerAction(pa1.clone());
+				te.addPlayerAction(pa2.clone());
+				gameover = gs.cycle();
+
+				for (int player = 0; player < 2; player++) {
+					for (int i = 0; i < fromTraces.length; i++) {
+						fromTraces[i].computeReward(player, 1 - player, te, gs);
+						fromEvents[i].computeReward(player, 1 - player, gs.getEvents(), gs);
+						assertEquals(fromTraces[i] + " at time " + gs.getTime(), fromTraces[i].getReward(), fromEvents[i].getReward(), 1e-9);
+						assertEquals(fromTraces[i] + " at time " + gs.getTime(), fromTraces[i].isDone(), fromEvents[i].isDone());
+					}
+				}
+			}
+		}
+	}
+
+	private static RewardFunctionInterface[] rewardFunctions() {
+		return new RewardFunctionInterface[] {
+				new WinLossRewardFunction(),
+				new AttackRewardFunction(),
+				new ResourceGatherRewardFunction(),
+				new ProduceWorkerRewardFunction(),
+				new ProduceBuildingRewardFunction(),
+				new ProduceCombatUnitRewardFunction(),
+				new CloserToEnemyBaseRewardFunction(),
+		};
+	}
+
+}
@@ -0,0 +1,64 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.MCTSNode;
+import ai.mcts.naivemcts.ConcurrentNaiveMCTSNode;
+import ai.mcts.naivemcts.NaiveMCTSNode;
+import ai.mcts.naivemcts.TreeParallelNaiveMCTS;
+import ai.mcts.naivemcts.UnitActionTableEntry;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the statistics of the tree searched concurrently by
+ * {@link TreeParallelNaiveMCTS} (made of {@link ConcurrentNaiveMCTSNode}s) count each
+ * iteration once, and that no virtual loss is left in them after the search.
+ */
+public class TestTreeParallelNaiveMCTS {
+
+	private static final int ITERATIONS = 2000;
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testStatistics() throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final GameState gs = new GameState(PhysicalGameState.load("maps/16x16/basesWorkers16x16.xml", utt), utt);
+		final EvaluationFunction ef = new SimpleSqrtEvaluationFunction3();
+		final double bound = ef.upperBound(gs);
+		final TreeParallelNaiveMCTS ai = new TreeParallelNaiveMCTS(-1, ITERATIONS, 100, 10, 0.3f, 0.0f, 0.4f,
+				new RandomBiasedAI(), ef, true, 4);
+		// large enough for any virtual loss left to push the averages out of bounds:
+		ai.setVirtualLoss(1000);
+		ai.startNewComputation(0, gs.clone());
+		ai.computeDuringOneGameFrame();
+		assertEquals(ITERATIONS, ai.total_runs);
+		assertEquals(ITERATIONS, ai.getTree().visit_count);
+		check(ai.getTree(), bound);
+	}
+
+	private static void check(final MCTSNode node, final double bound) {
+		assertTrue(Math.abs(node.accum_evaluation) <= node.visit_count * bound + 1e-6);
+		if (node.children == null) return;
+		int childVisits = 0;
+		for (final MCTSNode child : node.children) {
+			childVisits += child.visit_count;
+			check(child, bound);
+		}
+		assertTrue(childVisits <= node.visit_count);
+		if (((NaiveMCTSNode) node).unitActionTable == null) return;
+		for (final UnitActionTableEntry ate : ((NaiveMCTSNode) node).unitActionTable) {
+			for (int i = ate.offset; i < ate.offset + ate.nactions; i++) {
+				assertTrue(ate.visit_count[i] <= childVisits);
+				assertTrue(Math.abs(ate.accum_evaluation[i]) <= ate.visit_count[i] * bound + 1e-6);
+			}
+		}
+	}
+}
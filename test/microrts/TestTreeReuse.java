@@ -0,0 +1,115 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.core.InterruptibleAI;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import ai.mcts.MCTSNode;
+import ai.mcts.naivemcts.NaiveMCTS;
+import ai.mcts.uct.UCT;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that NaiveMCTS and UCT reuse the subtree of the state in which they
+ * have to decide next (only looking for it down to their next decisions, see
+ * {@link MCTSNode#findNode(GameState, int)}), and start a new tree for other states.
+ */
+public class TestTreeReuse {
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testNaiveMCTS() throws Exception {
+		final NaiveMCTS ai = new NaiveMCTS(-1, 2000, 100, 10, 0.3f, 0.0f, 0.4f,
+				new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3(), true);
+		ai.setTreeReuse(true);
+		check(ai, ai::getTree);
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testUCT() throws Exception {
+		final UCT ai = new UCT(-1, 2000, 100, 10, new RandomBiasedAI(), new SimpleSqrtEvaluationFunction3());
+		ai.setTreeReuse(true);
+		check(ai, () -> ai.tree);
+	}
+
+	private static void check(final InterruptibleAI ai, final Supplier<MCTSNode> tree) throws Exception {
+		final UnitTypeTable utt = new UnitTypeTable();
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", utt), utt);
+		ai.startNewComputation(0, gs.clone());
+		ai.computeDuringOneGameFrame();
+		final MCTSNode root = tree.get();
+
+		// a decision of player 0 after this one, and one after that:
+		MCTSNode next = null;
+		MCTSNode later = null;
+		for (final MCTSNode node : nextDecisions(root)) {
+			for (final MCTSNode node2 : nextDecisions(node)) {
+				if (later == null || node2.visit_count > later.visit_count) {
+					next = node;
+					later = node2;
+				}
+			}
+		}
+		assertNotNull(later);
+		final MCTSNode found = root.findNode(next.getGameState(), 0);
+		assertNotNull(found);
+		assertTrue(MCTSNode.sameState(found.getGameState(), next.getGameState()));
+		assertNotNull(next.findNode(later.getGameState(), 0));
+		// the search stops at the next decisions:
+		boolean atNextDecision = false;
+		for (final MCTSNode node : nextDecisions(root)) {
+			atNextDecision |= MCTSNode.sameState(node.getGameState(), later.getGameState());
+		}
+		assertEquals(atNextDecision, root.findNode(later.getGameState(), 0) != null);
+
+		// reuse:
+		final int visits = found.visit_count;
+		ai.startNewComputation(0, next.getGameState().clone());
+		assertSame(found, tree.get());
+		assertNull(found.parent);
+		assertEquals(0, found.depth);
+		assertEquals(visits, found.visit_count);
+
+		// a state that is not in the tree (same time, different resources):
+		final GameState other = next.getGameState().clone();
+		other.getPlayer(0).setResources(other.getPlayer(0).getResources() + 1);
+		ai.startNewComputation(0, other);
+		assertNotSame(found, tree.get());
+		assertEquals(0, tree.get().visit_count);
+	}
+
+	/**
+	 * @return the nodes of type 0 (decisions of player 0) below 'node' that are not below
+	 * other nodes of type 0
+	 */
+	private static List<MCTSNode> nextDecisions(final MCTSNode node) {
+		final List<MCTSNode> decisions = new ArrayList<>();
+		final LinkedList<MCTSNode> open = new LinkedList<>();
+		if (node.children != null) open.addAll(node.children);
+		while (!open.isEmpty()) {
+			final MCTSNode n = open.removeFirst();
+			if (n.type == 0) {
+				decisions.add(n);
+			} else if (n.children != null) {
+				open.addAll(n.children);
+			}
+		}
+		return decisions;
+	}
+}
@@ -0,0 +1,87 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that {@link GameState#undo(int)} restores the state
+ * that was current when the corresponding mark was taken.
+ */
+public class TestUndoLog {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testUndoRandomPlayouts() throws Exception {
+		final PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT);
+		final GameState gs = new GameState(pgs, UTT);
+		gs.setUndoLogging(true);
+
+		final AI ai1 = new WorkerRush(UTT);
+		final AI ai2 = new LightRush(UTT);
+		final AI random = new RandomBiasedAI();
+
+		boolean gameover = false;
+		while (!gameover && gs.getTime() < 1500) {
+			// branch: play a random playout, and check it is fully reverted
+			final GameState before = gs.clone();
+			final int mark = gs.mark();
+			for (int i = 0; i < 50 && !gs.gameover(); i++) {
+				gs.issue(random.getAction(0, gs));
+				gs.issue(random.getAction(1, gs));
+				gs.cycle();
+			}
+			gs.undo(mark);
+			assertEquivalent(before, gs);
+
+			// trunk: keep playing the actual game
+			gs.issueSafe(ai1.getAction(0, gs));
+			gs.issueSafe(ai2.getAction(1, gs));
+			gameover = gs.cycle();
+		}
+
+		// undoing the whole game brings us back to the initial state:
+		gs.undo(0);
+		final GameState initial = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+		assertEquals(0, gs.getTime());
+		assertTrue(gs.getUnitActions().isEmpty());
+		assertTrue(initial.getPhysicalGameState().equivalents(gs.getPhysicalGameState()));
+	}
+
+	/**
+	 * Checks that both states are equal, and that the occupancy index of
+	 * the restored state is consistent with its units
+	 * @param expected
+	 * @param actual
+	 */
+	private static void assertEquivalent(final GameState expected, final GameState actual) {
+		assertEquals(expected, actual);
+		for (final Player p : expected.getPhysicalGameState().getPlayers()) {
+			assertEquals(p.getResources(), actual.getPlayer(p.getID()).getResources());
+		}
+		assertEquals(expected.getUnitActions().size(), actual.getUnitActions().size());
+		for (final Unit u : actual.getUnits()) {
+			assertSame(u, actual.getPhysicalGameState().getUnitAt(u.getX(), u.getY()));
+			final UnitActionAssignment uaa = actual.getActionAssignment(u);
+			if (uaa != null) {
+				assertSame(u, uaa.unit);
+			}
+		}
+	}
+
+}
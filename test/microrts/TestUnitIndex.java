@@ -0,0 +1,84 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import rts.PhysicalGameState;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the occupancy index of a {@link PhysicalGameState}
+ * notices units relocated without going through
+ * {@link PhysicalGameState#moveUnit(Unit, int, int)}, or through another map
+ * the unit is also in.
+ */
+public class TestUnitIndex {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDirectRelocation() throws Exception {
+		final PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT);
+		final Unit worker = new Unit(0, UTT.getUnitType("Worker"), 4, 4);
+		pgs.addUnit(worker);
+		assertNull(pgs.getUnitAt(3, 5));
+
+		// moved into a cell that was indexed as empty:
+		worker.setX(3);
+		worker.setY(5);
+		assertSame(worker, pgs.getUnitAt(3, 5));
+		assertNull(pgs.getUnitAt(4, 4));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testSharedUnits() throws Exception {
+		final PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT);
+		final Unit worker = new Unit(0, UTT.getUnitType("Worker"), 4, 4);
+		pgs.addUnit(worker);
+		final PhysicalGameState view = pgs.cloneKeepingUnits();
+		assertSame(worker, view.getUnitAt(4, 4));
+
+		// moved through the map it was added to, but queried through the other one:
+		pgs.moveUnit(worker, 4, 5);
+		assertSame(worker, view.getUnitAt(4, 5));
+		assertNull(view.getUnitAt(4, 4));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testUnitInTwoMaps() throws Exception {
+		final PhysicalGameState pgs = PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT);
+		final Unit worker = new Unit(0, UTT.getUnitType("Worker"), 4, 4);
+		pgs.addUnit(worker);
+		// a separate map the same unit is added to (as the believe-state AIs do
+		// when sampling worlds):
+		final PhysicalGameState other = pgs.clone();
+		other.addUnit(new Unit(1, UTT.getUnitType("Worker"), 2, 4));
+		other.removeUnit(other.getUnitAt(4, 4));
+		other.addUnit(worker);
+		assertSame(worker, other.getUnitAt(4, 4));
+		assertNull(other.getUnitAt(5, 4));
+		assertNull(pgs.getUnitAt(5, 4));
+
+		// moved through one map, queried through the other, in both directions:
+		pgs.moveUnit(worker, 5, 4);
+		assertSame(worker, other.getUnitAt(5, 4));
+		assertNull(other.getUnitAt(4, 4));
+		other.moveUnit(worker, 5, 5);
+		assertSame(worker, pgs.getUnitAt(5, 5));
+		assertNull(pgs.getUnitAt(5, 4));
+		assertSame(worker, other.getUnitAt(5, 5));
+		assertNull(other.getUnitAt(5, 4));
+		assertEquals(1, other.getUnitsAround(5, 5, 0).size());
+
+		other.removeUnit(worker);
+		assertNull(other.getUnitAt(5, 5));
+		assertSame(worker, pgs.getUnitAt(5, 5));
+	}
+}
@@ -0,0 +1,64 @@
+package microrts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/**
+ * Unit test to verify that the incrementally maintained Zobrist key of a
+ * {@link GameState} always matches the key computed from scratch.
+ */
+public class TestZobristKey {
+
+	private static final UnitTypeTable UTT = new UnitTypeTable();
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testIncrementalKey() throws Exception {
+		final GameState gs = new GameState(PhysicalGameState.load("maps/8x8/basesWorkers8x8.xml", UTT), UTT);
+		gs.setUndoLogging(true);
+		final long initialKey = gs.getZobristKey();
+
+		final AI ai1 = new WorkerRush(UTT);
+		final AI ai2 = new LightRush(UTT);
+		final AI random = new RandomBiasedAI();
+
+		boolean gameover = false;
+		while (!gameover && gs.getTime() < 1500) {
+			final long key = gs.getZobristKey();
+			final int mark = gs.mark();
+			for (int i = 0; i < 20 && !gs.gameover(); i++) {
+				gs.issue(random.getAction(0, gs));
+				gs.issue(random.getAction(1, gs));
+				assertEquals(recomputedKey(gs), gs.getZobristKey());
+				gs.cycle();
+				assertEquals(recomputedKey(gs), gs.getZobristKey());
+			}
+			gs.undo(mark);
+			assertEquals(key, gs.getZobristKey());
+
+			gs.issueSafe(ai1.getAction(0, gs));
+			gs.issueSafe(ai2.getAction(1, gs));
+			gameover = gs.cycle();
+			assertEquals(recomputedKey(gs), gs.getZobristKey());
+			assertEquals(gs.getZobristKey(), gs.clone().getZobristKey());
+			assertNotEquals(initialKey, gs.getZobristKey());
+		}
+	}
+
+	private static long recomputedKey(final GameState gs) {
+		final GameState gs2 = gs.clone();
+		gs2.invalidateZobristKey();
+		return gs2.getZobristKey();
+	}
+
+}
@@ -0,0 +1,51 @@
+package tournaments;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stand-in for a worker of {@link ProcessMatchScheduler} (see TestProcessMatchScheduler):
+ * connects to the coordinator and answers each match as told by its first argument:
+ * "result" (player 0 wins), "error", "exit" (dies while player 1 is running) or "hang"
+ * (hangs while player 0 is running).
+ */
+public class StubWorker {
+
+	public static void main(final String[] args) throws Exception {
+		final String mode = args[0];
+		final String[] worker = args[args.length - 1].substring("--worker=".length()).split(":");
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(worker[1]))) {
+			final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			final PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+			String line;
+			while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+				final String match = line.substring("MATCH ".length());
+				switch (mode) {
+				case "result":
+					out.println("TURN 0");
+					out.println("TURN -1");
+					out.println("RESULT " + match + " 100 0 -1 -1");
+					break;
+				case "error":
+					out.println("ERROR java.lang.Exception: no such map");
+					break;
+				case "exit":
+					out.println("TURN 1");
+					System.exit(1);
+					break;
+				case "hang":
+					out.println("TURN 0");
+					Thread.sleep(Long.MAX_VALUE);
+					break;
+				default:
+					throw new IllegalArgumentException(mode);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package tournaments;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit test to verify that {@link ProcessMatchScheduler} gets the results of matches from
+ * its workers, and records the matches of workers that die or hang, blaming the AI that
+ * was running, instead of failing, while matches that could not be played make it fail
+ * (workers are played by {@link StubWorker}).
+ */
+public class TestProcessMatchScheduler {
+
+	private static final int[] MATCH = {1, 2, 3, 4};
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testResult() throws Exception {
+		assertArrayEquals(new int[]{100, 0, -1, -1}, play("result", 0));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testError() throws Exception {
+		// matches that cannot be played are not results, so the tournament fails:
+		try {
+			play("error", 0);
+			fail("a match that could not be played was recorded");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().contains("no such map"));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testJvmOptions() {
+		// the options of this JVM (e.g., -ea, which the tests run with) are passed to the workers:
+		final List<String> command = ProcessMatchScheduler.javaCommand(StubWorker.class);
+		for (final String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			assertTrue(arg, command.contains(arg));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testExit() throws Exception {
+		// player 1 was running, so it crashed:
+		assertArrayEquals(new int[]{0, 0, 1, -1}, play("exit", 0));
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testHang() throws Exception {
+		// player 0 was running, so it timed out:
+		assertArrayEquals(new int[]{0, 1, -1, 0}, play("hang", 1000));
+	}
+
+	private static int[] play(final String mode, final int matchTimeout) throws Exception {
+		final File logFolder = Files.createTempDirectory("workers").toFile();
+		final List<String> command = ProcessMatchScheduler.javaCommand(StubWorker.class);
+		command.add(mode);
+		final ProcessMatchScheduler.Worker worker = new ProcessMatchScheduler(1, command, logFolder, matchTimeout).new Worker(0);
+		try {
+			return worker.play(MATCH);
+		} finally {
+			worker.destroy();
+			for (final File log : logFolder.listFiles()) log.delete();
+			logFolder.delete();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package tournaments;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import ai.core.AI;
+import ai.core.ParameterSpecification;
+import rts.GameState;
+import rts.PlayerAction;
+
+/**
+ * Unit test to verify that the journal of a {@link Tournament} lets an interrupted
+ * tournament be resumed (including when its last line was cut), that it identifies AIs
+ * by their class and parameters rather than by their names, and that a journal from a
+ * different tournament is rejected.
+ */
+public class TestTournamentJournal {
+
+	private static final List<String> MAPS = Arrays.asList("maps/a.xml", "maps/b.xml");
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testResume() throws Exception {
+		final File file = journalFile();
+		final List<int[]> matches = matches();
+
+		// the first run is interrupted after 5 matches:
+		final Tournament first = tournament(1, 2);
+		first.setJournal(file.getPath(), false);
+		final List<int[]> played = new ArrayList<>();
+		try {
+			first.runMatches(MAPS, matches, runner(played, 5), new StringWriter());
+			fail("the runner was not interrupted");
+		} catch (final IllegalStateException e) {
+			assertEquals(5, played.size());
+		}
+
+		// a crash while writing the next line leaves it incomplete:
+		Files.write(file.toPath(), "0\t1\t1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		final Tournament second = tournament(1, 2);
+		second.setJournal(file.getPath(), true);
+		final List<int[]> resumed = new ArrayList<>();
+		final StringWriter out = new StringWriter();
+		second.runMatches(MAPS, matches, runner(resumed, Integer.MAX_VALUE), out);
+		assertEquals(matches.size() - 5, resumed.size());
+		for (final int[] m : played) {
+			for (final int[] m2 : resumed) {
+				assertTrue(!Arrays.equals(m, m2));
+			}
+		}
+		// all the results are recorded, the ones from the journal first:
+		final String[] results = out.toString().split("\n");
+		assertEquals(matches.size(), results.length);
+		for (int i = 0; i < results.length; i++) {
+			final int[] m = i < 5 ? played.get(i) : resumed.get(i - 5);
+			assertTrue(results[i].startsWith(m[0] + "\t" + m[1] + "\t" + m[2] + "\t" + m[3] + "\t" + result(m)[0] + "\t"));
+		}
+
+		// the incomplete line was dropped, and the journal is complete:
+		final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		int rows = 0;
+		for (final String line : lines) {
+			if (line.startsWith("#")) continue;
+			assertEquals(11, line.split("\t").length);
+			rows++;
+		}
+		assertEquals(matches.size(), rows);
+
+		// resuming a finished tournament plays nothing:
+		final Tournament third = tournament(1, 2);
+		third.setJournal(file.getPath(), true);
+		final List<int[]> none = new ArrayList<>();
+		third.runMatches(MAPS, matches, runner(none, Integer.MAX_VALUE), new StringWriter());
+		assertEquals(0, none.size());
+		file.delete();
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDifferentTournament() throws Exception {
+		final File file = journalFile();
+		final Tournament first = tournament(1, 2);
+		first.setJournal(file.getPath(), false);
+		try {
+			first.runMatches(MAPS, matches(), runner(new ArrayList<>(), 3), new StringWriter());
+		} catch (final IllegalStateException e) {
+			// interrupted after 3 matches
+		}
+
+		// same AI names, but different parameters:
+		final Tournament second = tournament(1, 3);
+		second.setJournal(file.getPath(), true);
+		try {
+			second.runMatches(MAPS, matches(), runner(new ArrayList<>(), Integer.MAX_VALUE), new StringWriter());
+			fail("a journal from a different tournament was resumed");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().contains("different tournament"));
+		}
+
+		// a journal without a header (e.g., written by another program):
+		Files.write(file.toPath(), "0\t0\t0\t1\t100\t0\t-1\t-1\tmaps/a.xml\tStub\tStub\n".getBytes(StandardCharsets.UTF_8));
+		final Tournament third = tournament(1, 2);
+		third.setJournal(file.getPath(), true);
+		try {
+			third.runMatches(MAPS, matches(), runner(new ArrayList<>(), Integer.MAX_VALUE), new StringWriter());
+			fail("a journal without a header was resumed");
+		} catch (final IOException e) {
+			assertTrue(e.getMessage().contains("different tournament"));
+		}
+		file.delete();
+	}
+
+	@Test
+	@SuppressWarnings("static-method")
+	public void testDescribe() {
+		assertEquals(new Stub(1).toString(), new Stub(2).toString());
+		assertNotEquals(Tournament.describe(new Stub(1)), Tournament.describe(new Stub(2)));
+		assertEquals(Tournament.describe(new Stub(1)), Tournament.describe(new Stub(1)));
+		assertEquals("tournaments.TestTournamentJournal$Stub(Level=2)", Tournament.describe(new Stub(2)));
+	}
+
+	/**
+	 * @return a tournament between two AIs with the same name, but different levels
+	 */
+	private static Tournament tournament(final int level1, final int level2) {
+		return new Tournament(Arrays.asList(new Stub(level1), new Stub(level2)));
+	}
+
+	private static List<int[]> matches() {
+		final List<int[]> matches = new ArrayList<>();
+		for (int iteration = 0; iteration < 2; iteration++) {
+			for (int map = 0; map < MAPS.size(); map++) {
+				for (int ai1 = 0; ai1 < 2; ai1++) {
+					for (int ai2 = 0; ai2 < 2; ai2++) {
+						if (ai1 != ai2) matches.add(new int[]{iteration, map, ai1, ai2});
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @return a runner that records the matches it plays in 'played', and fails after 'max' of them
+	 */
+	private static Tournament.MatchRunner runner(final List<int[]> played, final int max) {
+		return (iteration, map_idx, ai1_idx, ai2_idx) -> {
+			if (played.size() >= max) throw new IllegalStateException("interrupted");
+			final int[] m = {iteration, map_idx, ai1_idx, ai2_idx};
+			played.add(m);
+			return result(m);
+		};
+	}
+
+	private static int[] result(final int[] m) {
+		return new int[]{100 + m[0] * 10 + m[1], (m[0] + m[1]) % 2, -1, -1};
+	}
+
+	private static File journalFile() throws IOException {
+		final File file = File.createTempFile("journal", ".tsv");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * An AI with a parameter that does not show in its name
+	 */
+	public static class Stub extends AI {
+		private int level;
+
+		public Stub(final int a_level) {
+			level = a_level;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		@Override
+		public void reset() {
+		}
+
+		@Override
+		public PlayerAction getAction(final int player, final GameState gs) {
+			return new PlayerAction();
+		}
+
+		@Override
+		public AI clone() {
+			return new Stub(level);
+		}
+
+		@Override
+		public List<ParameterSpecification> getParameters() {
+			final List<ParameterSpecification> parameters = new ArrayList<>();
+			parameters.add(new ParameterSpecification("Level", int.class, 1));
+			return parameters;
+		}
+	}
+}